@@ -2,6 +2,7 @@ plugins {
     id("org.springframework.boot") version "2.3.3.RELEASE"
     id("io.spring.dependency-management") version "1.0.9.RELEASE"
     id("net.bytebuddy.byte-buddy-gradle-plugin") version "1.10.14"
+    id("me.champeau.gradle.jmh") version "0.5.0"
     antlr
 }
 
@@ -64,6 +65,35 @@ byteBuddy {
     })
 }
 
+jmh {
+    jmhVersion = "1.25.2"
+    // Benchmarks needing a database, like org.accula.api.db.repo.BulkInsertBenchmark, are run with -PjmhInclude=<regex>
+    include = listOf(project.findProperty("jmhInclude")?.toString() ?: "org\\.accula\\.api\\.benchmark\\..*")
+    benchmarkMode = listOf("avgt")
+    timeUnit = "ms"
+    warmupIterations = 3
+    iterations = 5
+    fork = 1
+    profilers = listOf("gc")
+    jvmArgsAppend = listOf("--enable-preview")
+    duplicateClassesStrategy = DuplicatesStrategy.EXCLUDE
+}
+
+val loadtest: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+configurations[loadtest.compileOnlyConfigurationName].extendsFrom(configurations.compileOnly.get())
+configurations[loadtest.annotationProcessorConfigurationName].extendsFrom(configurations.annotationProcessor.get())
+
+tasks.register<JavaExec>("loadTest") {
+    description = "Replays webhook bursts against the API with local stand-ins for GitHub and its git remotes"
+    group = "verification"
+    classpath = loadtest.runtimeClasspath
+    main = "org.accula.api.loadtest.LoadTest"
+    systemProperties(System.getProperties().filterKeys { it.toString().startsWith("loadtest.") }.mapKeys { it.key.toString() })
+}
+
 tasks.generateGrammarSource {
     maxHeapSize = "64m"
     arguments = arguments + listOf("-package", "generated")
@@ -0,0 +1,119 @@
+package org.accula.api.benchmark;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.CloneDetector;
+import org.accula.api.detector.MinHashCloneDetector;
+import org.accula.api.detector.PrimitiveCloneDetector;
+import org.accula.api.detector.SuffixArrayCloneDetector;
+import org.accula.api.detector.SuffixTreeCloneDetector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Detection of clones of the last pull head of a synthetic course in all earlier pull heads.
+ * Compares the detectors on the same corpus, including the suffix array against the suffix tree.
+ * The MinHash detector is also run on a course of a thousand pulls, which the exact detectors take too long on.
+ */
+public class CloneDetectorBenchmark {
+    static final int MIN_CLONE_LENGTH = 15;
+    static final int PRIMITIVE_MIN_LINE_LENGTH = 10;
+    static final int PRIMITIVE_MIN_LINE_COUNT = 5;
+
+    @Benchmark
+    public Long findClones(final Corpus corpus) {
+        return corpus.findClones();
+    }
+
+    @Benchmark
+    public Long findClonesInLargeCorpus(final LargeCorpus corpus) {
+        return corpus.findClones();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({"SUFFIX_TREE", "SUFFIX_ARRAY", "PRIMITIVE", "MIN_HASH"})
+        public Detector detector;
+        @Param({"5", "20"})
+        public int pulls;
+        @Param("10")
+        public int files;
+        @Param("0.1")
+        public double plantedCloneRate;
+
+        CloneDetector cloneDetector;
+        List<FileEntity> targets;
+        List<FileEntity> sources;
+
+        @Setup
+        public void setUp() {
+            final var corpus = SyntheticCorpus.generate(pulls, files, plantedCloneRate, 42L);
+            targets = corpus.targetFiles();
+            sources = corpus.sourceFiles();
+            cloneDetector = detector.create();
+        }
+
+        Long findClones() {
+            return CloneDetectorBenchmark.findClones(cloneDetector, targets, sources);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeCorpus {
+        @Param("1000")
+        public int pulls;
+        @Param("10")
+        public int files;
+        @Param("0.1")
+        public double plantedCloneRate;
+
+        CloneDetector cloneDetector;
+        List<FileEntity> targets;
+        List<FileEntity> sources;
+
+        @Setup
+        public void setUp() {
+            final var corpus = SyntheticCorpus.generate(pulls, files, plantedCloneRate, 42L);
+            targets = corpus.targetFiles();
+            sources = corpus.sourceFiles();
+            cloneDetector = Detector.MIN_HASH.create();
+        }
+
+        Long findClones() {
+            return CloneDetectorBenchmark.findClones(cloneDetector, targets, sources);
+        }
+    }
+
+    static Long findClones(final CloneDetector cloneDetector, final List<FileEntity> targets, final List<FileEntity> sources) {
+        return cloneDetector
+                .findClones(Flux.fromIterable(targets), Flux.fromIterable(sources))
+                .count()
+                .block();
+    }
+
+    public enum Detector {
+        SUFFIX_TREE,
+        SUFFIX_ARRAY,
+        PRIMITIVE,
+        MIN_HASH,
+        ;
+
+        CloneDetector create() {
+            final CloneDetector.ConfigProvider config = () -> Mono.just(CloneDetector.Config.builder()
+                    .minCloneLength(MIN_CLONE_LENGTH)
+                    .build());
+            return switch (this) {
+                case SUFFIX_TREE -> new SuffixTreeCloneDetector(config);
+                case SUFFIX_ARRAY -> new SuffixArrayCloneDetector(config);
+                case PRIMITIVE -> new PrimitiveCloneDetector(PRIMITIVE_MIN_LINE_LENGTH, PRIMITIVE_MIN_LINE_COUNT);
+                case MIN_HASH -> new MinHashCloneDetector(config);
+            };
+        }
+    }
+}
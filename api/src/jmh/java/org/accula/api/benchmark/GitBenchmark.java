@@ -0,0 +1,80 @@
+package org.accula.api.benchmark;
+
+import org.accula.api.code.git.Git;
+import org.accula.api.code.git.GitFile;
+import org.accula.api.code.git.Identifiable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reading the contents of all files of a commit through a single {@code git cat-file --batch} process,
+ * which is what the code loader does for every pull head
+ */
+@State(Scope.Benchmark)
+public class GitBenchmark {
+    static final String REPO = "course";
+
+    @Param("50")
+    public int files;
+
+    Path root;
+    ExecutorService executor;
+    Git.Repo repo;
+    List<GitFile> commitFiles;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException, ExecutionException {
+        root = Files.createTempDirectory("accula-git-benchmark");
+        final var directory = Files.createDirectory(root.resolve(REPO));
+        for (final var file : SyntheticCorpus.generate(1, files, 0.0, 42L).files(0)) {
+            final var path = directory.resolve(file.getName());
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, file.getContent());
+        }
+        run(directory, "git", "init", "-q");
+        run(directory, "git", "add", ".");
+        run(directory, "git", "-c", "user.name=bench", "-c", "user.email=bench@accula.org", "commit", "-q", "-m", "corpus");
+
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        repo = new Git(root, executor).repo(Path.of(REPO)).get();
+        commitFiles = repo.lsTree("HEAD").get();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Map<Identifiable, String> catFiles() throws ExecutionException, InterruptedException {
+        return repo.catFiles(commitFiles).get();
+    }
+
+    private static void run(final Path directory, final String... command) throws IOException, InterruptedException {
+        final var exitCode = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .inheritIO()
+                .start()
+                .waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " exited with " + exitCode);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.accula.api.benchmark;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.parser.Parser;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Lexing, parsing and packing of the methods of a single pull head,
+ * with and without calls qualified with a type, which are the slow case of the grammar
+ */
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    @Param("10")
+    public int files;
+    @Param({"false", "true"})
+    public boolean qualifiedCalls;
+
+    List<FileEntity> head;
+
+    @Setup
+    public void setUp() {
+        head = SyntheticCorpus.generate(1, files, 0.0, qualifiedCalls, 42L).files(0);
+    }
+
+    @Benchmark
+    public long tokenizedFunctions() {
+        long tokens = 0L;
+        for (final var file : head) {
+            tokens += Parser.tokenizedFunctions(file).mapToLong(TokenizedMethod::size).sum();
+        }
+        return tokens;
+    }
+}
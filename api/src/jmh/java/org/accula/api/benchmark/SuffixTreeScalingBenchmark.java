@@ -0,0 +1,78 @@
+package org.accula.api.benchmark;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.CloneDetector;
+import org.accula.api.detector.SuffixTreeCloneDetector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Speedup of the parallel query phases of the suffix tree detector with the number of cores.
+ * Both query phases run on the CPU scheduler of the application, which is sized like the Reactor parallel scheduler,
+ * so each fork limits it with {@code reactor.schedulers.defaultPoolSize}.
+ * <p>
+ * The speedup on {@code n} cores is the score of {@code cores1} divided by the score of {@code cores<n>}.
+ * It is only meaningful on a machine with at least {@code n} physical cores, since the pool is never
+ * limited by the cores actually available. Parsing and building the tree stay sequential, so the speedup
+ * of the whole detection is bounded by their share of the {@code cores1} time.
+ */
+@State(Scope.Benchmark)
+public class SuffixTreeScalingBenchmark {
+    @Param("20")
+    public int pulls;
+    @Param("20")
+    public int files;
+
+    CloneDetector detector;
+    List<FileEntity> targets;
+    List<FileEntity> sources;
+
+    @Setup
+    public void setUp() {
+        final var corpus = SyntheticCorpus.generate(pulls, files, 0.1, 42L);
+        targets = corpus.targetFiles();
+        sources = corpus.sourceFiles();
+        detector = new SuffixTreeCloneDetector(() -> Mono.just(CloneDetector.Config.builder()
+                .minCloneLength(CloneDetectorBenchmark.MIN_CLONE_LENGTH)
+                .build()));
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = {"-Dreactor.schedulers.defaultPoolSize=1"})
+    public Long cores1() {
+        return findClones();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = {"-Dreactor.schedulers.defaultPoolSize=4"})
+    public Long cores4() {
+        return findClones();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = {"-Dreactor.schedulers.defaultPoolSize=8"})
+    public Long cores8() {
+        return findClones();
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = {"-Dreactor.schedulers.defaultPoolSize=16"})
+    public Long cores16() {
+        return findClones();
+    }
+
+    private Long findClones() {
+        return detector
+                .findClones(Flux.fromIterable(targets), Flux.fromIterable(sources))
+                .count()
+                .block();
+    }
+}
@@ -0,0 +1,169 @@
+package org.accula.api.benchmark;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.GithubRepo;
+import org.accula.api.db.model.GithubUser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Deterministic corpus of pull heads of a course: {@code pulls} heads of {@code files} Java files each.
+ * <p>
+ * Methods are random compositions of the statements typical for student code. Every method of a later pull
+ * is, with the probability {@code plantedCloneRate}, a copy of a random method of an earlier pull
+ * with renamed identifiers, so the detectors have a known share of clones to find.
+ * <p>
+ * Calls qualified with a type or a field, like {@code System.out.println(v0)}, cost the ANTLR Java 9 grammar
+ * tens of milliseconds each even with a warm DFA cache, so they would dominate every detector benchmark.
+ * They are generated only if {@code qualifiedCalls} is set, otherwise methods are called unqualified.
+ */
+public final class SyntheticCorpus {
+    private static final int METHODS_PER_FILE = 8;
+    private static final int MAX_STATEMENTS = 12;
+    private static final int MAX_DEPTH = 2;
+    private static final String[] TYPES = {"int", "long", "String", "boolean", "double"};
+    private final List<List<FileEntity>> pulls;
+
+    private SyntheticCorpus(final List<List<FileEntity>> pulls) {
+        this.pulls = pulls;
+    }
+
+    public static SyntheticCorpus generate(final int pulls, final int files, final double plantedCloneRate, final long seed) {
+        return generate(pulls, files, plantedCloneRate, false, seed);
+    }
+
+    public static SyntheticCorpus generate(final int pulls,
+                                           final int files,
+                                           final double plantedCloneRate,
+                                           final boolean qualifiedCalls,
+                                           final long seed) {
+        final var random = new Random(seed);
+        final var methods = new ArrayList<String>();
+        final var heads = new ArrayList<List<FileEntity>>(pulls);
+        for (int pull = 0; pull < pulls; ++pull) {
+            final var snapshot = snapshot(pull);
+            final var earlierMethodCount = methods.size();
+            final var head = new ArrayList<FileEntity>(files);
+            for (int file = 0; file < files; ++file) {
+                final var className = "Task" + file;
+                final var content = new StringBuilder()
+                        .append("package ru.course.pull").append(pull).append(";\n\n")
+                        .append("public class ").append(className).append(" {\n");
+                for (int method = 0; method < METHODS_PER_FILE; ++method) {
+                    final String body;
+                    if (earlierMethodCount > 0 && random.nextDouble() < plantedCloneRate) {
+                        body = methods.get(random.nextInt(earlierMethodCount)).replace("v", "w" + pull + "_");
+                    } else {
+                        body = method(random, "m" + method, qualifiedCalls);
+                    }
+                    methods.add(body);
+                    content.append(body);
+                }
+                content.append("}\n");
+                head.add(new FileEntity(snapshot, "src/main/java/ru/course/" + className + ".java", content.toString()));
+            }
+            heads.add(head);
+        }
+        return new SyntheticCorpus(heads);
+    }
+
+    public int pullCount() {
+        return pulls.size();
+    }
+
+    public List<FileEntity> files(final int pull) {
+        return pulls.get(pull);
+    }
+
+    /**
+     * Files of the last pull, the one with the most sources to match against
+     */
+    public List<FileEntity> targetFiles() {
+        return files(pulls.size() - 1);
+    }
+
+    /**
+     * Files of all pulls but the last one
+     */
+    public List<FileEntity> sourceFiles() {
+        return IntStream
+                .range(0, pulls.size() - 1)
+                .boxed()
+                .flatMap(pull -> files(pull).stream())
+                .collect(Collectors.toList());
+    }
+
+    private static CommitSnapshot snapshot(final int pull) {
+        final var owner = new GithubUser((long) pull, "student" + pull, "Student " + pull, "", false);
+        final var repo = new GithubRepo((long) pull, "course", "", owner);
+        return CommitSnapshot.builder()
+                .sha(String.format("%040x", pull))
+                .branch("master")
+                .repo(repo)
+                .build();
+    }
+
+    private static String method(final Random random, final String name, final boolean qualifiedCalls) {
+        final var type = TYPES[random.nextInt(TYPES.length)];
+        final var body = new StringBuilder()
+                .append("    public ").append(type).append(' ').append(name).append("(int v0, int v1) {\n")
+                .append("        int v2 = v0 + v1;\n");
+        statements(random, body, 2, 0, qualifiedCalls);
+        body.append("        return ").append(defaultValue(type)).append(";\n")
+                .append("    }\n\n");
+        return body.toString();
+    }
+
+    private static void statements(final Random random,
+                                   final StringBuilder body,
+                                   final int indent,
+                                   final int depth,
+                                   final boolean qualifiedCalls) {
+        final var count = 1 + random.nextInt(MAX_STATEMENTS >> depth);
+        for (int i = 0; i < count; ++i) {
+            final var pad = "    ".repeat(indent);
+            final var a = "v" + random.nextInt(3);
+            final var b = "v" + random.nextInt(3);
+            final var kind = depth < MAX_DEPTH ? random.nextInt(8) : random.nextInt(5);
+            switch (kind) {
+                case 0 -> body.append(pad).append(a).append(" = ").append(b).append(" * ").append(random.nextInt(100)).append(";\n");
+                case 1 -> body.append(pad).append(a).append(" += ").append(b).append(" % ").append(1 + random.nextInt(10)).append(";\n");
+                case 2 -> body.append(pad).append(qualifiedCalls ? "System.out.println(\"" : "print(\"")
+                        .append(a).append(" = \" + ").append(a).append(");\n");
+                case 3 -> body.append(pad).append(a).append(qualifiedCalls ? " = Math.max(" : " = max(")
+                        .append(a).append(", ").append(b).append(");\n");
+                case 4 -> body.append(pad).append(a).append(qualifiedCalls ? " = Integer.parseInt(String.valueOf(" : " = parseInt(valueOf(")
+                        .append(b).append("));\n");
+                case 5 -> {
+                    body.append(pad).append("if (").append(a).append(" > ").append(b).append(") {\n");
+                    statements(random, body, indent + 1, depth + 1, qualifiedCalls);
+                    body.append(pad).append("}\n");
+                }
+                case 6 -> {
+                    body.append(pad).append("for (int i = 0; i < ").append(a).append("; ++i) {\n");
+                    statements(random, body, indent + 1, depth + 1, qualifiedCalls);
+                    body.append(pad).append("}\n");
+                }
+                default -> {
+                    body.append(pad).append("while (").append(a).append(" < ").append(random.nextInt(1000)).append(") {\n");
+                    statements(random, body, indent + 1, depth + 1, qualifiedCalls);
+                    body.append(pad).append(a).append("++;\n");
+                    body.append(pad).append("}\n");
+                }
+            }
+        }
+    }
+
+    private static String defaultValue(final String type) {
+        return switch (type) {
+            case "String" -> "\"\"";
+            case "boolean" -> "false";
+            default -> "0";
+        };
+    }
+}
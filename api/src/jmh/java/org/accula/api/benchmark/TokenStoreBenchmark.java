@@ -0,0 +1,89 @@
+package org.accula.api.benchmark;
+
+import com.suhininalex.clones.core.structures.Token;
+import generated.Java9Lexer;
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.index.TokenStore;
+import org.accula.api.detector.parser.Parser;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.antlr.v4.runtime.CharStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.function.Predicate.not;
+
+/**
+ * Memory taken by the tokens of a detection over the synthetic corpus, to be run with {@code -prof gc}.
+ * Everything a benchmark allocates stays reachable until the detection ends, so {@code gc.alloc.rate.norm}
+ * divided by the returned number of tokens is the size of a token.
+ * <p>
+ * {@code tokenObjects} is the representation before the token store, a tree token with its own text per token.
+ * {@code tokenStore} packs the parsed methods into the store and creates the tree tokens of all of them,
+ * as the suffix tree detector does.
+ */
+@State(Scope.Benchmark)
+public class TokenStoreBenchmark {
+    @Param("20")
+    public int pulls;
+    @Param("10")
+    public int files;
+
+    final List<FileEntity> corpus = new ArrayList<>();
+    final List<List<TokenizedMethod>> methods = new ArrayList<>();
+    final List<List<org.antlr.v4.runtime.Token>> lexed = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        final var synthetic = SyntheticCorpus.generate(pulls, files, 0.3, 42L);
+        for (int pull = 0; pull < synthetic.pullCount(); ++pull) {
+            corpus.addAll(synthetic.files(pull));
+        }
+        for (final var file : corpus) {
+            methods.add(Parser.tokenizedFunctions(file).filter(not(TokenizedMethod::isEmpty)).collect(Collectors.toList()));
+            lexed.add(new Java9Lexer(CharStreams.fromString(file.getContent()))
+                    .getAllTokens()
+                    .stream()
+                    .filter(token -> token.getChannel() == org.antlr.v4.runtime.Token.DEFAULT_CHANNEL)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Benchmark
+    public long tokenObjects(final Blackhole blackhole) {
+        long tokens = 0L;
+        for (int i = 0; i < corpus.size(); ++i) {
+            final var file = corpus.get(i);
+            final var fileTokens = new ArrayList<Token>(lexed.get(i).size());
+            for (final var token : lexed.get(i)) {
+                fileTokens.add(new Token(token.getType(), token.getText(), token.getLine(), file.getName(), file.getCommitSnapshot()));
+            }
+            tokens += fileTokens.size();
+            blackhole.consume(fileTokens);
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public long tokenStore(final Blackhole blackhole) {
+        final var store = new TokenStore();
+        for (int i = 0; i < corpus.size(); ++i) {
+            final var fileId = store.addFile(corpus.get(i));
+            for (final var method : methods.get(i)) {
+                store.addMethod(fileId, method);
+            }
+        }
+        for (int method = 0; method < store.methodCount(); ++method) {
+            blackhole.consume(store.treeSequence(method));
+        }
+        blackhole.consume(store);
+        return store.tokenCount();
+    }
+}
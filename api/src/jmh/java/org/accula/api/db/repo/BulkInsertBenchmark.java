@@ -0,0 +1,179 @@
+package org.accula.api.db.repo;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Result;
+import org.accula.api.db.model.Clone;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.GithubRepo;
+import org.accula.api.db.model.GithubUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.r2dbc.spi.ConnectionFactoryOptions.DATABASE;
+import static io.r2dbc.spi.ConnectionFactoryOptions.DRIVER;
+import static io.r2dbc.spi.ConnectionFactoryOptions.HOST;
+import static io.r2dbc.spi.ConnectionFactoryOptions.PASSWORD;
+import static io.r2dbc.spi.ConnectionFactoryOptions.PORT;
+import static io.r2dbc.spi.ConnectionFactoryOptions.USER;
+
+/**
+ * Inserting clones through {@link CloneRepoImpl#insert}, which binds a single array per column unnested by the database,
+ * against the previous path rendering all the values into the SQL with {@link BatchStatement}.
+ * <p>
+ * Needs a Postgres database set with the same {@code DB_*} environment variables as the API and defaults to
+ * {@code accula_benchmark} on {@code localhost:5432}. No migrations are needed: the benchmark holds a single
+ * pooled connection with a temporary {@code clone} table shadowing the real one, so foreign keys do not get in the way.
+ * The table is truncated before every invocation.
+ * <p>
+ * Run with {@code ./gradlew :api:jmh -PjmhInclude=BulkInsertBenchmark}.
+ */
+@State(Scope.Benchmark)
+public class BulkInsertBenchmark {
+    static final GithubRepo REPO = new GithubRepo(1L, "course", "", new GithubUser(1L, "teacher", "Teacher", "ava", false));
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    ConnectionPool pool;
+    CloneRepoImpl cloneRepo;
+    List<Clone> clones;
+
+    @Setup
+    public void setUp() {
+        final var connectionFactory = ConnectionFactories.get(ConnectionFactoryOptions.builder()
+                .option(DRIVER, "postgresql")
+                .option(HOST, env("DB_HOST", "localhost"))
+                .option(PORT, Integer.parseInt(env("DB_PORT", "5432")))
+                .option(USER, env("DB_USER", "postgres"))
+                .option(PASSWORD, env("DB_PASS", "postgres"))
+                .option(DATABASE, env("DB_NAME", "accula_benchmark"))
+                .build());
+        pool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory)
+                .initialSize(1)
+                .maxSize(1)
+                .build());
+        cloneRepo = new CloneRepoImpl(pool::create);
+        execute("""
+                CREATE TEMPORARY TABLE clone
+                (
+                    id                BIGSERIAL PRIMARY KEY,
+                    target_commit_sha CHAR(40)     NOT NULL,
+                    target_repo_id    BIGINT       NOT NULL,
+                    target_file       VARCHAR(256) NOT NULL,
+                    target_from_line  INT          NOT NULL,
+                    target_to_line    INT          NOT NULL,
+                    source_commit_sha CHAR(40)     NOT NULL,
+                    source_repo_id    BIGINT       NOT NULL,
+                    source_file       VARCHAR(256) NOT NULL,
+                    source_from_line  INT          NOT NULL,
+                    source_to_line    INT          NOT NULL,
+                    suppressed        BOOLEAN      NOT NULL DEFAULT FALSE
+                )
+                """);
+
+        final var random = new Random(42L);
+        final var snapshots = IntStream
+                .range(0, 50)
+                .mapToObj(i -> CommitSnapshot.builder().sha("%040x".formatted(i)).branch("master").repo(REPO).build())
+                .collect(Collectors.toList());
+        clones = IntStream
+                .range(0, rows)
+                .mapToObj(i -> {
+                    final var targetFromLine = 1 + random.nextInt(500);
+                    final var sourceFromLine = 1 + random.nextInt(500);
+                    final var length = 5 + random.nextInt(30);
+                    return Clone.builder()
+                            .targetSnapshot(snapshots.get(random.nextInt(snapshots.size())))
+                            .targetFile("src/main/java/ru/course/Task" + random.nextInt(20) + ".java")
+                            .targetFromLine(targetFromLine)
+                            .targetToLine(targetFromLine + length)
+                            .sourceSnapshot(snapshots.get(random.nextInt(snapshots.size())))
+                            .sourceFile("src/main/java/ru/course/Task" + random.nextInt(20) + ".java")
+                            .sourceFromLine(sourceFromLine)
+                            .sourceToLine(sourceFromLine + length)
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Setup(Level.Invocation)
+    public void truncate() {
+        execute("TRUNCATE clone");
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.dispose();
+    }
+
+    @Benchmark
+    public long unnest() {
+        return Objects.requireNonNull(cloneRepo.insert(clones).count().block());
+    }
+
+    @Benchmark
+    public long literalValues() {
+        return Objects.requireNonNull(Flux
+                .usingWhen(pool.create(), connection -> {
+                    final var statement = BatchStatement.of(connection, """
+                            INSERT INTO clone (target_commit_sha,
+                                               target_repo_id,
+                                               target_file,
+                                               target_from_line,
+                                               target_to_line,
+                                               source_commit_sha,
+                                               source_repo_id,
+                                               source_file,
+                                               source_from_line,
+                                               source_to_line)
+                            VALUES ($collection)
+                            RETURNING id
+                            """);
+                    statement.bind(clones, clone -> new Object[]{
+                            clone.getTargetSnapshot().getSha(),
+                            clone.getTargetSnapshot().getRepo().getId(),
+                            clone.getTargetFile(),
+                            clone.getTargetFromLine(),
+                            clone.getTargetToLine(),
+                            clone.getSourceSnapshot().getSha(),
+                            clone.getSourceSnapshot().getRepo().getId(),
+                            clone.getSourceFile(),
+                            clone.getSourceFromLine(),
+                            clone.getSourceToLine()
+                    });
+                    return statement
+                            .execute()
+                            .flatMap(result -> ConnectionProvidedRepo.columnFlux(result, "id", Long.class));
+                }, Connection::close)
+                .count()
+                .block());
+    }
+
+    private void execute(final String sql) {
+        Flux.usingWhen(pool.create(),
+                connection -> Flux.from(connection.createStatement(sql).execute()).flatMap(Result::getRowsUpdated),
+                Connection::close)
+                .then()
+                .block();
+    }
+
+    private static String env(final String name, final String defaultValue) {
+        return Objects.requireNonNullElse(System.getenv(name), defaultValue);
+    }
+}
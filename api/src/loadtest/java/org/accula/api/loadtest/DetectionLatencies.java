@@ -0,0 +1,100 @@
+package org.accula.api.loadtest;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.db.model.DetectionJob;
+import org.accula.api.db.repo.DetectionJobRepo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Latencies from sending a webhook to the clones of its pull being persisted, and the sustained detection throughput.
+ * <p>
+ * Clones are persisted by the time a detection job succeeds, so a webhook is served by the first job of its pull
+ * that has started after the webhook was sent: a job already running then detects the previous head.
+ * Webhooks merged into the same queued job are served by it all together, but the job is counted once for the throughput.
+ */
+@Slf4j
+public final class DetectionLatencies {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Timer latency = Timer
+            .builder("loadtest.webhook.latency")
+            .publishPercentiles(0.5, 0.9, 0.95, 0.99)
+            .register(registry);
+    private final Set<Long> succeededJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicReference<Instant> firstSentAt = new AtomicReference<>();
+    private final AtomicReference<Instant> lastFinishedAt = new AtomicReference<>(Instant.MIN);
+    private final DetectionJobRepo detectionJobRepo;
+    private final Long projectId;
+    private final Duration pollInterval;
+    private final Duration timeout;
+
+    public DetectionLatencies(final DetectionJobRepo detectionJobRepo,
+                              final Long projectId,
+                              final Duration pollInterval,
+                              final Duration timeout) {
+        this.detectionJobRepo = detectionJobRepo;
+        this.projectId = projectId;
+        this.pollInterval = pollInterval;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Waits until the webhook of the pull sent at the instant is served, for at most the timeout
+     */
+    public Mono<Void> await(final Integer pullNumber, final Instant sentAt) {
+        sent.incrementAndGet();
+        firstSentAt.compareAndSet(null, sentAt);
+        return Flux
+                .interval(pollInterval)
+                .concatMap(tick -> detectionJobRepo.findLastFinished(projectId, pullNumber))
+                .filter(job -> job.getStartedAt() != null && !job.getStartedAt().isBefore(sentAt))
+                .next()
+                .timeout(timeout, Mono.fromRunnable(timedOut::incrementAndGet))
+                .doOnNext(job -> record(job, sentAt))
+                .then();
+    }
+
+    public void report() {
+        final var snapshot = latency.takeSnapshot();
+        log.info("Webhooks sent: {}, served by {} succeeded detections, failed: {}, timed out: {}",
+                sent.get(), succeededJobs.size(), failed.get(), timedOut.get());
+        for (final ValueAtPercentile percentile : snapshot.percentileValues()) {
+            log.info("Webhook to clones persisted, p{}: {} ms", Math.round(percentile.percentile() * 100), (long) percentile.value(TimeUnit.MILLISECONDS));
+        }
+        log.info("Webhook to clones persisted, max: {} ms, mean: {} ms",
+                (long) snapshot.max(TimeUnit.MILLISECONDS), (long) snapshot.mean(TimeUnit.MILLISECONDS));
+
+        final var first = firstSentAt.get();
+        final var last = lastFinishedAt.get();
+        if (first != null && last.isAfter(first)) {
+            final var elapsed = Duration.between(first, last);
+            log.info("Sustained throughput: {} detections/min over {}",
+                    String.format("%.1f", succeededJobs.size() * 60_000.0 / elapsed.toMillis()), elapsed);
+        }
+    }
+
+    private void record(final DetectionJob job, final Instant sentAt) {
+        if (job.getState() != DetectionJob.State.SUCCEEDED) {
+            failed.incrementAndGet();
+            return;
+        }
+        final var finishedAt = job.getFinishedAt();
+        latency.record(Duration.between(sentAt, finishedAt));
+        succeededJobs.add(job.getId());
+        lastFinishedAt.accumulateAndGet(finishedAt, (current, next) -> next.isAfter(current) ? next : current);
+    }
+}
@@ -0,0 +1,159 @@
+package org.accula.api.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.github.model.GithubApiCollaborator;
+import org.accula.api.github.model.GithubApiCommitSnapshot;
+import org.accula.api.github.model.GithubApiPull;
+import org.accula.api.github.model.GithubApiRepo;
+import org.accula.api.github.model.GithubApiUser;
+import org.accula.api.github.model.GithubApiUserPermission;
+import org.reactivestreams.Publisher;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.accula.api.github.model.GithubApiUserPermission.Permission.ADMIN;
+import static org.accula.api.github.model.GithubApiUserPermission.Permission.READ;
+
+/**
+ * Stand-in for the part of the GitHub REST API used by {@link org.accula.api.github.api.GithubClientImpl}:
+ * the project repo, its collaborators, its pulls, one per fork, and the creation of its hooks.
+ * <p>
+ * The pull of a fork points to the commit of the round the fork has been {@linkplain #push(int, int) pushed} to.
+ * Requests for other repos are answered with 404, like GitHub does for repos the user cannot see.
+ */
+@Slf4j
+public final class FakeGithub implements AutoCloseable {
+    private static final Instant CREATED_AT = Instant.parse("2020-09-01T00:00:00Z");
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder
+            .json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    private final GithubApiUser admin;
+    private final GithubApiRepo repo;
+    private final List<GithubApiRepo> forks;
+    private final LocalRemotes remotes;
+    private final AtomicIntegerArray rounds;
+    private final AtomicInteger hooks = new AtomicInteger();
+    private final DisposableServer server;
+
+    public FakeGithub(final GithubApiUser admin,
+                      final GithubApiRepo repo,
+                      final List<GithubApiRepo> forks,
+                      final LocalRemotes remotes) {
+        this.admin = admin;
+        this.repo = repo;
+        this.forks = forks;
+        this.remotes = remotes;
+        this.rounds = new AtomicIntegerArray(forks.size());
+        this.server = HttpServer
+                .create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/repos/{owner}/{repo}", (request, response) -> ifProjectRepo(request, response, repo))
+                        .get("/repos/{owner}/{repo}/collaborators", (request, response) ->
+                                ifProjectRepo(request, response, collaborators()))
+                        .get("/repos/{owner}/{repo}/collaborators/{user}/permission", (request, response) ->
+                                ifProjectRepo(request, response, permission(request.param("user"))))
+                        .get("/repos/{owner}/{repo}/pulls", (request, response) ->
+                                ifProjectRepo(request, response, IntStream.range(0, forks.size()).mapToObj(this::pull).toArray()))
+                        .get("/repos/{owner}/{repo}/pulls/{number}", (request, response) ->
+                                ifProjectRepo(request, response, pull(Integer.parseInt(request.param("number")) - 1)))
+                        .post("/repos/{owner}/{repo}/hooks", (request, response) -> request
+                                .receive()
+                                .then(Mono.defer(() -> {
+                                    hooks.incrementAndGet();
+                                    return Mono.from(ifProjectRepo(request, response.status(201), Map.of()));
+                                }))))
+                .bindNow();
+        log.info("Fake GitHub API is listening on {}", apiUrl());
+    }
+
+    public String apiUrl() {
+        return "http://localhost:" + server.port();
+    }
+
+    /**
+     * Points the pull of the fork to the commit of the round
+     */
+    public GithubApiPull push(final int fork, final int round) {
+        rounds.set(fork, round);
+        return pull(fork);
+    }
+
+    public GithubApiPull pull(final int fork) {
+        final var forkRepo = forks.get(fork);
+        final var head = new GithubApiCommitSnapshot(forkRepo.getOwner().getLogin() + ":master", "master", forkRepo.getOwner(),
+                forkRepo, remotes.forkSha(fork, rounds.get(fork)));
+        final var base = new GithubApiCommitSnapshot(repo.getOwner().getLogin() + ":master", "master", repo.getOwner(),
+                repo, remotes.getBaseSha());
+        final var number = fork + 1;
+        return new GithubApiPull(repo.getId() * 1_000 + number, repo.getHtmlUrl() + "/pull/" + number, head, base,
+                forkRepo.getOwner(), number, "Solution of " + forkRepo.getOwner().getLogin(), GithubApiPull.State.OPEN,
+                CREATED_AT, CREATED_AT.plusSeconds(rounds.get(fork)));
+    }
+
+    public GithubApiRepo repo() {
+        return repo;
+    }
+
+    /**
+     * Number of hooks created for the project repo
+     */
+    public int hookCount() {
+        return hooks.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private List<GithubApiCollaborator> collaborators() {
+        return List.of(new GithubApiCollaborator(admin.getId(), admin.getLogin(), new GithubApiCollaborator.Permissions(true, true, true)));
+    }
+
+    private GithubApiUserPermission permission(final String login) {
+        return new GithubApiUserPermission(admin.getLogin().equals(login) ? ADMIN : READ);
+    }
+
+    private Publisher<Void> ifProjectRepo(final HttpServerRequest request, final HttpServerResponse response, final Object body) {
+        if (!repo.getOwner().getLogin().equals(request.param("owner")) || !repo.getName().equals(request.param("repo"))) {
+            return response.status(404).send();
+        }
+        return response
+                .header("Content-Type", "application/json")
+                .sendString(Mono.just(json(body)));
+    }
+
+    @SneakyThrows
+    private String json(final Object body) {
+        return objectMapper.writeValueAsString(body);
+    }
+
+    /**
+     * Forks of the repo owned by the users, all named like the repo
+     */
+    static List<GithubApiRepo> forks(final GithubApiRepo repo, final List<GithubApiUser> owners) {
+        return IntStream
+                .range(0, owners.size())
+                .mapToObj(i -> new GithubApiRepo(repo.getId() + 1 + i, "https://github.com/" + owners.get(i).getLogin() + "/" + repo.getName(),
+                        repo.getName(), null, owners.get(i)))
+                .collect(toList());
+    }
+}
@@ -0,0 +1,184 @@
+package org.accula.api.loadtest;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.AcculaApiApplication;
+import org.accula.api.auth.jwt.crypto.Jwt;
+import org.accula.api.db.model.GithubUser;
+import org.accula.api.db.repo.DetectionJobRepo;
+import org.accula.api.db.repo.UserRepo;
+import org.accula.api.github.model.GithubApiHookPayload;
+import org.accula.api.github.model.GithubApiRepo;
+import org.accula.api.github.model.GithubApiUser;
+import org.accula.api.handlers.dto.ProjectDto;
+import org.accula.api.handlers.request.CreateProjectRequestBody;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Offline end-to-end load test of clone detection triggered by GitHub webhooks.
+ * <p>
+ * Generates bare repos of a project and its forks, serves a fake GitHub API for them, starts the API against them
+ * and a local Postgres, creates the project through the API and replays {@code rounds} bursts of
+ * {@code synchronize} webhooks, one per fork, each pushing a new commit. Reports the latency percentiles
+ * from sending a webhook to the clones of its pull being persisted and the sustained detection throughput.
+ * <p>
+ * The shape of the load is set with the {@code loadtest.*} system properties, see {@link LoadTestOptions}.
+ * The database is set with the same {@code DB_*} environment variables as for the API and defaults to
+ * {@code accula_loadtest} on {@code localhost:5432}. Every run creates a project with fresh ids,
+ * so runs do not interfere with each other in the same database.
+ */
+@Slf4j
+public final class LoadTest {
+    private static final String REPO_NAME = "course";
+
+    private LoadTest() {
+    }
+
+    @SneakyThrows
+    public static void main(final String[] args) {
+        final var options = LoadTestOptions.fromSystemProperties();
+        log.info("Starting load test with {}", options);
+
+        final var runId = Instant.now().getEpochSecond();
+        final var workDirectory = Files.createTempDirectory("accula-loadtest");
+        final var admin = user(runId * 100_000, "teacher-" + runId);
+        final var repo = new GithubApiRepo(runId * 100_000, "https://github.com/" + admin.getLogin() + "/" + REPO_NAME,
+                REPO_NAME, "Load test course", admin);
+        final var students = IntStream
+                .range(0, options.getForks())
+                .mapToObj(i -> user(runId * 100_000 + 1 + i, "student" + i + "-" + runId))
+                .collect(toList());
+        final var forks = FakeGithub.forks(repo, students);
+
+        final var remotes = LocalRemotes.generate(workDirectory.resolve("remotes"), admin.getLogin(), REPO_NAME,
+                students.stream().map(GithubApiUser::getLogin).collect(toList()), options);
+        log.info("Generated {} fork repos in {}", forks.size(), workDirectory);
+
+        try (var github = new FakeGithub(admin, repo, forks, remotes);
+             var context = startApi(workDirectory, github.apiUrl(), remotes.url())) {
+            final var port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            final var api = WebClient.create("http://localhost:" + port);
+
+            final var user = context.getBean(UserRepo.class)
+                    .upsert(new GithubUser(admin.getId(), admin.getLogin(), admin.getName(), admin.getAvatarUrl(), false), "loadtest")
+                    .block();
+            final var accessToken = context.getBean(Jwt.class)
+                    .generate(String.valueOf(user.getId()), options.getTimeout().multipliedBy(2))
+                    .getToken();
+            final var project = api
+                    .post()
+                    .uri("/api/projects")
+                    .headers(headers -> headers.setBearerAuth(accessToken))
+                    .bodyValue(new CreateProjectRequestBody(repo.getHtmlUrl()))
+                    .retrieve()
+                    .bodyToMono(ProjectDto.class)
+                    .block();
+            log.info("Created project {} with {} open pulls, hooks created: {}",
+                    project.getId(), project.getRepoOpenPullCount(), github.hookCount());
+
+            final var latencies = new DetectionLatencies(context.getBean(DetectionJobRepo.class), project.getId(),
+                    options.getPollInterval(), options.getTimeout());
+            replay(api, github, latencies, options).block();
+            latencies.report();
+        } finally {
+            FileSystemUtils.deleteRecursively(workDirectory);
+        }
+    }
+
+    /**
+     * Sends the bursts of webhooks and waits for all of them to be served
+     */
+    private static Mono<Void> replay(final WebClient api,
+                                     final FakeGithub github,
+                                     final DetectionLatencies latencies,
+                                     final LoadTestOptions options) {
+        final var interval = Duration.ofNanos((long) (1_000_000_000L / options.getRate()));
+        return Flux
+                .range(1, options.getRounds())
+                .concatMap(round -> Flux
+                        .range(0, options.getForks())
+                        .delayElements(interval)
+                        .map(fork -> github.push(fork, round))
+                        .concatMap(pull -> {
+                            final var sentAt = Instant.now();
+                            // The detection is awaited downstream, so that the next webhook is sent without waiting for it
+                            return api
+                                    .post()
+                                    .uri("/api/webhook")
+                                    .header("X-GitHub-Event", "pull_request")
+                                    .bodyValue(new GithubApiHookPayload(GithubApiHookPayload.Action.SYNCHRONIZE, github.repo(), pull))
+                                    .retrieve()
+                                    .toBodilessEntity()
+                                    .thenReturn(latencies.await(pull.getNumber(), sentAt));
+                        })
+                        .doOnComplete(() -> log.info("Sent burst {} of {} webhooks", round, options.getForks()))
+                        .concatWith(Mono.delay(options.getBurstPause()).then(Mono.<Mono<Void>>empty())))
+                .flatMap(served -> served, Integer.MAX_VALUE)
+                .then();
+    }
+
+    private static ConfigurableApplicationContext startApi(final Path workDirectory, final String githubApiUrl, final String gitUrl) {
+        final var keys = generateJwtKeys(workDirectory);
+        final var defaults = Map.<String, Object>of(
+                "DB_HOST", "localhost",
+                "DB_PORT", "5432",
+                "DB_NAME", "accula_loadtest",
+                "DB_USER", "postgres",
+                "DB_PASS", "postgres",
+                "GITHUB_CLIENT_ID", "loadtest",
+                "GITHUB_CLIENT_SECRET", "loadtest",
+                "WEBHOOK_SECRET", "loadtest"
+        );
+        return new SpringApplicationBuilder(AcculaApiApplication.class)
+                .properties(defaults)
+                .run(
+                        "--server.port=0",
+                        "--accula.github.apiUrl=" + githubApiUrl,
+                        "--accula.github.gitUrl=" + gitUrl,
+                        "--accula.reposPath=" + workDirectory.resolve("repos"),
+                        "--accula.jwt.signature.privateKey=" + keys.get(0),
+                        "--accula.jwt.signature.publicKey=" + keys.get(1),
+                        "--accula.webhook.url=http://localhost/api/webhook",
+                        "--accula.cluster.webUrl=http://localhost",
+                        "--spring.security.oauth2.client.registration.github.redirect-uri=http://localhost/api/login/github/callback"
+                );
+    }
+
+    /**
+     * Signature keys of the access tokens of this run
+     *
+     * @return paths of the private and the public key
+     */
+    @SneakyThrows
+    private static List<Path> generateJwtKeys(final Path workDirectory) {
+        final var generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final var keyPair = generator.generateKeyPair();
+        final var privateKey = Files.write(workDirectory.resolve("jwt.private.der"), keyPair.getPrivate().getEncoded());
+        final var publicKey = Files.write(workDirectory.resolve("jwt.public.der"), keyPair.getPublic().getEncoded());
+        return List.of(privateKey, publicKey);
+    }
+
+    private static GithubApiUser user(final long id, final String login) {
+        return new GithubApiUser(id, login, "https://avatars.githubusercontent.com/u/" + id, "https://github.com/" + login,
+                login, GithubApiUser.Type.USER);
+    }
+}
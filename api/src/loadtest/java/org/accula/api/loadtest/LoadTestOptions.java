@@ -0,0 +1,45 @@
+package org.accula.api.loadtest;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Shape of the replayed load, read from the {@code loadtest.*} system properties
+ */
+@Builder
+@Value
+public class LoadTestOptions {
+    /// Forks of the project repo, each having an open pull
+    int forks;
+    /// Java files in each fork
+    int files;
+    /// Bursts of webhooks, each pushing a new commit into every fork
+    int rounds;
+    /// Webhooks sent per second within a burst
+    double rate;
+    /// Pause between the end of a burst and the start of the next one
+    Duration burstPause;
+    /// Probability of a method to be a copy of the same method of another fork
+    double plantedCloneRate;
+    /// Interval of polling the detection jobs of the replayed pulls
+    Duration pollInterval;
+    /// How long to wait for the detections after the last burst
+    Duration timeout;
+    long seed;
+
+    public static LoadTestOptions fromSystemProperties() {
+        return LoadTestOptions.builder()
+                .forks(Integer.getInteger("loadtest.forks", 50))
+                .files(Integer.getInteger("loadtest.files", 10))
+                .rounds(Integer.getInteger("loadtest.rounds", 3))
+                .rate(Double.parseDouble(System.getProperty("loadtest.rate", "10")))
+                .burstPause(Duration.parse(System.getProperty("loadtest.burstPause", "PT30S")))
+                .plantedCloneRate(Double.parseDouble(System.getProperty("loadtest.plantedCloneRate", "0.1")))
+                .pollInterval(Duration.parse(System.getProperty("loadtest.pollInterval", "PT1S")))
+                .timeout(Duration.parse(System.getProperty("loadtest.timeout", "PT30M")))
+                .seed(Long.getLong("loadtest.seed", 42L))
+                .build();
+    }
+}
@@ -0,0 +1,259 @@
+package org.accula.api.loadtest;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Bare git repositories standing in for GitHub remotes: the project repo with a single base commit
+ * and its forks, each pushing a chain of {@code rounds + 1} commits on top of the base commit.
+ * <p>
+ * Repos are laid out as {@code <owner-login>/<repo-name>.git} under the root, so the root URL is a drop-in
+ * replacement of {@code https://github.com/}. Commits are written with {@code git fast-import}
+ * with fixed author dates, so the base commit imported into every fork has the same sha as the project one.
+ * <p>
+ * Every commit of a fork rewrites one method of each file. A method is a copy of the same method of another fork
+ * with the probability {@code plantedCloneRate}, so every round of pushes has clones to detect.
+ */
+public final class LocalRemotes {
+    private static final String BRANCH = "master";
+    private static final String SOURCE_ROOT = "src/main/java/ru/course/";
+    private static final int METHODS_PER_FILE = 6;
+    private static final int MAX_STATEMENTS = 10;
+    private static final long COMMIT_TIME = 1_600_000_000L;
+    private static final int BASE_COMMIT_MARK = 1;
+
+    private final Path root;
+    private final int files;
+    private final int forks;
+    private final int rounds;
+    private final double plantedCloneRate;
+    private final long seed;
+    @Getter
+    private String baseSha;
+    /// Shas of the commits of each fork, the initial one first
+    private final List<List<String>> forkShas = new ArrayList<>();
+
+    private LocalRemotes(final Path root,
+                         final int files,
+                         final int forks,
+                         final int rounds,
+                         final double plantedCloneRate,
+                         final long seed) {
+        this.root = root;
+        this.files = files;
+        this.forks = forks;
+        this.rounds = rounds;
+        this.plantedCloneRate = plantedCloneRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the project repo {@code <owner>/<repo>.git} and the fork repos {@code <forkOwners[i]>/<repo>.git}
+     */
+    public static LocalRemotes generate(final Path root,
+                                        final String owner,
+                                        final String repo,
+                                        final List<String> forkOwners,
+                                        final LoadTestOptions options) {
+        final var remotes = new LocalRemotes(root, options.getFiles(), forkOwners.size(), options.getRounds(),
+                options.getPlantedCloneRate(), options.getSeed());
+        final var baseMarks = remotes.importCommits(repoDirectory(root, owner, repo), remotes.baseCommit());
+        remotes.baseSha = baseMarks.get(BASE_COMMIT_MARK);
+        final var shas = IntStream
+                .range(0, forkOwners.size())
+                .parallel()
+                .mapToObj(fork -> {
+                    final var marks = remotes.importCommits(repoDirectory(root, forkOwners.get(fork), repo), remotes.forkCommits(fork));
+                    return IntStream
+                            .rangeClosed(0, remotes.rounds)
+                            .mapToObj(round -> marks.get(commitMark(round)))
+                            .collect(toList());
+                })
+                .collect(toList());
+        remotes.forkShas.addAll(shas);
+        return remotes;
+    }
+
+    /**
+     * URL to clone the repos from, with a trailing slash
+     */
+    public String url() {
+        return root.toUri().toString();
+    }
+
+    public String forkSha(final int fork, final int round) {
+        return forkShas.get(fork).get(round);
+    }
+
+    private static Path repoDirectory(final Path root, final String owner, final String repo) {
+        return root.resolve(owner).resolve(repo + ".git");
+    }
+
+    private static int commitMark(final int round) {
+        return BASE_COMMIT_MARK + 1 + round;
+    }
+
+    private String baseCommit() {
+        final var stream = new StringBuilder();
+        final var blobs = new HashMap<String, Integer>();
+        for (int file = 0; file < files; ++file) {
+            blobs.put(path(file), blob(stream, BASE_COMMIT_MARK * 1000 + file, "package ru.course;\n\npublic class Task" + file + " {\n}\n"));
+        }
+        commit(stream, BASE_COMMIT_MARK, null, "Add task stubs", blobs);
+        return stream.toString();
+    }
+
+    private String forkCommits(final int fork) {
+        final var stream = new StringBuilder(baseCommit());
+        for (int round = 0; round <= rounds; ++round) {
+            final var mark = commitMark(round);
+            final var blobs = new HashMap<String, Integer>();
+            for (int file = 0; file < files; ++file) {
+                blobs.put(path(file), blob(stream, mark * 1000 + file, taskFile(fork, file, round)));
+            }
+            commit(stream, mark, mark - 1, "Solve tasks, attempt " + round, blobs);
+        }
+        return stream.toString();
+    }
+
+    private String taskFile(final int fork, final int file, final int round) {
+        final var content = new StringBuilder()
+                .append("package ru.course;\n\n")
+                .append("public class Task").append(file).append(" {\n");
+        for (int method = 0; method < METHODS_PER_FILE; ++method) {
+            // A method is last rewritten in the latest round whose number is equal to its index modulo the method count
+            final var rewrittenIn = round - Math.floorMod(round - method, METHODS_PER_FILE);
+            final var version = Math.max(rewrittenIn, 0);
+            final var random = new Random(methodSeed(fork, file, method, version));
+            final var author = forks > 1 && random.nextDouble() < plantedCloneRate
+                    ? (fork + 1 + random.nextInt(forks - 1)) % forks
+                    : fork;
+            content.append(method(new Random(methodSeed(author, file, method, version) ^ 0x5DEECE66DL), method));
+        }
+        return content.append("}\n").toString();
+    }
+
+    private long methodSeed(final int fork, final int file, final int method, final int version) {
+        return ((seed * 31 + fork) * 31 + file) * 31 * 31 + method * 31L + version;
+    }
+
+    private static String method(final Random random, final int index) {
+        final var body = new StringBuilder()
+                .append("    public int solve").append(index).append("(int a, int b) {\n")
+                .append("        int c = a + b;\n");
+        final var count = 2 + random.nextInt(MAX_STATEMENTS);
+        for (int i = 0; i < count; ++i) {
+            final var x = (char) ('a' + random.nextInt(3));
+            final var y = (char) ('a' + random.nextInt(3));
+            switch (random.nextInt(5)) {
+                case 0 -> body.append("        ").append(x).append(" = ").append(y).append(" * ").append(random.nextInt(100)).append(";\n");
+                case 1 -> body.append("        ").append(x).append(" += ").append(y).append(" % ").append(1 + random.nextInt(10)).append(";\n");
+                case 2 -> body.append("        if (").append(x).append(" > ").append(y).append(") {\n")
+                        .append("            ").append(x).append(" = max(").append(x).append(", ").append(y).append(");\n")
+                        .append("        }\n");
+                case 3 -> body.append("        for (int i = 0; i < ").append(x).append("; ++i) {\n")
+                        .append("            ").append(y).append(" += i;\n")
+                        .append("        }\n");
+                default -> body.append("        while (").append(x).append(" < ").append(random.nextInt(1000)).append(") {\n")
+                        .append("            ").append(x).append("++;\n")
+                        .append("        }\n");
+            }
+        }
+        return body.append("        return c;\n    }\n\n").toString();
+    }
+
+    private static String path(final int file) {
+        return SOURCE_ROOT + "Task" + file + ".java";
+    }
+
+    private static int blob(final StringBuilder stream, final int mark, final String content) {
+        stream.append("blob\nmark :").append(mark).append('\n');
+        data(stream, content);
+        return mark;
+    }
+
+    private static void commit(final StringBuilder stream,
+                               final int mark,
+                               final Integer parentMark,
+                               final String message,
+                               final Map<String, Integer> blobs) {
+        final var time = COMMIT_TIME + mark;
+        stream.append("commit refs/heads/").append(BRANCH).append('\n')
+                .append("mark :").append(mark).append('\n')
+                .append("author Accula <load@test> ").append(time).append(" +0000\n")
+                .append("committer Accula <load@test> ").append(time).append(" +0000\n");
+        data(stream, message);
+        if (parentMark != null) {
+            stream.append("from :").append(parentMark).append('\n');
+        }
+        blobs.forEach((path, blob) -> stream.append("M 100644 :").append(blob).append(' ').append(path).append('\n'));
+        stream.append('\n');
+    }
+
+    private static void data(final StringBuilder stream, final String content) {
+        stream.append("data ").append(content.getBytes(StandardCharsets.UTF_8).length).append('\n')
+                .append(content).append('\n');
+    }
+
+    /**
+     * Creates the bare repo and imports the stream into it
+     *
+     * @return shas of the commits by their marks
+     */
+    @SneakyThrows
+    private Map<Integer, String> importCommits(final Path directory, final String stream) {
+        Files.createDirectories(directory);
+        run(directory, "git", "init", "--quiet", "--bare");
+        final var marksFile = directory.resolve("marks");
+        final var fastImport = new ProcessBuilder("git", "fast-import", "--quiet", "--export-marks=" + marksFile)
+                .directory(directory.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (var input = fastImport.getOutputStream()) {
+            input.write(stream.getBytes(StandardCharsets.UTF_8));
+        }
+        if (fastImport.waitFor() != 0) {
+            throw new IllegalStateException("git fast-import failed in " + directory);
+        }
+        final var marks = new HashMap<Integer, String>();
+        for (final var line : Files.readAllLines(marksFile)) {
+            final var separator = line.indexOf(' ');
+            marks.put(Integer.parseInt(line.substring(1, separator)), line.substring(separator + 1));
+        }
+        Files.delete(marksFile);
+        return marks;
+    }
+
+    private static void run(final Path directory, final String... command) {
+        try {
+            final var process = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException(String.join(" ", command) + " failed in " + directory);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
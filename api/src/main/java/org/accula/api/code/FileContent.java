@@ -0,0 +1,136 @@
+package org.accula.api.code;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Content of a file kept as UTF-8 bytes.
+ * <p>
+ * A {@link String} with a single character beyond Latin-1, e.g. a Cyrillic comment, stores all of its characters
+ * in UTF-16, while UTF-8 takes a byte for each ASCII character. The content of every file of every head
+ * is held in memory during a detection, so it is kept encoded and decoded by {@link #text()} only when asked for,
+ * without caching the result. Code is read straight from the bytes with {@link #byteAt(int)},
+ * and content sent to clients is encoded from them by {@link #encodeToString(Base64.Encoder)}.
+ */
+public final class FileContent {
+    private final byte[] utf8;
+    /// Whether every byte is a character on its own, so that byte and character indices coincide
+    private final boolean ascii;
+    /// Computed on first use, a race computes the same value
+    @Nullable
+    private String blobId;
+
+    private FileContent(final byte[] utf8) {
+        this.utf8 = utf8;
+        this.ascii = isAscii(utf8);
+    }
+
+    @Nullable
+    public static FileContent of(@Nullable final String text) {
+        if (text == null) {
+            return null;
+        }
+        return new FileContent(text.getBytes(UTF_8));
+    }
+
+    /**
+     * Number of bytes of the content
+     */
+    public int size() {
+        return utf8.length;
+    }
+
+    public byte byteAt(final int index) {
+        return utf8[index];
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    /**
+     * Hex SHA-1 of the content hashed the way git hashes blobs, so that content read back from a blob unchanged
+     * has the id of the blob
+     */
+    public String blobId() {
+        var id = blobId;
+        if (id == null) {
+            id = sha1Hex(("blob " + utf8.length + "\0").getBytes(UTF_8), utf8);
+            blobId = id;
+        }
+        return id;
+    }
+
+    /**
+     * Decodes the whole content, the result is not retained
+     */
+    public String text() {
+        return new String(utf8, UTF_8);
+    }
+
+    /**
+     * Encodes the UTF-8 bytes without decoding them
+     */
+    public String encodeToString(final Base64.Encoder encoder) {
+        return encoder.encodeToString(utf8);
+    }
+
+    /**
+     * Decodes the bytes in range [from, to)
+     */
+    public String text(final int from, final int to) {
+        return new String(utf8, from, to - from, UTF_8);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileContent)) {
+            return false;
+        }
+        return Arrays.equals(utf8, ((FileContent) other).utf8);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(utf8);
+    }
+
+    @Override
+    public String toString() {
+        return "FileContent(" + utf8.length + " bytes)";
+    }
+
+    private static String sha1Hex(final byte[] header, final byte[] content) {
+        final MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        sha1.update(header);
+        final var digest = sha1.digest(content);
+        final var hex = new StringBuilder(digest.length * 2);
+        for (final byte b : digest) {
+            hex.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isAscii(final byte[] bytes) {
+        for (final byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
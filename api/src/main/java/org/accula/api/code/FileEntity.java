@@ -1,6 +1,9 @@
 package org.accula.api.code;
 
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Value;
 import org.accula.api.db.model.CommitSnapshot;
 import org.jetbrains.annotations.Nullable;
@@ -10,16 +13,35 @@ import org.jetbrains.annotations.Nullable;
  * @author Anton Lamtev
  */
 @Value
+@AllArgsConstructor
 public class FileEntity {
     CommitSnapshot commitSnapshot;
     @Nullable
     String name;
     @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
     @Nullable
-    String content;
+    FileContent content;
+
+    public FileEntity(final CommitSnapshot commitSnapshot, @Nullable final String name, @Nullable final String content) {
+        this(commitSnapshot, name, FileContent.of(content));
+    }
 
     public static FileEntity absent(final CommitSnapshot commitSnapshot) {
-        return new FileEntity(commitSnapshot, null, null);
+        return new FileEntity(commitSnapshot, null, (FileContent) null);
+    }
+
+    /**
+     * Decoded content, a new string on each call. Analysis and responses should read {@link #getUtf8Content()} instead
+     */
+    @Nullable
+    public String getContent() {
+        return content == null ? null : content.text();
+    }
+
+    @Nullable
+    public FileContent getUtf8Content() {
+        return content;
     }
 
     @Override
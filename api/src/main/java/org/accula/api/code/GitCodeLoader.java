@@ -37,6 +37,12 @@ public final class GitCodeLoader implements CodeLoader {
     private static final String GIT_EXTENSION = ".git";
 
     private final Git git;
+    /// Base URL the repos are cloned from, with a trailing slash: GitHub itself unless it is stood in for
+    private final String gitBaseUrl;
+
+    public GitCodeLoader(final Git git) {
+        this(git, GITHUB_BASE_URL);
+    }
 
     @Override
     public Flux<FileEntity> loadFiles(final CommitSnapshot snapshot, final FileFilter filter) {
@@ -205,7 +211,7 @@ public final class GitCodeLoader implements CodeLoader {
                 .collect(toList());
     }
 
-    private static String repoGitUrl(final GithubRepo repo) {
-        return GITHUB_BASE_URL + repo.getOwner().getLogin() + "/" + repo.getName() + GIT_EXTENSION;
+    private String repoGitUrl(final GithubRepo repo) {
+        return gitBaseUrl + repo.getOwner().getLogin() + "/" + repo.getName() + GIT_EXTENSION;
     }
 }
@@ -0,0 +1,66 @@
+package org.accula.api.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Resource budgets of a single clone detection run, limits of concurrently running detections,
+ * leasing of durable detection jobs, the organization-wide clone index, and the on-disk store of parsed methods
+ */
+@ConfigurationProperties("accula.detection")
+@Data
+public final class DetectionProperties {
+    private Budget budget = new Budget();
+    private Scheduler scheduler = new Scheduler();
+    private Jobs jobs = new Jobs();
+    private GlobalIndex globalIndex = new GlobalIndex();
+    private MethodSegments methodSegments = new MethodSegments();
+
+    @Data
+    public static final class Budget {
+        private long maxTokens = 20_000_000L;
+        private long maxTreeNodes = 60_000_000L;
+        private Duration maxDuration = Duration.ofMinutes(10L);
+        private long maxClones = 200_000L;
+    }
+
+    @Data
+    public static final class Scheduler {
+        /// Jobs running on all nodes at a time, checked by the job queue on claiming
+        private int maxConcurrentDetections = 4;
+        /// Jobs of a project running on all nodes at a time, checked by the job queue on claiming
+        private int maxConcurrentDetectionsPerProject = 1;
+        /// Jobs claimed and run by a single node at a time
+        private int maxConcurrentDetectionsPerNode = 4;
+    }
+
+    @Data
+    public static final class Jobs {
+        private Duration pollInterval = Duration.ofSeconds(5L);
+        private Duration leaseDuration = Duration.ofMinutes(1L);
+        private int maxAttempts = 3;
+        /// Delay before the first retry of a failed attempt, doubled by every next one
+        private Duration retryBackoff = Duration.ofSeconds(30L);
+    }
+
+    @Data
+    public static final class GlobalIndex {
+        /// Whether pulls are also matched against pulls of other projects of the same owner
+        private boolean enabled = false;
+        /// Clones of at least this many tokens are guaranteed to be found across projects
+        private int minCloneLength = 20;
+    }
+
+    @Data
+    public static final class MethodSegments {
+        /// Whether methods of parsed blobs are stored under the repos path and reused across detections and restarts
+        private boolean enabled = false;
+        /// Size of all segments above which the oldest ones are compacted
+        private DataSize maxSize = DataSize.ofGigabytes(1L);
+        /// Size of a segment after which a new one is started
+        private DataSize segmentSize = DataSize.ofMegabytes(64L);
+    }
+}
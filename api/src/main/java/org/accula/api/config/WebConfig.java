@@ -1,5 +1,6 @@
 package org.accula.api.config;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.accula.api.code.CodeLoader;
@@ -7,9 +8,14 @@ import org.accula.api.code.GitCodeLoader;
 import org.accula.api.code.git.Git;
 import org.accula.api.db.model.User;
 import org.accula.api.db.repo.CurrentUserRepo;
+import org.accula.api.detector.parser.MethodTokenizer;
+import org.accula.api.detector.segment.MethodSegmentStore;
 import org.accula.api.github.api.GithubClient;
+import org.accula.api.util.ReactorSchedulers;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
@@ -17,9 +23,6 @@ import org.springframework.web.reactive.function.client.WebClient;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Anton Lamtev
@@ -27,7 +30,7 @@ import java.util.concurrent.TimeUnit;
  */
 @SpringBootConfiguration
 @RequiredArgsConstructor
-@EnableConfigurationProperties(WebhookProperties.class)
+@EnableConfigurationProperties({WebhookProperties.class, DetectionProperties.class})
 public class WebConfig implements WebFluxConfigurer {
     private final CurrentUserRepo currentUserRepo;
 
@@ -53,18 +56,32 @@ public class WebConfig implements WebFluxConfigurer {
         if (!Files.exists(reposDirectory)) {
             Files.createDirectory(reposDirectory);
         }
-        final var availableProcessors = Runtime.getRuntime().availableProcessors();
-        final var executor = new ThreadPoolExecutor(
-                availableProcessors,
-                availableProcessors * 10,
-                60L, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(availableProcessors * 50)
-        );
-        return new Git(reposDirectory, executor);
+        return new Git(reposDirectory, ReactorSchedulers.gitIoExecutor());
+    }
+
+    @SneakyThrows
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "accula.detection.methodSegments.enabled", havingValue = "true")
+    public MethodSegmentStore methodSegmentStore(@Value("${accula.reposPath}") final String reposPath,
+                                                 final DetectionProperties detectionProperties) {
+        final var properties = detectionProperties.getMethodSegments();
+        return MethodSegmentStore.open(Path.of(reposPath).resolve(".method-segments"),
+                properties.getMaxSize().toBytes(), properties.getSegmentSize().toBytes());
+    }
+
+    @Bean
+    public MethodTokenizer methodTokenizer(final ObjectProvider<MethodSegmentStore> methodSegmentStore) {
+        final var store = methodSegmentStore.getIfAvailable();
+        return store != null ? MethodTokenizer.storedIn(store) : MethodTokenizer.PARSER;
+    }
+
+    @Bean
+    public MeterBinder reactorSchedulersMetrics() {
+        return ReactorSchedulers.metrics();
     }
 
     @Bean
-    public CodeLoader codeLoader(final Git git) {
-        return new GitCodeLoader(git);
+    public CodeLoader codeLoader(final Git git, @Value("${accula.github.gitUrl}") final String gitUrl) {
+        return new GitCodeLoader(git, gitUrl);
     }
 }
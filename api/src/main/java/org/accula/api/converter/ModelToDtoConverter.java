@@ -1,10 +1,12 @@
 package org.accula.api.converter;
 
 import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.DetectionJob;
 import org.accula.api.db.model.GithubUser;
 import org.accula.api.db.model.Project;
 import org.accula.api.db.model.Pull;
 import org.accula.api.db.model.User;
+import org.accula.api.handlers.dto.DetectionJobDto;
 import org.accula.api.handlers.dto.GithubUserDto;
 import org.accula.api.handlers.dto.ProjectConfDto;
 import org.accula.api.handlers.dto.ProjectDto;
@@ -114,6 +116,20 @@ public final class ModelToDtoConverter {
                 .build();
     }
 
+    public static DetectionJobDto convert(final DetectionJob job) {
+        return DetectionJobDto.builder()
+                .id(job.getId())
+                .projectId(job.getProjectId())
+                .pullNumber(job.getPullNumber())
+                .state(job.getState())
+                .phase(job.getPhase())
+                .attempts(job.getAttempts())
+                .error(job.getError())
+                .notBefore(job.getNotBefore())
+                .degradations(job.getDegradations())
+                .build();
+    }
+
     private static String pullUrl(final Pull pull) {
         final var repo = pull.getBase().getRepo();
         return String.format(GITHUB_PULL_URL_FORMAT, repo.getOwner().getLogin(), repo.getName(), pull.getNumber().toString());
@@ -0,0 +1,78 @@
+package org.accula.api.db.model;
+
+import lombok.Builder;
+import lombok.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+
+/**
+ * Durable request to detect clones of a pull, claimed by one of the API nodes for a limited lease
+ */
+@Builder(toBuilder = true)
+@Value
+public class DetectionJob {
+    Long id;
+    Long projectId;
+    Integer pullNumber;
+    Priority priority;
+    State state;
+    @Nullable
+    Phase phase;
+    Integer attempts;
+    @Nullable
+    String worker;
+    @Nullable
+    Instant leaseExpiresAt;
+    Instant createdAt;
+    @Nullable
+    Instant startedAt;
+    @Nullable
+    Instant finishedAt;
+    @Nullable
+    String error;
+    /// Queued job retrying a failed attempt is not claimed before this time
+    @Nullable
+    Instant notBefore;
+    /// Head commit of the pull detected by the last attempt
+    @Nullable
+    String headSha;
+    /// Base commit of the pull detected by the last attempt
+    @Nullable
+    String baseSha;
+    /// Fingerprint of the inputs detected by the last attempt
+    @Nullable
+    String fingerprint;
+    /// Budgets the last successful attempt has exceeded, one per line, its clones are partial if there are any
+    @Nullable
+    String degradations;
+    /// Detector and its configuration the last successful attempt has detected clones with
+    @Nullable
+    String detector;
+
+    /**
+     * Detections of the higher priority go first
+     */
+    public enum Priority {
+        INTERACTIVE,
+        WEBHOOK,
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+    }
+
+    /**
+     * Phases of a running detection in the order they are entered
+     */
+    public enum Phase {
+        LOADING,
+        PARSING,
+        INDEXING,
+        MATCHING,
+        PERSISTING,
+    }
+}
@@ -0,0 +1,15 @@
+package org.accula.api.db.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Winnowed fingerprint of a method in a file changed by a pull
+ */
+@Builder
+@Value
+public class MethodFingerprint {
+    long fingerprint;
+    Long pullId;
+    String file;
+}
@@ -0,0 +1,106 @@
+package org.accula.api.db.repo;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.client.Parameter;
+import io.r2dbc.postgresql.codec.Codec;
+import io.r2dbc.postgresql.codec.CodecRegistry;
+import io.r2dbc.postgresql.extension.CodecRegistrar;
+import io.r2dbc.postgresql.message.Format;
+import io.r2dbc.postgresql.type.PostgresqlObjectId;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * Registers codecs binding {@code Boolean[]} and {@code Instant[]} parameters as {@code BOOL[]} and {@code TIMESTAMPTZ[]},
+ * which the driver has no codecs for. The codecs only encode parameters, such arrays are never read back.
+ * <p>
+ * The registrar is picked up by the driver as a service of {@link io.r2dbc.postgresql.extension.Extension}.
+ */
+public final class ArrayCodecRegistrar implements CodecRegistrar {
+    @Override
+    public Publisher<Void> register(final PostgresqlConnection connection,
+                                    final ByteBufAllocator allocator,
+                                    final CodecRegistry registry) {
+        registry.addLast(new ArrayEncoder<>(allocator, Boolean[].class, PostgresqlObjectId.BOOL_ARRAY, value -> value ? "t" : "f"));
+        registry.addLast(new ArrayEncoder<>(allocator, Instant[].class, PostgresqlObjectId.TIMESTAMPTZ_ARRAY, Instant::toString));
+        return Mono.empty();
+    }
+
+    /**
+     * Encodes arrays in the text format, e.g. {@code {t,NULL}} or {@code {"2020-09-01T00:00:00Z"}}
+     */
+    @RequiredArgsConstructor
+    static final class ArrayEncoder<T> implements Codec<T[]> {
+        private final ByteBufAllocator allocator;
+        private final Class<T[]> type;
+        private final PostgresqlObjectId arrayType;
+        private final Function<T, String> encodeItem;
+
+        @Override
+        public boolean canDecode(final int dataType, final Format format, final Class<?> type) {
+            return false;
+        }
+
+        @Override
+        public boolean canEncode(final Object value) {
+            return type.isInstance(value);
+        }
+
+        @Override
+        public boolean canEncodeNull(final Class<?> type) {
+            return this.type == type;
+        }
+
+        /**
+         * Never called, since {@link #canDecode} declines every column
+         */
+        @Override
+        @Nullable
+        public T[] decode(final ByteBuf buffer, final int dataType, final Format format, final Class<? extends T[]> type) {
+            return null;
+        }
+
+        @Override
+        public Parameter encode(final Object value) {
+            final var text = text(type.cast(value));
+            return new Parameter(Format.FORMAT_TEXT, arrayType.getObjectId(), Mono.fromSupplier(() -> {
+                final var buffer = allocator.buffer(text.length());
+                buffer.writeCharSequence(text, StandardCharsets.UTF_8);
+                return buffer;
+            }));
+        }
+
+        @Override
+        public Parameter encodeNull() {
+            return new Parameter(Format.FORMAT_TEXT, arrayType.getObjectId(), Parameter.NULL_VALUE);
+        }
+
+        @Override
+        public Class<?> type() {
+            return type;
+        }
+
+        String text(final T[] array) {
+            final var text = new StringBuilder().append('{');
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                if (array[i] == null) {
+                    text.append("NULL");
+                } else {
+                    text.append('"').append(encodeItem.apply(array[i])).append('"');
+                }
+            }
+            return text.append('}').toString();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.accula.api.db.repo;
 
 import org.accula.api.db.model.Clone;
+import org.accula.api.db.model.CommitSnapshot;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -22,4 +23,21 @@ public interface CloneRepo {
     Flux<Clone> findByTargetCommitSnapshotSha(String sha);
 
     Mono<Void> deleteByPullNumber(final long projectId, final int pullNumber);
+
+    /**
+     * Moves the clones of the previous target commit to the new one, except for the clones of the excluded target files,
+     * keeping only the clones whose source commits are among the given ones. The clones left behind are deleted,
+     * so the previous target commit has no clones afterwards.
+     *
+     * @return number of the moved clones
+     */
+    Mono<Integer> moveToTarget(CommitSnapshot previousTarget,
+                               CommitSnapshot target,
+                               Collection<String> excludedTargetFiles,
+                               Collection<String> sourceShas);
+
+    /**
+     * Deletes all clones of the target commit
+     */
+    Mono<Void> deleteByTarget(CommitSnapshot target);
 }
@@ -2,10 +2,12 @@ package org.accula.api.db.repo;
 
 import io.r2dbc.postgresql.api.PostgresqlResult;
 import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.Row;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.accula.api.db.model.Clone;
+import org.accula.api.db.model.CommitSnapshot;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -32,19 +34,51 @@ public final class CloneRepoImpl implements CloneRepo, ConnectionProvidedRepo {
         return manyWithConnection(connection -> {
             final var cloneList = clones instanceof ArrayList ? (ArrayList<Clone>) clones : new ArrayList<>(clones);
 
-            final var statement = BatchStatement.of(connection, """ 
-                    INSERT INTO clone (target_commit_sha, 
-                                       target_repo_id, 
-                                       target_file, 
-                                       target_from_line, 
-                                       target_to_line, 
-                                       source_commit_sha, 
-                                       source_repo_id, 
-                                       source_file, 
-                                       source_from_line, 
-                                       source_to_line)  
-                    VALUES ($collection) 
-                    RETURNING id
+            // RETURNING cannot refer to the ordinality of the unnested arrays, so ids are taken from the sequence
+            // up front and every inserted id is returned with the position of its clone in the arrays
+            final var statement = UnnestStatement.of(connection, """
+                    WITH arr AS (SELECT nextval(pg_get_serial_sequence('clone', 'id')) AS id, *
+                                 FROM unnest($1::VARCHAR[], $2::BIGINT[], $3::VARCHAR[], $4::INT[], $5::INT[],
+                                             $6::VARCHAR[], $7::BIGINT[], $8::VARCHAR[], $9::INT[], $10::INT[])
+                                          WITH ORDINALITY AS arr(target_commit_sha,
+                                                                 target_repo_id,
+                                                                 target_file,
+                                                                 target_from_line,
+                                                                 target_to_line,
+                                                                 source_commit_sha,
+                                                                 source_repo_id,
+                                                                 source_file,
+                                                                 source_from_line,
+                                                                 source_to_line,
+                                                                 ord)),
+                         inserted AS (INSERT INTO clone (id,
+                                                         target_commit_sha,
+                                                         target_repo_id,
+                                                         target_file,
+                                                         target_from_line,
+                                                         target_to_line,
+                                                         source_commit_sha,
+                                                         source_repo_id,
+                                                         source_file,
+                                                         source_from_line,
+                                                         source_to_line)
+                                      SELECT id,
+                                             target_commit_sha,
+                                             target_repo_id,
+                                             target_file,
+                                             target_from_line,
+                                             target_to_line,
+                                             source_commit_sha,
+                                             source_repo_id,
+                                             source_file,
+                                             source_from_line,
+                                             source_to_line
+                                      FROM arr
+                                      RETURNING id)
+                    SELECT inserted.id, arr.ord
+                    FROM inserted
+                             JOIN arr ON arr.id = inserted.id
+                    ORDER BY arr.ord
                     """);
             statement.bind(cloneList, clone -> new Object[]{
                     clone.getTargetSnapshot().getSha(),
@@ -61,8 +95,11 @@ public final class CloneRepoImpl implements CloneRepo, ConnectionProvidedRepo {
 
             return statement
                     .execute()
-                    .flatMap(result -> ConnectionProvidedRepo.columnFlux(result, "id", Long.class))
-                    .zipWithIterable(cloneList, (id, clone) -> clone.toBuilder().id(id).build());
+                    .flatMap(result -> ConnectionProvidedRepo.convertMany(result, row -> cloneList
+                            .get(Math.toIntExact(Converters.value(row, "ord", Long.class) - 1L))
+                            .toBuilder()
+                            .id(Converters.value(row, "id", Long.class))
+                            .build()));
         });
     }
 
@@ -152,6 +189,50 @@ public final class CloneRepoImpl implements CloneRepo, ConnectionProvidedRepo {
                 .then());
     }
 
+    @Override
+    public Mono<Integer> moveToTarget(final CommitSnapshot previousTarget,
+                                      final CommitSnapshot target,
+                                      final Collection<String> excludedTargetFiles,
+                                      final Collection<String> sourceShas) {
+        // Clones keep their ids and suppression, and the previous target is left with no clones in the same transaction
+        return transactional(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE clone
+                                SET target_commit_sha = $3,
+                                    target_repo_id = $4
+                                WHERE target_commit_sha = $1 AND
+                                      target_repo_id = $2 AND
+                                      target_file != ALL ($5) AND
+                                      source_commit_sha = ANY ($6)
+                                """))
+                        .bind("$1", previousTarget.getSha())
+                        .bind("$2", previousTarget.getRepo().getId())
+                        .bind("$3", target.getSha())
+                        .bind("$4", target.getRepo().getId())
+                        .bind("$5", excludedTargetFiles.toArray(new String[0]))
+                        .bind("$6", sourceShas.toArray(new String[0]))
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .flatMap(moved -> deleteByTarget(connection, previousTarget).thenReturn(moved)));
+    }
+
+    @Override
+    public Mono<Void> deleteByTarget(final CommitSnapshot target) {
+        return withConnection(connection -> deleteByTarget(connection, target));
+    }
+
+    private static Mono<Void> deleteByTarget(final Connection connection, final CommitSnapshot target) {
+        return Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("DELETE FROM clone WHERE target_commit_sha = $1 AND target_repo_id = $2"))
+                        .bind("$1", target.getSha())
+                        .bind("$2", target.getRepo().getId())
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .then();
+    }
+
     private Clone convert(final Row row) {
         return Converters.convertClone(row,
                 "id",
@@ -28,9 +28,9 @@ public final class CommitSnapshotRepoImpl implements CommitSnapshotRepo, Connect
         }
 
         return manyWithConnection(connection -> {
-            final var statement = BatchStatement.of(connection, """
+            final var statement = UnnestStatement.of(connection, """
                     INSERT INTO commit_snapshot (sha, repo_id, branch)
-                    VALUES ($collection)
+                    SELECT * FROM unnest($1::VARCHAR[], $2::BIGINT[], $3::VARCHAR[])
                     ON CONFLICT (sha, repo_id) DO NOTHING
                     """);
             statement.bind(commitSnapshots, commitSnapshot -> new Object[]{
@@ -57,9 +57,9 @@ public final class CommitSnapshotRepoImpl implements CommitSnapshotRepo, Connect
         }
 
         return manyWithConnection(connection -> {
-            final var statement = BatchStatement.of(connection, """
+            final var statement = UnnestStatement.of(connection, """
                     INSERT INTO commit_snapshot_pull (commit_snapshot_sha, commit_snapshot_repo_id, pull_id)
-                    VALUES ($collection)
+                    SELECT * FROM unnest($1::VARCHAR[], $2::BIGINT[], $3::BIGINT[])
                     ON CONFLICT (commit_snapshot_sha, commit_snapshot_repo_id, pull_id) DO NOTHING
                     """);
             statement.bind(commitSnapshots, commitSnapshot -> new Object[]{
@@ -0,0 +1,78 @@
+package org.accula.api.db.repo;
+
+import org.accula.api.db.model.DetectionJob;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Queue of clone detection jobs shared by all API nodes
+ */
+public interface DetectionJobRepo {
+    /**
+     * Queues a job for the pull. If the pull already has a queued job, it is returned instead
+     * with the higher of both priorities.
+     */
+    Mono<DetectionJob> enqueue(Long projectId, Integer pullNumber, DetectionJob.Priority priority);
+
+    Mono<DetectionJob> findById(Long id);
+
+    /**
+     * The job of the pull whose attempt has finished most recently, whether it has succeeded or not
+     */
+    Mono<DetectionJob> findLastFinished(Long projectId, Integer pullNumber);
+
+    /**
+     * Takes the queued job of the highest priority for the worker for the lease duration, skipping jobs locked by other workers,
+     * jobs backing off after a failed attempt, jobs of pulls that are being detected,
+     * and jobs of projects having {@code maxRunningPerProject} running jobs.
+     * Nothing is claimed while {@code maxRunning} jobs are running on all nodes.
+     */
+    Mono<DetectionJob> claim(String worker, Duration lease, int maxRunning, int maxRunningPerProject);
+
+    /**
+     * Prolongs the lease of the running job, emits {@code false} if the worker has lost it
+     */
+    Mono<Boolean> renewLease(Long id, String worker, Duration lease);
+
+    /**
+     * Records the phase the running job has entered, emits {@code false} if the worker has lost the job
+     */
+    Mono<Boolean> updatePhase(Long id, String worker, DetectionJob.Phase phase);
+
+    /**
+     * Marks the running job as succeeded, recording the commits of the pull it has detected clones for,
+     * the fingerprint of the detection inputs, if they could be fingerprinted,
+     * the budgets the detection has exceeded, if its clones are partial, and the detector the clones were detected with
+     */
+    Mono<Boolean> succeed(Long id,
+                          String worker,
+                          String headSha,
+                          String baseSha,
+                          String fingerprint,
+                          String degradations,
+                          String detector);
+
+    /**
+     * Queues the running job again while it has attempts left, otherwise marks it as failed.
+     * A job queued again is not claimed before {@code retryBackoff} doubled by every attempt it has failed before.
+     */
+    Mono<Boolean> fail(Long id, String worker, String error, int maxAttempts, Duration retryBackoff);
+
+    /**
+     * Queues again or fails the running jobs whose workers have not renewed their leases in time,
+     * backing off the jobs queued again as {@link #fail} does
+     */
+    Mono<Integer> releaseExpired(int maxAttempts, Duration retryBackoff);
+
+    /**
+     * Numbers of queued jobs of all workers by priority, priorities without queued jobs are missing
+     */
+    Mono<Map<DetectionJob.Priority, Long>> countQueued();
+
+    /**
+     * Number of jobs being run by all workers
+     */
+    Mono<Long> countRunning();
+}
@@ -0,0 +1,372 @@
+package org.accula.api.db.repo;
+
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Row;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.accula.api.db.model.DetectionJob;
+import org.intellij.lang.annotations.Language;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Jobs are claimed with {@code SELECT ... FOR UPDATE SKIP LOCKED}, so concurrently polling workers
+ * never claim the same job. The limits of running jobs are counted by the claiming query,
+ * and claims of all workers are serialized by a transaction-level advisory lock,
+ * so a job claimed concurrently is always counted and the limits are never exceeded.
+ */
+@Component
+@RequiredArgsConstructor
+public final class DetectionJobRepoImpl implements DetectionJobRepo, ConnectionProvidedRepo {
+    @Language("SQL")
+    private static final String COLUMNS = """
+            id, project_id, pull_number, priority, state, phase, attempts, worker,
+            lease_expires_at, created_at, started_at, finished_at, error, head_sha, base_sha,
+            fingerprint, degradations, detector, not_before
+            """;
+    /// Key of the advisory lock serializing claims, the bytes of 'accula_c'
+    private static final long CLAIM_LOCK = 0x616363756c615f63L;
+    /// Running job is queued again if it has attempts left and its pull has no newer queued job
+    @Language("SQL")
+    private static final String RELEASED_STATE = """
+            CASE
+                WHEN attempts < $max_attempts AND
+                     NOT EXISTS (SELECT 1
+                                 FROM detection_job queued
+                                 WHERE queued.state = 'QUEUED' AND
+                                       queued.project_id = detection_job.project_id AND
+                                       queued.pull_number = detection_job.pull_number)
+                    THEN 'QUEUED'
+                ELSE 'FAILED'
+            END
+            """;
+
+    /// Job queued again is retried after the backoff doubled by every attempt it has failed before
+    @Language("SQL")
+    private static final String RELEASED_NOT_BEFORE = """
+            CASE
+                WHEN %s = 'QUEUED'
+                    THEN now() + make_interval(secs => $backoff * power(2, attempts - 1))
+            END
+            """;
+
+    @Getter
+    private final ConnectionProvider connectionProvider;
+
+    @Override
+    public Mono<DetectionJob> enqueue(final Long projectId, final Integer pullNumber, final DetectionJob.Priority priority) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                INSERT INTO detection_job (project_id, pull_number, priority)
+                                VALUES ($1, $2, $3)
+                                ON CONFLICT (project_id, pull_number) WHERE state = 'QUEUED'
+                                    DO UPDATE SET priority = least(detection_job.priority, excluded.priority)
+                                RETURNING
+                                """ + COLUMNS))
+                        .bind("$1", projectId)
+                        .bind("$2", pullNumber)
+                        .bind("$3", (short) priority.ordinal())
+                        .execute())
+                .flatMap(result -> ConnectionProvidedRepo.convert(result, this::convert)));
+    }
+
+    @Override
+    public Mono<DetectionJob> findById(final Long id) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("SELECT " + COLUMNS + " FROM detection_job WHERE id = $1"))
+                        .bind("$1", id)
+                        .execute())
+                .flatMap(result -> ConnectionProvidedRepo.convert(result, this::convert)));
+    }
+
+    @Override
+    public Mono<DetectionJob> findLastFinished(final Long projectId, final Integer pullNumber) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                SELECT %s
+                                FROM detection_job
+                                WHERE project_id = $1 AND pull_number = $2 AND finished_at IS NOT NULL
+                                ORDER BY finished_at DESC
+                                LIMIT 1
+                                """.formatted(COLUMNS)))
+                        .bind("$1", projectId)
+                        .bind("$2", pullNumber)
+                        .execute())
+                .flatMap(result -> ConnectionProvidedRepo.convert(result, this::convert)));
+    }
+
+    @Override
+    public Mono<DetectionJob> claim(final String worker,
+                                    final Duration lease,
+                                    final int maxRunning,
+                                    final int maxRunningPerProject) {
+        return transactional(connection -> Flux
+                .from(connection
+                        .createStatement("SELECT pg_advisory_xact_lock($1)")
+                        .bind("$1", CLAIM_LOCK)
+                        .execute())
+                .flatMap(result -> result.map((row, metadata) -> Boolean.TRUE))
+                .then(Mono.from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE detection_job
+                                SET state = 'RUNNING',
+                                    phase = NULL,
+                                    attempts = attempts + 1,
+                                    worker = $1,
+                                    lease_expires_at = now() + make_interval(secs => $2),
+                                    started_at = now(),
+                                    finished_at = NULL,
+                                    error = NULL,
+                                    degradations = NULL,
+                                    detector = NULL,
+                                    not_before = NULL
+                                WHERE id = (SELECT job.id
+                                            FROM detection_job job
+                                            WHERE job.state = 'QUEUED' AND
+                                                  (job.not_before IS NULL OR job.not_before <= now()) AND
+                                                  NOT EXISTS (SELECT 1
+                                                              FROM detection_job running
+                                                              WHERE running.state = 'RUNNING' AND
+                                                                    running.project_id = job.project_id AND
+                                                                    running.pull_number = job.pull_number) AND
+                                                  (SELECT count(*)
+                                                   FROM detection_job running
+                                                   WHERE running.state = 'RUNNING' AND
+                                                         running.project_id = job.project_id) < $3 AND
+                                                  (SELECT count(*)
+                                                   FROM detection_job running
+                                                   WHERE running.state = 'RUNNING') < $4
+                                            ORDER BY job.priority, job.created_at
+                                            LIMIT 1
+                                            FOR UPDATE SKIP LOCKED)
+                                RETURNING
+                                """ + COLUMNS))
+                        .bind("$1", worker)
+                        .bind("$2", seconds(lease))
+                        .bind("$3", (long) maxRunningPerProject)
+                        .bind("$4", (long) maxRunning)
+                        .execute()))
+                .flatMap(result -> ConnectionProvidedRepo.convert(result, this::convert)));
+    }
+
+    @Override
+    public Mono<Boolean> renewLease(final Long id, final String worker, final Duration lease) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE detection_job
+                                SET lease_expires_at = now() + make_interval(secs => $3)
+                                WHERE id = $1 AND worker = $2 AND state = 'RUNNING'
+                                """))
+                        .bind("$1", id)
+                        .bind("$2", worker)
+                        .bind("$3", seconds(lease))
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .map(DetectionJobRepoImpl::updated));
+    }
+
+    @Override
+    public Mono<Boolean> updatePhase(final Long id, final String worker, final DetectionJob.Phase phase) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE detection_job
+                                SET phase = $3
+                                WHERE id = $1 AND worker = $2 AND state = 'RUNNING'
+                                """))
+                        .bind("$1", id)
+                        .bind("$2", worker)
+                        .bind("$3", phase.name())
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .map(DetectionJobRepoImpl::updated));
+    }
+
+    @Override
+    public Mono<Boolean> succeed(final Long id,
+                                 final String worker,
+                                 final String headSha,
+                                 final String baseSha,
+                                 final String fingerprint,
+                                 final String degradations,
+                                 final String detector) {
+        return withConnection(connection -> {
+            final var statement = (PostgresqlStatement) connection
+                    .createStatement("""
+                            UPDATE detection_job
+                            SET state = 'SUCCEEDED',
+                                lease_expires_at = NULL,
+                                finished_at = now(),
+                                head_sha = $3,
+                                base_sha = $4,
+                                fingerprint = $5,
+                                degradations = $6,
+                                detector = $7
+                            WHERE id = $1 AND worker = $2 AND state = 'RUNNING'
+                            """)
+                    .bind("$1", id)
+                    .bind("$2", worker)
+                    .bind("$3", headSha)
+                    .bind("$4", baseSha)
+                    .bind("$7", detector);
+            if (fingerprint != null) {
+                statement.bind("$5", fingerprint);
+            } else {
+                statement.bindNull("$5", String.class);
+            }
+            if (degradations != null) {
+                statement.bind("$6", degradations);
+            } else {
+                statement.bindNull("$6", String.class);
+            }
+            return Mono
+                    .from(statement.execute())
+                    .flatMap(PostgresqlResult::getRowsUpdated)
+                    .map(DetectionJobRepoImpl::updated);
+        });
+    }
+
+    @Override
+    public Mono<Boolean> fail(final Long id,
+                              final String worker,
+                              final String error,
+                              final int maxAttempts,
+                              final Duration retryBackoff) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE detection_job
+                                SET state = %s,
+                                    lease_expires_at = NULL,
+                                    finished_at = %s,
+                                    not_before = %s,
+                                    error = $3
+                                WHERE id = $1 AND worker = $2 AND state = 'RUNNING'
+                                """.formatted(releasedState("$4"), releasedFinishedAt("$4"), releasedNotBefore("$4", "$5"))))
+                        .bind("$1", id)
+                        .bind("$2", worker)
+                        .bind("$3", error)
+                        .bind("$4", maxAttempts)
+                        .bind("$5", seconds(retryBackoff))
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .map(DetectionJobRepoImpl::updated));
+    }
+
+    @Override
+    public Mono<Integer> releaseExpired(final int maxAttempts, final Duration retryBackoff) {
+        return withConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                UPDATE detection_job
+                                SET state = %s,
+                                    lease_expires_at = NULL,
+                                    finished_at = %s,
+                                    not_before = %s,
+                                    error = 'Lease of ' || worker || ' expired'
+                                WHERE id IN (SELECT id
+                                             FROM detection_job
+                                             WHERE state = 'RUNNING' AND lease_expires_at < now()
+                                             FOR UPDATE SKIP LOCKED)
+                                """.formatted(releasedState("$1"), releasedFinishedAt("$1"), releasedNotBefore("$1", "$2"))))
+                        .bind("$1", maxAttempts)
+                        .bind("$2", seconds(retryBackoff))
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated));
+    }
+
+    @Override
+    public Mono<Map<DetectionJob.Priority, Long>> countQueued() {
+        return manyWithConnection(connection -> Flux
+                .from(connection
+                        .createStatement("""
+                                SELECT priority, count(*) AS jobs
+                                FROM detection_job
+                                WHERE state = 'QUEUED'
+                                GROUP BY priority
+                                """)
+                        .execute())
+                .flatMap(result -> ConnectionProvidedRepo.convertMany(result, row -> Tuples.of(
+                        DetectionJob.Priority.values()[Converters.value(row, "priority", Short.class)],
+                        Converters.value(row, "jobs", Long.class)))))
+                .collectMap(Tuple2::getT1, Tuple2::getT2, () -> new EnumMap<>(DetectionJob.Priority.class));
+    }
+
+    @Override
+    public Mono<Long> countRunning() {
+        return withConnection(connection -> Mono
+                .from(connection
+                        .createStatement("SELECT count(*) AS jobs FROM detection_job WHERE state = 'RUNNING'")
+                        .execute())
+                .flatMap(result -> ConnectionProvidedRepo.column(result, "jobs", Long.class)));
+    }
+
+    private static String releasedState(final String maxAttemptsParameter) {
+        return RELEASED_STATE.replace("$max_attempts", maxAttemptsParameter);
+    }
+
+    /**
+     * Only a failed job has finished, a job queued again is still to be finished by its next attempt
+     */
+    private static String releasedFinishedAt(final String maxAttemptsParameter) {
+        return "CASE WHEN %s = 'FAILED' THEN now() END".formatted(releasedState(maxAttemptsParameter).strip());
+    }
+
+    private static String releasedNotBefore(final String maxAttemptsParameter, final String backoffParameter) {
+        return RELEASED_NOT_BEFORE
+                .formatted(releasedState(maxAttemptsParameter).strip())
+                .replace("$backoff", backoffParameter)
+                .strip();
+    }
+
+    private static double seconds(final Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+
+    private static boolean updated(final Integer rows) {
+        return rows > 0;
+    }
+
+    @Nullable
+    private static DetectionJob.Phase phase(@Nullable final String phase) {
+        return phase != null ? DetectionJob.Phase.valueOf(phase) : null;
+    }
+
+    private DetectionJob convert(final Row row) {
+        return DetectionJob.builder()
+                .id(Converters.value(row, "id", Long.class))
+                .projectId(Converters.value(row, "project_id", Long.class))
+                .pullNumber(Converters.value(row, "pull_number", Integer.class))
+                .priority(DetectionJob.Priority.values()[Converters.value(row, "priority", Short.class)])
+                .state(DetectionJob.State.valueOf(Converters.value(row, "state", String.class)))
+                .phase(phase(Converters.nullable(row, "phase", String.class)))
+                .attempts(Converters.value(row, "attempts", Integer.class))
+                .worker(Converters.nullable(row, "worker", String.class))
+                .leaseExpiresAt(Converters.nullable(row, "lease_expires_at", Instant.class))
+                .createdAt(Converters.value(row, "created_at", Instant.class))
+                .startedAt(Converters.nullable(row, "started_at", Instant.class))
+                .finishedAt(Converters.nullable(row, "finished_at", Instant.class))
+                .error(Converters.nullable(row, "error", String.class))
+                .notBefore(Converters.nullable(row, "not_before", Instant.class))
+                .headSha(Converters.nullable(row, "head_sha", String.class))
+                .baseSha(Converters.nullable(row, "base_sha", String.class))
+                .fingerprint(Converters.nullable(row, "fingerprint", String.class))
+                .degradations(Converters.nullable(row, "degradations", String.class))
+                .detector(Converters.nullable(row, "detector", String.class))
+                .build();
+    }
+}
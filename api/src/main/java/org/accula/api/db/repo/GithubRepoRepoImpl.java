@@ -29,9 +29,9 @@ public final class GithubRepoRepoImpl implements GithubRepoRepo, ConnectionProvi
         }
 
         return manyWithConnection(connection -> {
-            final var statement = BatchStatement.of(connection, """
+            final var statement = UnnestStatement.of(connection, """
                     INSERT INTO repo_github (id, name, owner_id, description)
-                    VALUES ($collection)
+                    SELECT * FROM unnest($1::BIGINT[], $2::VARCHAR[], $3::BIGINT[], $4::TEXT[])
                     ON CONFLICT (id) DO UPDATE
                        SET name = excluded.name,
                            owner_id = excluded.owner_id,
@@ -29,9 +29,9 @@ public final class GithubUserRepoImpl implements GithubUserRepo, ConnectionProvi
         }
 
         return manyWithConnection(connection -> {
-            final var statement = BatchStatement.of(connection, """
+            final var statement = UnnestStatement.of(connection, """
                     INSERT INTO user_github (id, login, name, avatar, is_org)
-                    VALUES ($collection)
+                    SELECT * FROM unnest($1::BIGINT[], $2::VARCHAR[], $3::VARCHAR[], $4::VARCHAR[], $5::BOOLEAN[])
                     ON CONFLICT (id) DO UPDATE
                        SET login = excluded.login,
                            name = COALESCE(excluded.name, user_github.name),
@@ -0,0 +1,24 @@
+package org.accula.api.db.repo;
+
+import org.accula.api.db.model.MethodFingerprint;
+import org.accula.api.db.model.Pull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Organization-wide index of method fingerprints
+ */
+public interface MethodFingerprintRepo {
+    /**
+     * Replaces all fingerprints of the pull
+     */
+    Mono<Void> replace(Pull pull, Collection<MethodFingerprint> fingerprints);
+
+    /**
+     * Files of the pulls of other projects of the same owner updated no later than the pull,
+     * that have any of the fingerprints. Each file is emitted once with one of its matching fingerprints.
+     */
+    Flux<MethodFingerprint> findInOtherProjects(Pull pull, long[] fingerprints);
+}
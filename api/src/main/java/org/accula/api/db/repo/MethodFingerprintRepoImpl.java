@@ -0,0 +1,95 @@
+package org.accula.api.db.repo;
+
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Row;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.accula.api.db.model.MethodFingerprint;
+import org.accula.api.db.model.Pull;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Fingerprints are written and read with arrays bound to {@code unnest} and {@code ANY},
+ * so that a pull with thousands of fingerprints costs a single statement
+ */
+@Component
+@RequiredArgsConstructor
+public final class MethodFingerprintRepoImpl implements MethodFingerprintRepo, ConnectionProvidedRepo {
+    @Getter
+    private final ConnectionProvider connectionProvider;
+
+    @Override
+    public Mono<Void> replace(final Pull pull, final Collection<MethodFingerprint> fingerprints) {
+        return transactional(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("DELETE FROM method_fingerprint WHERE pull_id = $1"))
+                        .bind("$1", pull.getId())
+                        .execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .then(fingerprints.isEmpty() ? Mono.empty() : Mono
+                        .from(((PostgresqlStatement) connection
+                                .createStatement("""
+                                        INSERT INTO method_fingerprint (fingerprint, owner_id, project_id, pull_id, file)
+                                        SELECT fingerprint, $2, $3, $4, file
+                                        FROM unnest($1::BIGINT[], $5::VARCHAR[]) AS arr(fingerprint, file)
+                                        """))
+                                .bind("$1", fingerprints.stream().map(MethodFingerprint::getFingerprint).toArray(Long[]::new))
+                                .bind("$2", pull.getBase().getRepo().getOwner().getId())
+                                .bind("$3", pull.getProjectId())
+                                .bind("$4", pull.getId())
+                                .bind("$5", fingerprints.stream().map(MethodFingerprint::getFile).toArray(String[]::new))
+                                .execute())
+                        .flatMap(PostgresqlResult::getRowsUpdated))
+                .then());
+    }
+
+    @Override
+    public Flux<MethodFingerprint> findInOtherProjects(final Pull pull, final long[] fingerprints) {
+        if (fingerprints.length == 0) {
+            return Flux.empty();
+        }
+
+        return manyWithConnection(connection -> Mono
+                .from(((PostgresqlStatement) connection
+                        .createStatement("""
+                                SELECT DISTINCT ON (fp.pull_id, fp.file)
+                                       fp.fingerprint AS fingerprint,
+                                       fp.pull_id     AS pull_id,
+                                       fp.file        AS file
+                                FROM method_fingerprint fp
+                                    JOIN pull
+                                        ON pull.id = fp.pull_id
+                                WHERE fp.fingerprint = ANY ($1) AND
+                                      fp.owner_id = $2 AND
+                                      fp.project_id != $3 AND
+                                      pull.updated_at <= $4
+                                """))
+                        .bind("$1", toBoxed(fingerprints))
+                        .bind("$2", pull.getBase().getRepo().getOwner().getId())
+                        .bind("$3", pull.getProjectId())
+                        .bind("$4", pull.getUpdatedAt())
+                        .execute())
+                .flatMapMany(result -> ConnectionProvidedRepo.convertMany(result, this::convert)));
+    }
+
+    private static Long[] toBoxed(final long[] values) {
+        final var boxed = new Long[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+
+    private MethodFingerprint convert(final Row row) {
+        return MethodFingerprint.builder()
+                .fingerprint(Converters.value(row, "fingerprint", Long.class))
+                .pullId(Converters.value(row, "pull_id", Long.class))
+                .file(Converters.value(row, "file", String.class))
+                .build();
+    }
+}
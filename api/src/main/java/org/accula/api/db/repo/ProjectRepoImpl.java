@@ -250,9 +250,9 @@ public final class ProjectRepoImpl implements ProjectRepo, ConnectionProvidedRep
         if (conf.getAdminIds().isEmpty()) {
             insertNewAdmins = Mono.empty();
         } else {
-            final var insertAdminsBackStatement = BatchStatement.of(connection, """
+            final var insertAdminsBackStatement = UnnestStatement.of(connection, """
                     INSERT INTO project_admin (project_id, admin_id)
-                    VALUES ($collection)
+                    SELECT * FROM unnest($1::BIGINT[], $2::BIGINT[])
                     """);
             insertAdminsBackStatement.bind(conf.getAdminIds(), adminId -> new Object[]{
                     projectId,
@@ -31,7 +31,7 @@ public final class PullRepoImpl implements PullRepo, ConnectionProvidedRepo {
         }
 
         return manyWithConnection(connection -> {
-            final var statement = BatchStatement.of(connection, """
+            final var statement = UnnestStatement.of(connection, """
                     INSERT INTO pull (id,
                                       number,
                                       title,
@@ -44,7 +44,9 @@ public final class PullRepoImpl implements PullRepo, ConnectionProvidedRepo {
                                       base_commit_snapshot_repo_id,
                                       project_id,
                                       author_github_id)
-                    VALUES ($collection)
+                    SELECT *
+                    FROM unnest($1::BIGINT[], $2::INT[], $3::VARCHAR[], $4::BOOLEAN[], $5::TIMESTAMPTZ[], $6::TIMESTAMPTZ[],
+                                $7::VARCHAR[], $8::BIGINT[], $9::VARCHAR[], $10::BIGINT[], $11::BIGINT[], $12::BIGINT[])
                     ON CONFLICT (id) DO UPDATE
                        SET title = excluded.title,
                            open = excluded.open,
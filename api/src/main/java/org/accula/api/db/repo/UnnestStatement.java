@@ -0,0 +1,120 @@
+package org.accula.api.db.repo;
+
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Connection;
+import org.intellij.lang.annotations.Language;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Bulk write of a collection with a single array parameter per column, to be turned back into rows with {@code unnest}:
+ * <pre>
+ * INSERT INTO t (a, b) SELECT * FROM unnest($1::BIGINT[], $2::VARCHAR[])
+ * </pre>
+ * Unlike rendering the values into a multi-row {@code VALUES} list, the SQL does not grow with the collection and values are never rendered into it,
+ * so the statement is parsed and planned the same way for any number of rows and values need no escaping.
+ * <p>
+ * Every column is bound as an array of the type of its values, booleans and instants
+ * with the codecs of {@link ArrayCodecRegistrar}.
+ */
+final class UnnestStatement {
+    private final PostgresqlStatement statement;
+    private boolean bound;
+
+    static UnnestStatement of(final Connection connection, @Language("SQL") final String sql) {
+        return new UnnestStatement((PostgresqlStatement) connection.createStatement(sql));
+    }
+
+    private UnnestStatement(final PostgresqlStatement statement) {
+        this.statement = statement;
+    }
+
+    /**
+     * Binds the i-th element of the bindings of every item to the array parameter {@code $(i + 1)}
+     */
+    <T> void bind(final Collection<T> collection, final Function<T, Object[]> bind) {
+        Object[][] columns = null;
+        int row = 0;
+        for (final var el : collection) {
+            final var bindings = bind.apply(el);
+            if (columns == null) {
+                if (bindings.length == 0) {
+                    throw new IllegalStateException("Bindings must be present");
+                }
+                columns = new Object[bindings.length][collection.size()];
+            }
+            if (bindings.length != columns.length) {
+                throw new IllegalStateException("Expected %d bindings, got %d".formatted(columns.length, bindings.length));
+            }
+            for (int column = 0; column < bindings.length; ++column) {
+                columns[column][row] = bindings[column];
+            }
+            ++row;
+        }
+        if (columns == null) {
+            throw new IllegalStateException("Unnest statement can not be bound to an empty collection");
+        }
+        for (int column = 0; column < columns.length; ++column) {
+            statement.bind("$" + (column + 1), typedArray(columns[column]));
+        }
+        bound = true;
+    }
+
+    Flux<PostgresqlResult> execute() {
+        if (!bound) {
+            throw new IllegalStateException("Unnest statement does not have any bindings");
+        }
+        return statement.execute();
+    }
+
+    private static Object[] typedArray(final Object[] column) {
+        final var type = elementType(column);
+        if (type == Long.class) {
+            return copy(column, new Long[column.length]);
+        } else if (type == Integer.class) {
+            return copy(column, new Integer[column.length]);
+        } else if (type == Short.class) {
+            return copy(column, new Short[column.length]);
+        } else if (type == Boolean.class) {
+            return copy(column, new Boolean[column.length]);
+        } else if (type == Instant.class) {
+            return copy(column, new Instant[column.length]);
+        }
+        return copy(column, new String[column.length]);
+    }
+
+    /**
+     * Class of the non-null elements of the column, {@link String} if all of them are null
+     */
+    private static Class<?> elementType(final Object[] column) {
+        Class<?> type = null;
+        for (final var value : column) {
+            if (value == null) {
+                continue;
+            }
+            if (!isSupported(value)) {
+                throw new IllegalStateException("Not yet supported class: " + value.getClass().getName());
+            }
+            if (type == null) {
+                type = value.getClass();
+            } else if (type != value.getClass()) {
+                throw new IllegalStateException("Column mixes %s and %s".formatted(type.getName(), value.getClass().getName()));
+            }
+        }
+        return type == null ? String.class : type;
+    }
+
+    private static boolean isSupported(final Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short
+               || value instanceof String || value instanceof Boolean || value instanceof Instant;
+    }
+
+    private static <E> E[] copy(final Object[] column, final E[] array) {
+        System.arraycopy(column, 0, array, 0, column.length);
+        return array;
+    }
+}
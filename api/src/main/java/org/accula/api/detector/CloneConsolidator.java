@@ -0,0 +1,97 @@
+package org.accula.api.detector;
+
+import lombok.Value;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.detector.index.IntervalTree;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges clone pairs overlapping or adjacent on both sides into single pairs.
+ * <p>
+ * Clone classes of a suffix tree share tokens, so the same copied region is reported as many overlapping pairs.
+ * Pairs are grouped by their target and source files, and the pairs of a group are kept in an interval tree
+ * over their target lines. A new pair is merged with every pair whose target lines and source lines both overlap
+ * or touch its own, and the merged pair is matched again until nothing more can be merged.
+ * Pairs overlapping on one side only stay separate, since merging them would claim lines that were never copied.
+ * <p>
+ * Pairs of different target files never merge, so a stream of pairs grouped by target file, like the one of
+ * {@link SuffixTreeCloneDetector} and of its line-based fallback {@link PrimitiveCloneDetector},
+ * is consolidated one target file at a time by {@link #consolidateByTarget(Flux)}.
+ */
+public final class CloneConsolidator {
+    private final Map<FilePair, IntervalTree<Tuple2<CodeSnippet, CodeSnippet>>> clonesByFiles = new LinkedHashMap<>();
+
+    /**
+     * Consolidates each run of clones of the same target file as soon as the clones of another file follow it,
+     * so only the clones of the current target file are held in memory.
+     * Clones of a target file coming in several runs are consolidated within each run only.
+     */
+    public static Flux<Tuple2<CodeSnippet, CodeSnippet>> consolidateByTarget(final Flux<Tuple2<CodeSnippet, CodeSnippet>> clones) {
+        return clones
+                .bufferUntilChanged(clone -> Tuples.of(clone.getT1().getCommitSnapshot(), clone.getT1().getFile()))
+                .flatMapIterable(targetClones -> {
+                    final var consolidator = new CloneConsolidator();
+                    targetClones.forEach(consolidator::add);
+                    return consolidator.clones();
+                });
+    }
+
+    public void add(final Tuple2<CodeSnippet, CodeSnippet> clone) {
+        final var clones = clonesByFiles.computeIfAbsent(FilePair.of(clone), files -> new IntervalTree<>());
+
+        var merged = clone;
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            final var target = merged.getT1();
+            for (final var other : clones.overlapping(target.getFromLine() - 1, target.getToLine() + 1)) {
+                if (touch(merged.getT2(), other.getT2())) {
+                    clones.remove(other.getT1().getFromLine(), other.getT1().getToLine(), other);
+                    merged = Tuples.of(union(merged.getT1(), other.getT1()), union(merged.getT2(), other.getT2()));
+                    grown = true;
+                }
+            }
+        }
+        clones.insert(merged.getT1().getFromLine(), merged.getT1().getToLine(), merged);
+    }
+
+    /**
+     * Consolidated clones ordered by files in the order they were first seen, then by target lines
+     */
+    public List<Tuple2<CodeSnippet, CodeSnippet>> clones() {
+        final var clones = new ArrayList<Tuple2<CodeSnippet, CodeSnippet>>();
+        clonesByFiles.values().forEach(tree -> clones.addAll(tree.values()));
+        return clones;
+    }
+
+    private static boolean touch(final CodeSnippet first, final CodeSnippet second) {
+        return first.getFromLine() <= second.getToLine() + 1 && second.getFromLine() <= first.getToLine() + 1;
+    }
+
+    private static CodeSnippet union(final CodeSnippet first, final CodeSnippet second) {
+        return new CodeSnippet(first.getCommitSnapshot(), first.getFile(),
+                Math.min(first.getFromLine(), second.getFromLine()),
+                Math.max(first.getToLine(), second.getToLine()));
+    }
+
+    @Value
+    private static class FilePair {
+        CommitSnapshot targetSnapshot;
+        String targetFile;
+        CommitSnapshot sourceSnapshot;
+        String sourceFile;
+
+        static FilePair of(final Tuple2<CodeSnippet, CodeSnippet> clone) {
+            final var target = clone.getT1();
+            final var source = clone.getT2();
+            return new FilePair(target.getCommitSnapshot(), target.getFile(), source.getCommitSnapshot(), source.getFile());
+        }
+    }
+}
@@ -22,6 +22,18 @@ public interface CloneDetector {
      */
     Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(Flux<FileEntity> targetFiles, Flux<FileEntity> sourceFiles);
 
+    /**
+     * Same as {@link #findClones(Flux, Flux)}, but methods present unchanged in the project base commit
+     * are excluded from both sides, and the detector keeps within the budgets of the run,
+     * recording on the run every switch to a cheaper mode.
+     * Detectors that do not work with methods ignore the base methods, and cheap detectors may ignore the budgets.
+     */
+    default Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(Flux<FileEntity> targetFiles,
+                                                              Flux<FileEntity> sourceFiles,
+                                                              DetectionRun run) {
+        return findClones(targetFiles, sourceFiles);
+    }
+
     interface ConfigProvider extends Supplier<Mono<Config>> {
         @Override
         Mono<Config> get();
@@ -0,0 +1,221 @@
+package org.accula.api.detector;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.db.model.DetectionJob.Phase;
+import org.accula.api.detector.index.BaseMethodIndex;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Input and outcome of a single clone detection run shared between the caller and the detector:
+ * methods of the base commit to be excluded, resource budgets of the run,
+ * degradations the run went through because of exceeded budgets, the phase the run is in,
+ * and the sizes of the indexes the detector has built.
+ * <p>
+ * The deadline of the run starts when the run is created, and the clones of the run are counted over all detections
+ * it is passed to, so that a run split into several detections keeps within the same duration and clone budgets.
+ */
+@Slf4j
+public final class DetectionRun {
+    private final BaseMethodIndex baseMethods;
+    private final Budget budget;
+    private final Listener listener;
+    private final List<Degradation> degradations = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Phase> phase = new AtomicReference<>();
+    private final AtomicLong indexedMethods = new AtomicLong();
+    private final AtomicLong indexedTokens = new AtomicLong();
+    private final AtomicLong treeNodes = new AtomicLong();
+    private final AtomicLong clones = new AtomicLong();
+    private final Set<Degradation.Reason> exceededBudgets = ConcurrentHashMap.newKeySet();
+    private final long startedAt = System.nanoTime();
+    private final long maxDurationNanos;
+
+    private DetectionRun(final BaseMethodIndex baseMethods, final Budget budget, final Listener listener) {
+        this.baseMethods = baseMethods;
+        this.budget = budget;
+        this.listener = listener;
+        this.maxDurationNanos = nanos(budget.getMaxDuration());
+    }
+
+    public static DetectionRun of(final BaseMethodIndex baseMethods, final Budget budget) {
+        return of(baseMethods, budget, phase -> {
+        });
+    }
+
+    /**
+     * @param listener is called in the detecting thread with every phase the run enters and every degradation it goes through
+     */
+    public static DetectionRun of(final BaseMethodIndex baseMethods, final Budget budget, final Listener listener) {
+        return new DetectionRun(baseMethods, budget, listener);
+    }
+
+    public static DetectionRun unlimited() {
+        return of(BaseMethodIndex.EMPTY, Budget.UNLIMITED);
+    }
+
+    public BaseMethodIndex getBaseMethods() {
+        return baseMethods;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Moves the run into the phase. Phases of a streaming run overlap, so a run never moves back to an earlier phase.
+     */
+    public void enterPhase(final Phase next) {
+        final var previous = phase.getAndAccumulate(next, (current, candidate) ->
+                current == null || current.compareTo(candidate) < 0 ? candidate : current);
+        if (previous == null || previous.compareTo(next) < 0) {
+            listener.enterPhase(next);
+        }
+    }
+
+    /**
+     * Records that the run switched to a cheaper mode
+     */
+    public void degrade(final Degradation.Reason reason, final String details) {
+        final var degradation = new Degradation(reason, details);
+        log.warn("Clone detection degraded: {}", degradation);
+        degradations.add(degradation);
+        listener.degrade(degradation);
+    }
+
+    /**
+     * Whether the run has taken longer than its budget allows. Detectors check it every few methods or tokens
+     * and stop once it is expired, the first check past the deadline records the degradation.
+     */
+    public boolean isExpired() {
+        if (System.nanoTime() - startedAt < maxDurationNanos) {
+            return false;
+        }
+        degradeOnce(Degradation.Reason.DURATION, "Detection took longer than " + budget.getMaxDuration());
+        return true;
+    }
+
+    public Duration getTimeLeft() {
+        return Duration.ofNanos(Math.max(0L, maxDurationNanos - (System.nanoTime() - startedAt)));
+    }
+
+    /**
+     * Counts the clone against the clone budget of the run, returns {@code false} once the budget is exceeded
+     */
+    public boolean admitClone() {
+        if (clones.incrementAndGet() <= budget.getMaxClones()) {
+            return true;
+        }
+        degradeOnce(Degradation.Reason.CLONES, "More than " + budget.getMaxClones() + " clones were detected");
+        return false;
+    }
+
+    /**
+     * Stops emitting clones of the detection once the run is expired or the clones of all its detections exceed the budget.
+     * Detectors stop their own work on expiry, while this also stops the clones a detector has already produced.
+     */
+    public <T> Flux<T> limit(final Flux<T> detection) {
+        return detection
+                .takeUntilOther(Mono.delay(getTimeLeft()).filter(__ -> isExpired()))
+                .takeWhile(clone -> admitClone());
+    }
+
+    /**
+     * Records the size of an index built by the detector, a run may build several of them
+     */
+    public void recordIndex(final long methods, final long tokens, final long nodes) {
+        indexedMethods.addAndGet(methods);
+        indexedTokens.addAndGet(tokens);
+        treeNodes.addAndGet(nodes);
+    }
+
+    public long getIndexedMethods() {
+        return indexedMethods.get();
+    }
+
+    public long getIndexedTokens() {
+        return indexedTokens.get();
+    }
+
+    public long getTreeNodes() {
+        return treeNodes.get();
+    }
+
+    public List<Degradation> getDegradations() {
+        return List.copyOf(degradations);
+    }
+
+    public boolean isDegraded() {
+        return !degradations.isEmpty();
+    }
+
+    private void degradeOnce(final Degradation.Reason reason, final String details) {
+        if (exceededBudgets.add(reason)) {
+            degrade(reason, details);
+        }
+    }
+
+    private static long nanos(final Duration duration) {
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Observer of a run, usually the job the run is a part of
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void enterPhase(Phase phase);
+
+        default void degrade(final Degradation degradation) {
+        }
+    }
+
+    @Builder
+    @Value
+    public static class Budget {
+        public static final Budget UNLIMITED = Budget.builder().build();
+
+        /// Tokens to be indexed by a token-based detector
+        @Builder.Default
+        long maxTokens = Long.MAX_VALUE;
+        /// Nodes of the suffix tree, estimated from the number of the indexed tokens
+        @Builder.Default
+        long maxTreeNodes = Long.MAX_VALUE;
+        /// Wall time of the run since its creation, after which detectors stop and no more clones are emitted
+        @Builder.Default
+        Duration maxDuration = Duration.ofMillis(Long.MAX_VALUE);
+        /// Clones to be emitted by the run
+        @Builder.Default
+        long maxClones = Long.MAX_VALUE;
+    }
+
+    @Value
+    public static class Degradation {
+        Reason reason;
+        String details;
+
+        public enum Reason {
+            /// Oversized methods were skipped
+            TOKENS,
+            /// Detection fell back to a cheaper detector
+            TREE_NODES,
+            /// Detection was stopped before all clones were found
+            DURATION,
+            /// Clones beyond the limit were dropped
+            CLONES,
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.accula.api.detector;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.code.FileEntity;
+import org.accula.api.db.model.DetectionJob.Phase;
+import org.accula.api.detector.index.Hashing;
+import org.accula.api.detector.index.LongHashSet;
+import org.accula.api.detector.index.LongMultimap;
+import org.accula.api.detector.index.MinHash;
+import org.accula.api.detector.index.TokenStore;
+import org.accula.api.detector.parser.MethodTokenizer;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.accula.api.util.RLambda;
+import org.accula.api.util.ReactorSchedulers;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Near-miss clone detector matching whole methods by the similarity of their token shingle sets.
+ * <p>
+ * Exact detectors miss a copied method as soon as a statement is inserted or a few lines are reordered,
+ * unless the minimal clone length is lowered so much that the result explodes. This detector computes
+ * a {@link MinHash} signature of every method and splits it into {@code bands} of {@code rows} values.
+ * Methods sharing a band land in the same bucket, so only methods with a high estimated similarity
+ * become candidates, and only candidates are verified with the exact Jaccard similarity of their shingles.
+ * The probability of a pair of similarity {@code s} to become a candidate is {@code 1 - (1 - s^rows)^bands}.
+ * <p>
+ * Each emitted pair is a target method and a source method of at least {@link Config#getMinCloneLength()} tokens
+ * having at least {@code minSimilarity} of their shingles in common.
+ * <p>
+ * The deadline of the run is checked before each file is parsed, every {@link #DEADLINE_CHECK_INTERVAL} signatures,
+ * before each target method is matched and every {@link #DEADLINE_CHECK_INTERVAL} candidates it verifies.
+ * A target method interrupted by the deadline emits no clones.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public final class MinHashCloneDetector implements CloneDetector {
+    private static final double DEFAULT_MIN_SIMILARITY = 0.7;
+    private static final int DEFAULT_SHINGLE_LENGTH = 5;
+    private static final int DEFAULT_BANDS = 32;
+    private static final int DEFAULT_ROWS = 4;
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+    private final ConfigProvider configProvider;
+    private final MethodTokenizer tokenizer;
+    private final double minSimilarity;
+    private final int shingleLength;
+    private final int bands;
+    private final int rows;
+
+    public MinHashCloneDetector(final ConfigProvider configProvider) {
+        this(configProvider, MethodTokenizer.PARSER);
+    }
+
+    public MinHashCloneDetector(final ConfigProvider configProvider, final MethodTokenizer tokenizer) {
+        this(configProvider, tokenizer, DEFAULT_MIN_SIMILARITY, DEFAULT_SHINGLE_LENGTH, DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    @Override
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles, final Flux<FileEntity> sourceFiles) {
+        return findClones(targetFiles, sourceFiles, DetectionRun.unlimited());
+    }
+
+    @Override
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles,
+                                                             final Flux<FileEntity> sourceFiles,
+                                                             final DetectionRun run) {
+        return RLambda
+                .zip(tokenize(targetFiles, run), tokenize(sourceFiles, run), configProvider.get(), ReactorSchedulers.cpu(),
+                        (targets, sources, config) -> index(targets, sources, config, run))
+                .filter(index -> !run.isExpired())
+                .flatMapMany(index -> {
+                    run.enterPhase(Phase.MATCHING);
+                    return Flux
+                            .fromStream(IntStream.range(index.sourceMethodCount, index.store.methodCount()).boxed())
+                            .parallel(ReactorSchedulers.cpuParallelism())
+                            .runOn(ReactorSchedulers.cpu())
+                            .flatMap(target -> Flux.fromIterable(index.clones(target)))
+                            .sequential();
+                });
+    }
+
+    private Mono<List<Tuple2<FileEntity, List<TokenizedMethod>>>> tokenize(final Flux<FileEntity> files,
+                                                                           final DetectionRun run) {
+        final var baseMethods = run.getBaseMethods();
+        return files
+                .parallel(ReactorSchedulers.cpuParallelism())
+                .runOn(ReactorSchedulers.cpu())
+                .doOnNext(file -> run.enterPhase(Phase.PARSING))
+                .filter(file -> !run.isExpired())
+                .map(file -> Tuples.of(file, tokenizer.tokenizedFunctions(file)
+                        .filter(method -> !method.isEmpty() && !baseMethods.contains(method))
+                        .collect(toList())))
+                .sequential()
+                .collectList();
+    }
+
+    private Index index(final List<Tuple2<FileEntity, List<TokenizedMethod>>> targets,
+                        final List<Tuple2<FileEntity, List<TokenizedMethod>>> sources,
+                        final Config config,
+                        final DetectionRun run) {
+        run.enterPhase(Phase.INDEXING);
+        final var store = new TokenStore();
+        addFiles(sources, store);
+        final var sourceMethodCount = store.methodCount();
+        addFiles(targets, store);
+
+        final var minHash = MinHash.of(shingleLength, bands * rows);
+        final var minMethodLength = Math.max(config.getMinCloneLength(), shingleLength);
+        final var shingles = new long[store.methodCount()][];
+        final var buckets = LongMultimap.builder();
+        final var signatures = new long[store.methodCount()][];
+        for (int method = 0; method < store.methodCount(); ++method) {
+            if (method % DEADLINE_CHECK_INTERVAL == 0 && run.isExpired()) {
+                break;
+            }
+            if (store.methodEnd(method) - store.methodStart(method) < minMethodLength) {
+                continue;
+            }
+            shingles[method] = minHash.shingles(store, method);
+            final var signature = minHash.signature(shingles[method]);
+            if (method < sourceMethodCount) {
+                for (int band = 0; band < bands; ++band) {
+                    buckets.put(bucket(signature, band), method);
+                }
+            } else {
+                signatures[method] = signature;
+            }
+        }
+        return new Index(store, sourceMethodCount, shingles, signatures, buckets.build(), run);
+    }
+
+    private static void addFiles(final List<Tuple2<FileEntity, List<TokenizedMethod>>> files, final TokenStore store) {
+        for (final var file : files) {
+            final var fileId = store.addFile(file.getT1());
+            for (final var method : file.getT2()) {
+                store.addMethod(fileId, method);
+            }
+        }
+    }
+
+    private long bucket(final long[] signature, final int band) {
+        long hash = band;
+        for (int row = band * rows; row < (band + 1) * rows; ++row) {
+            hash = hash * Hashing.BASE + signature[row];
+        }
+        return Hashing.mix(hash);
+    }
+
+    @RequiredArgsConstructor
+    private final class Index {
+        final TokenStore store;
+        final int sourceMethodCount;
+        final long[][] shingles;
+        final long[][] signatures;
+        final LongMultimap buckets;
+        final DetectionRun run;
+
+        /**
+         * Source methods sharing a bucket with the target method and similar enough to it
+         */
+        List<Tuple2<CodeSnippet, CodeSnippet>> clones(final int target) {
+            final var signature = signatures[target];
+            if (signature == null || run.isExpired()) {
+                return List.of();
+            }
+            final var clones = new ArrayList<Tuple2<CodeSnippet, CodeSnippet>>();
+            final var candidates = new LongHashSet();
+            for (int band = 0; band < bands; ++band) {
+                final var slot = buckets.slot(bucket(signature, band));
+                if (slot < 0) {
+                    continue;
+                }
+                for (int i = buckets.valuesFrom(slot); i < buckets.valuesTo(slot); ++i) {
+                    final var source = (int) buckets.value(i);
+                    if (!candidates.add(source)) {
+                        continue;
+                    }
+                    if (candidates.size() % DEADLINE_CHECK_INTERVAL == 0 && run.isExpired()) {
+                        return List.of();
+                    }
+                    if (MinHash.jaccard(shingles[target], shingles[source]) >= minSimilarity) {
+                        clones.add(Tuples.of(snippet(target), snippet(source)));
+                    }
+                }
+            }
+            return clones;
+        }
+
+        private CodeSnippet snippet(final int method) {
+            return store.codeSnippet(store.methodStart(method), store.methodEnd(method) - 1);
+        }
+    }
+}
@@ -1,24 +1,44 @@
 package org.accula.api.detector;
 
+import lombok.RequiredArgsConstructor;
+import org.accula.api.code.FileContent;
 import org.accula.api.code.FileEntity;
+import org.accula.api.detector.index.Hashing;
+import org.accula.api.detector.index.LongMultimap;
+import org.accula.api.util.ReactorSchedulers;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Function;
 
 /**
+ * Line-based clone detector: a clone is a run of consecutive lines of a target file
+ * equal to a run of consecutive lines of a source file.
+ * <p>
+ * Target lines are indexed by a 64-bit hash of their text, each mapped to a packed (file id, line) value,
+ * and lines are never materialized as strings. Source files are matched against the index in parallel,
+ * and matches are merged into runs along diagonals with int arrays only.
+ * Clones are emitted once all sources are matched, grouped by target file in the order of the targets,
+ * so that they can be consolidated one target file at a time.
+ * Lines with equal hashes are considered equal, so with the 64-bit hash false matches are practically impossible.
+ * <p>
+ * Lines of a file may be skipped as if they were too short, so that no clone spans them.
+ *
  * @author Vadim Dyachkov
  */
 public class PrimitiveCloneDetector implements CloneDetector {
+    private static final long[] NO_MATCHES = new long[0];
+    private static final int[] NO_RUNS = new int[0];
+    private static final BitSet NO_LINES = new BitSet();
     private final int minLineLength;
     private final int minLineCount;
 
@@ -29,116 +49,167 @@ public class PrimitiveCloneDetector implements CloneDetector {
 
     @Override
     public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles, final Flux<FileEntity> sourceFiles) {
-        final Mono<Map<String, Collection<CodeSnippet>>> target = targetFiles
-                .map(this::lineToSnippetsMap)
+        return findClones(targetFiles, sourceFiles, file -> NO_LINES);
+    }
+
+    /**
+     * Same as {@link #findClones(Flux, Flux)}, but the lines of each file set in its skipped lines are never matched
+     */
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles,
+                                                             final Flux<FileEntity> sourceFiles,
+                                                             final SkippedLines skippedLines) {
+        return targetFiles
                 .collectList()
-                .map(PrimitiveCloneDetector::reduceMaps)
-                .cache();
-        return sourceFiles
-                .flatMap(source -> target.zipWith(Mono.just(source)))
-                .flatMap(targetAndSource -> Flux.fromIterable(findClonesInFile(targetAndSource.getT1(), targetAndSource.getT2())))
-                .filter(targetAndSource -> targetAndSource.getT2().getLineCount() >= minLineCount);
+                .publishOn(ReactorSchedulers.cpu())
+                .map(targets -> index(targets, skippedLines))
+                .flatMapMany(index -> sourceFiles
+                        .parallel(ReactorSchedulers.cpuParallelism())
+                        .runOn(ReactorSchedulers.cpu())
+                        .map(source -> findClonesInFile(index, source, skippedLines.of(source)))
+                        .sequential()
+                        .collect(TreeMap<Integer, List<Tuple2<CodeSnippet, CodeSnippet>>>::new, (clonesByTarget, fileClones) ->
+                                fileClones.forEach((target, clones) -> clonesByTarget
+                                        .computeIfAbsent(target, __ -> new ArrayList<>())
+                                        .addAll(clones)))
+                        .flatMapIterable(Map::values)
+                        .flatMapIterable(Function.identity()));
     }
 
-    private Map<String, Collection<CodeSnippet>> lineToSnippetsMap(final FileEntity file) {
-        final Map<String, Collection<CodeSnippet>> source = new ConcurrentHashMap<>();
-        final String[] lines = file.getContent().split("\n");
-        for (int i = 1; i <= lines.length; i++) {
-            final String line = lines[i - 1];
-            if (line.length() < minLineLength) {
-                continue;
-            }
-            final CodeSnippet snippet = new CodeSnippet(file.getCommitSnapshot(), file.getName(), i, i);
-            add(source, line, snippet);
+    private TargetIndex index(final List<FileEntity> targets, final SkippedLines skippedLines) {
+        final var lines = LongMultimap.builder();
+        for (int fileId = 0; fileId < targets.size(); ++fileId) {
+            final var file = targets.get(fileId);
+            final var fileIdx = fileId;
+            forEachLine(Objects.requireNonNull(file.getUtf8Content()), skippedLines.of(file),
+                    (line, hash) -> lines.put(hash, pack(fileIdx, line)));
         }
-        return source;
+        return new TargetIndex(targets, lines.build());
     }
 
-    private List<Tuple2<CodeSnippet, CodeSnippet>> findClonesInFile(final Map<String, Collection<CodeSnippet>> target,
-                                                                    final FileEntity file) {
-        final List<Tuple2<CodeSnippet, CodeSnippet>> clones = new ArrayList<>();
-        final String[] lines = file.getContent().split("\n");
-        for (int i = 1; i <= lines.length; i++) {
-            final String line = lines[i - 1];
-            if (line.length() < minLineLength) {
-                continue;
+    /**
+     * Walks the source file lines in order keeping the matches of the previous line,
+     * sorted by the packed target location. A match continues a run if the previous line matched
+     * the previous line of the same target file. Clones are keyed by the id of their target file.
+     */
+    private Map<Integer, List<Tuple2<CodeSnippet, CodeSnippet>>> findClonesInFile(final TargetIndex index,
+                                                                    final FileEntity source,
+                                                                    final BitSet skippedLines) {
+        final var clones = new HashMap<Integer, List<Tuple2<CodeSnippet, CodeSnippet>>>();
+        final var state = new RunState();
+        forEachLine(Objects.requireNonNull(source.getUtf8Content()), skippedLines, (line, hash) -> {
+            final var slot = index.lines.slot(hash);
+            final var matches = slot < 0 ? NO_MATCHES : matches(index.lines, slot);
+            final var runStarts = new int[matches.length];
+            final var continued = new boolean[state.matches.length];
+            final var adjacent = line == state.line + 1;
+            for (int i = 0; i < matches.length; ++i) {
+                final var previous = adjacent ? Arrays.binarySearch(state.matches, matches[i] - 1) : -1;
+                if (previous >= 0) {
+                    continued[previous] = true;
+                    runStarts[i] = state.runStarts[previous];
+                } else {
+                    runStarts[i] = line;
+                }
             }
-            if (target.containsKey(line)) {
-                final CodeSnippet source = new CodeSnippet(file.getCommitSnapshot(), file.getName(), i, i);
-                final Collection<CodeSnippet> snippets = target.get(line);
-                assert snippets != null;
-                snippets.forEach(s -> clones.add(Tuples.of(s, source)));
+            emitFinished(index, source, state, continued, clones);
+            state.line = line;
+            state.matches = matches;
+            state.runStarts = runStarts;
+        });
+        emitFinished(index, source, state, new boolean[state.matches.length], clones);
+        return clones;
+    }
+
+    private void emitFinished(final TargetIndex index,
+                              final FileEntity source,
+                              final RunState state,
+                              final boolean[] continued,
+                              final Map<Integer, List<Tuple2<CodeSnippet, CodeSnippet>>> clones) {
+        for (int i = 0; i < state.matches.length; ++i) {
+            final var lineCount = state.line - state.runStarts[i] + 1;
+            if (continued[i] || lineCount < minLineCount) {
+                continue;
             }
+            final var targetId = fileId(state.matches[i]);
+            final var target = index.targets.get(targetId);
+            final var targetToLine = line(state.matches[i]);
+            clones.computeIfAbsent(targetId, __ -> new ArrayList<>()).add(Tuples.of(
+                    new CodeSnippet(target.getCommitSnapshot(), target.getName(), targetToLine - lineCount + 1, targetToLine),
+                    new CodeSnippet(source.getCommitSnapshot(), source.getName(), state.runStarts[i], state.line)
+            ));
         }
-
-        final var sorted = clones.stream()
-                .sorted(Comparator.comparing(t -> t.getT1().toString()))
-                .collect(Collectors.toList());
-        return tryMerge(sorted);
     }
 
-    private List<Tuple2<CodeSnippet, CodeSnippet>> tryMerge(final List<Tuple2<CodeSnippet, CodeSnippet>> clones) {
-        if (clones.isEmpty()) {
-            return clones;
+    private static long[] matches(final LongMultimap lines, final int slot) {
+        final var from = lines.valuesFrom(slot);
+        final var matches = new long[lines.valuesTo(slot) - from];
+        for (int i = 0; i < matches.length; ++i) {
+            matches[i] = lines.value(from + i);
         }
-        final List<Tuple2<CodeSnippet, CodeSnippet>> result = new ArrayList<>();
-        final Iterator<Tuple2<CodeSnippet, CodeSnippet>> it = clones.iterator();
-        Tuple2<CodeSnippet, CodeSnippet> lastMerge = null;
-        Tuple2<CodeSnippet, CodeSnippet> prev = it.next();
-        Tuple2<CodeSnippet, CodeSnippet> curr;
-        while (it.hasNext()) {
-            curr = it.next();
-            final CodeSnippet target1 = prev.getT1();
-            final CodeSnippet target2 = curr.getT1();
-            final CodeSnippet source1 = prev.getT2();
-            final CodeSnippet source2 = curr.getT2();
-            if (isMergeable(target1, target2) && isMergeable(source1, source2)) {
-                final CodeSnippet mergedTarget = merge(target1, target2);
-                final CodeSnippet mergedSource = merge(source1, source2);
-                result.remove(lastMerge);
-                lastMerge = Tuples.of(mergedTarget, mergedSource);
-                result.add(lastMerge);
-                prev = lastMerge;
+        // Targets are indexed file by file and line by line, so the values are already sorted
+        return matches;
+    }
+
+    /**
+     * Calls the consumer with 1-based number and hash of every line that is not shorter than {@link #minLineLength}
+     * and is not skipped. Lines are hashed as UTF-8 bytes and their length is counted in code points
+     */
+    private void forEachLine(final FileContent content, final BitSet skippedLines, final LineConsumer consumer) {
+        int line = 1;
+        int lineLength = 0;
+        long hash = 0L;
+        for (int i = 0; i <= content.size(); ++i) {
+            if (i == content.size() || content.byteAt(i) == '\n') {
+                if (lineLength >= minLineLength && !skippedLines.get(line)) {
+                    consumer.accept(line, Hashing.mix(hash * Hashing.BASE + lineLength));
+                }
+                ++line;
+                lineLength = 0;
+                hash = 0L;
             } else {
-                if (prev != lastMerge) { // NOPMD
-                    result.add(prev);
+                final byte b = content.byteAt(i);
+                hash = hash * Hashing.BASE + (b & 0xFF);
+                if ((b & 0xC0) != 0x80) {
+                    ++lineLength;
                 }
-                lastMerge = null; // NOPMD
-                prev = curr;
             }
         }
-        if (prev != lastMerge) { // NOPMD
-            result.add(prev);
-        }
-        return result;
     }
 
-    private static boolean isMergeable(final CodeSnippet first, final CodeSnippet second) {
-        return first.getCommitSnapshot().equals(second.getCommitSnapshot())
-                && first.getFile().equals(second.getFile())
-                && first.getToLine() + 1 == second.getFromLine();
+    private static long pack(final int fileId, final int line) {
+        return ((long) fileId << Integer.SIZE) | line;
+    }
+
+    private static int fileId(final long packed) {
+        return (int) (packed >>> Integer.SIZE);
+    }
+
+    private static int line(final long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * 1-based numbers of the lines of a file not to be matched
+     */
+    @FunctionalInterface
+    public interface SkippedLines {
+        BitSet of(FileEntity file);
     }
 
-    private static CodeSnippet merge(final CodeSnippet first, final CodeSnippet second) {
-        assert first.getCommitSnapshot().equals(second.getCommitSnapshot());
-        assert first.getFile().equals(second.getFile());
-        return new CodeSnippet(first.getCommitSnapshot(), first.getFile(), first.getFromLine(), second.getToLine());
+    @FunctionalInterface
+    private interface LineConsumer {
+        void accept(int line, long hash);
     }
 
-    private static <K, V> Map<K, Collection<V>> reduceMaps(final List<Map<K, Collection<V>>> maps) {
-        return maps
-                .stream()
-                .flatMap(s -> s.entrySet().stream())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> {
-                    final List<V> temp = new ArrayList<>();
-                    temp.addAll(a);
-                    temp.addAll(b);
-                    return temp;
-                }));
+    @RequiredArgsConstructor
+    private static final class TargetIndex {
+        final List<FileEntity> targets;
+        final LongMultimap lines;
     }
 
-    private static <K, V> void add(final Map<K, Collection<V>> map, final K key, final V value) {
-        map.putIfAbsent(key, new ArrayList<>());
-        map.get(key).add(value);
+    private static final class RunState {
+        int line = -1;
+        long[] matches = NO_MATCHES;
+        int[] runStarts = NO_RUNS;
     }
 }
@@ -0,0 +1,344 @@
+package org.accula.api.detector;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.accula.api.detector.index.SuffixArray;
+import org.accula.api.detector.index.TokenStore;
+import org.accula.api.detector.parser.MethodTokenizer;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.accula.api.util.RLambda;
+import org.accula.api.util.ReactorSchedulers;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Clone detector built on a suffix array over the concatenated int token sequence of the target methods.
+ * <p>
+ * Every target method is terminated with its own unique sentinel, so common prefixes never cross method boundaries.
+ * The suffix array of the targets is built once per detection. Source methods are split into chunks of bounded
+ * token count, which are queried against it in parallel: every source suffix is searched in the suffix array
+ * token by token, so only the target methods are ever indexed.
+ * <p>
+ * Each emitted pair is a maximal exact match of at least {@link Config#getMinCloneLength()} anonymized tokens
+ * between a target method and a source method.
+ * <p>
+ * The deadline of the run is checked before the targets are indexed and every {@link #DEADLINE_CHECK_INTERVAL}
+ * source suffixes queried, and a chunk interrupted by the deadline emits no clones.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public final class SuffixArrayCloneDetector implements CloneDetector {
+    private static final int DEFAULT_SOURCE_CHUNK_TOKEN_LIMIT = 1 << 20;
+    private static final int TERMINATOR = 0;
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 12;
+    private final ConfigProvider configProvider;
+    private final MethodTokenizer tokenizer;
+    private final int sourceChunkTokenLimit;
+
+    public SuffixArrayCloneDetector(final ConfigProvider configProvider) {
+        this(configProvider, MethodTokenizer.PARSER);
+    }
+
+    public SuffixArrayCloneDetector(final ConfigProvider configProvider, final MethodTokenizer tokenizer) {
+        this(configProvider, tokenizer, DEFAULT_SOURCE_CHUNK_TOKEN_LIMIT);
+    }
+
+    public SuffixArrayCloneDetector(final ConfigProvider configProvider, final int sourceChunkTokenLimit) {
+        this(configProvider, MethodTokenizer.PARSER, sourceChunkTokenLimit);
+    }
+
+    @Override
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles, final Flux<FileEntity> sourceFiles) {
+        return findClones(targetFiles, sourceFiles, DetectionRun.unlimited());
+    }
+
+    @Override
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles,
+                                                             final Flux<FileEntity> sourceFiles,
+                                                             final DetectionRun run) {
+        return RLambda
+                .zip(tokenize(targetFiles, run.getBaseMethods()), tokenize(sourceFiles, run.getBaseMethods()), configProvider.get(),
+                        ReactorSchedulers.cpu(), (targets, sources, config) -> index(targets, sources, config, run))
+                .flatMapMany(index -> Flux
+                        .fromIterable(index.chunks(sourceChunkTokenLimit))
+                        .parallel(ReactorSchedulers.cpuParallelism())
+                        .runOn(ReactorSchedulers.cpu())
+                        .flatMap(chunk -> Flux.fromIterable(chunk.clones()))
+                        .sequential());
+    }
+
+    private Mono<List<Tuple2<FileEntity, List<TokenizedMethod>>>> tokenize(final Flux<FileEntity> files,
+                                                                           final BaseMethodIndex baseMethods) {
+        return files
+                .parallel(ReactorSchedulers.cpuParallelism())
+                .runOn(ReactorSchedulers.cpu())
+                .map(file -> Tuples.of(file, tokenizer.tokenizedFunctions(file)
+                        .filter(method -> !method.isEmpty() && !baseMethods.contains(method))
+                        .collect(toList())))
+                .sequential()
+                .collectList();
+    }
+
+    private static Index index(final List<Tuple2<FileEntity, List<TokenizedMethod>>> targets,
+                               final List<Tuple2<FileEntity, List<TokenizedMethod>>> sources,
+                               final Config config,
+                               final DetectionRun run) {
+        final var store = new TokenStore();
+        addFiles(sources, store);
+        final var sourceMethodCount = store.methodCount();
+        addFiles(targets, store);
+        final var targetMethodCount = store.methodCount() - sourceMethodCount;
+        final var targetTokenCount = store.tokenCount() - store.methodStart(sourceMethodCount);
+        final var length = targetTokenCount + targetMethodCount + 1;
+
+        // Symbols: 0 - terminator, [1, maxType + 1] - tokens, (maxType + 1, maxType + 1 + targetMethodCount] - sentinels
+        final var text = new int[length];
+        final var tokens = new int[length];
+        int maxType = 0;
+        int pos = 0;
+        for (int m = 0; m < targetMethodCount; ++m) {
+            final var method = sourceMethodCount + m;
+            for (int token = store.methodStart(method); token < store.methodEnd(method); ++token) {
+                final var type = store.type(token) + 1;
+                maxType = Math.max(maxType, type);
+                text[pos] = type;
+                tokens[pos] = token;
+                ++pos;
+            }
+            text[pos] = -(m + 1);
+            tokens[pos] = -1;
+            ++pos;
+        }
+        text[pos] = TERMINATOR;
+        tokens[pos] = -1;
+        for (int i = 0; i < length; ++i) {
+            if (text[i] < 0) {
+                text[i] = maxType - text[i];
+            }
+        }
+        final var sa = run.isExpired() ? new int[0] : SuffixArray.build(text, maxType + targetMethodCount + 1);
+        return new Index(store, sourceMethodCount, Math.max(1, config.getMinCloneLength()), run, text, tokens, sa);
+    }
+
+    private static void addFiles(final List<Tuple2<FileEntity, List<TokenizedMethod>>> files, final TokenStore store) {
+        for (final var file : files) {
+            final var fileId = store.addFile(file.getT1());
+            for (final var method : file.getT2()) {
+                store.addMethod(fileId, method);
+            }
+        }
+    }
+
+    /**
+     * Suffix array of all target methods, built once and shared by all source chunks
+     */
+    @RequiredArgsConstructor
+    private static final class Index {
+        final TokenStore store;
+        final int sourceMethodCount;
+        final int minCloneLength;
+        final DetectionRun run;
+        /// Target methods, each followed by its own sentinel, and the terminator
+        final int[] text;
+        /// Global token positions of the text symbols, -1 for sentinels and the terminator
+        final int[] tokens;
+        final int[] sa;
+
+        List<Chunk> chunks(final int sourceChunkTokenLimit) {
+            final var chunks = new ArrayList<Chunk>();
+            if (sourceMethodCount == store.methodCount() || run.isExpired()) {
+                return chunks;
+            }
+            int chunkStart = 0;
+            int chunkTokens = 0;
+            for (int method = 0; method < sourceMethodCount; ++method) {
+                final var methodTokens = store.methodEnd(method) - store.methodStart(method);
+                if (chunkTokens > 0 && chunkTokens + methodTokens > sourceChunkTokenLimit) {
+                    chunks.add(new Chunk(this, chunkStart, method));
+                    chunkStart = method;
+                    chunkTokens = 0;
+                }
+                chunkTokens += methodTokens;
+            }
+            if (chunkStart < sourceMethodCount) {
+                chunks.add(new Chunk(this, chunkStart, sourceMethodCount));
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Source methods {@code [sourceFrom, sourceTo)} queried against the target index
+     */
+    @RequiredArgsConstructor
+    private static final class Chunk {
+        final Index index;
+        final int sourceFrom;
+        final int sourceTo;
+
+        Set<Tuple2<CodeSnippet, CodeSnippet>> clones() {
+            final var store = index.store;
+            final var matchesByMethods = new HashMap<Long, List<Match>>();
+            int longestMethod = 0;
+            for (int method = sourceFrom; method < sourceTo; ++method) {
+                longestMethod = Math.max(longestMethod, store.methodEnd(method) - store.methodStart(method));
+            }
+            final var intervalStarts = new int[longestMethod + 1];
+            final var intervalEnds = new int[longestMethod + 1];
+            int queried = 0;
+            for (int method = sourceFrom; method < sourceTo; ++method) {
+                final var methodStart = store.methodStart(method);
+                final var methodEnd = store.methodEnd(method);
+                for (int source = methodStart; source + index.minCloneLength <= methodEnd; ++source) {
+                    if (++queried % DEADLINE_CHECK_INTERVAL == 0 && index.run.isExpired()) {
+                        return Set.of();
+                    }
+                    matchSuffix(source, methodStart, methodEnd, intervalStarts, intervalEnds, matchesByMethods);
+                }
+            }
+
+            final var clones = new LinkedHashSet<Tuple2<CodeSnippet, CodeSnippet>>();
+            for (final var matches : matchesByMethods.values()) {
+                for (final var match : withoutContained(matches)) {
+                    clones.add(Tuples.of(
+                            store.codeSnippet(match.target, match.target + match.length - 1),
+                            store.codeSnippet(match.source, match.source + match.length - 1)
+                    ));
+                }
+            }
+            return clones;
+        }
+
+        /**
+         * Narrows the suffix array interval of the target suffixes sharing the prefix with the source suffix one token at a time,
+         * remembering the interval of every depth. A target suffix leaving the interval after depth {@code d} shares exactly
+         * {@code d} tokens with the source suffix, so every pair is right-maximal, and it is paired only if the two suffixes
+         * are preceded by different tokens, so that it is left-maximal too.
+         */
+        private void matchSuffix(final int source,
+                                 final int methodStart,
+                                 final int methodEnd,
+                                 final int[] intervalStarts,
+                                 final int[] intervalEnds,
+                                 final Map<Long, List<Match>> matchesByMethods) {
+            final var store = index.store;
+            final var text = index.text;
+            final var sa = index.sa;
+            int from = 0;
+            int to = sa.length;
+            int depth = 0;
+            while (source + depth < methodEnd) {
+                final var symbol = store.type(source + depth) + 1;
+                if (to - from == 1) {
+                    // A single suffix left is compared directly, sentinels never being equal to a token
+                    if (text[sa[from] + depth] != symbol) {
+                        break;
+                    }
+                } else {
+                    final var symbolFrom = lowerBound(from, to, depth, symbol);
+                    final var symbolTo = lowerBound(symbolFrom, to, depth, symbol + 1);
+                    if (symbolFrom == symbolTo) {
+                        break;
+                    }
+                    from = symbolFrom;
+                    to = symbolTo;
+                }
+                ++depth;
+                intervalStarts[depth] = from;
+                intervalEnds[depth] = to;
+            }
+
+            for (int length = depth; length >= index.minCloneLength; --length) {
+                for (int i = intervalStarts[length]; i < intervalEnds[length]; ++i) {
+                    if (length < depth && i == intervalStarts[length + 1]) {
+                        // Suffixes of the deeper interval share more tokens and are paired at their own depth
+                        i = intervalEnds[length + 1] - 1;
+                        continue;
+                    }
+                    final var target = sa[i];
+                    // A suffix at the start of a method is preceded by nothing, which differs from any token
+                    if (source == methodStart || target == 0 || text[target - 1] != store.type(source - 1) + 1) {
+                        addMatch(matchesByMethods, index.tokens[target], source, length);
+                    }
+                }
+            }
+        }
+
+        /**
+         * First position in {@code [from, to)} of the suffix array whose suffix has a symbol not less than {@code symbol}
+         * at {@code depth}, all suffixes in the range sharing the first {@code depth} tokens
+         */
+        private int lowerBound(int from, int to, final int depth, final int symbol) {
+            final var text = index.text;
+            final var sa = index.sa;
+            while (from < to) {
+                final var mid = (from + to) >>> 1;
+                if (text[sa[mid] + depth] < symbol) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+
+        private void addMatch(final Map<Long, List<Match>> matchesByMethods, final int targetToken, final int sourceToken, final int length) {
+            final var store = index.store;
+            final var methods = ((long) store.methodOf(targetToken) << Integer.SIZE) | store.methodOf(sourceToken);
+            matchesByMethods
+                    .computeIfAbsent(methods, __ -> new ArrayList<>())
+                    .add(new Match(targetToken, sourceToken, length));
+        }
+    }
+
+    /**
+     * Drops the matches being shifted parts of other matches of the same pair of methods.
+     * Matches are swept in the order of their target start, longer ones first, keeping the matches overlapping
+     * the current target start, since only they can contain the current match or the following ones
+     */
+    private static List<Match> withoutContained(final List<Match> matches) {
+        matches.sort(Comparator.comparingInt((Match match) -> match.target).thenComparing(match -> -match.length));
+        final var kept = new ArrayList<Match>(matches.size());
+        final var active = new ArrayList<Match>();
+        for (final var match : matches) {
+            active.removeIf(other -> other.target + other.length <= match.target);
+            if (active.stream().noneMatch(other -> other.contains(match))) {
+                kept.add(match);
+            }
+            active.add(match);
+        }
+        return kept;
+    }
+
+    /**
+     * Exact match of {@code length} tokens starting at global token positions {@code target} and {@code source}
+     */
+    @RequiredArgsConstructor
+    private static final class Match {
+        final int target;
+        final int source;
+        final int length;
+
+        /**
+         * Whether the other match is a shifted part of this one within the same pair of methods
+         */
+        boolean contains(final Match other) {
+            return target <= other.target && other.target + other.length <= target + length
+                   && source <= other.source && other.source + other.length <= source + length;
+        }
+    }
+}
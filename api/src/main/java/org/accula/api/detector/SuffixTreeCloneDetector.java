@@ -4,98 +4,401 @@ import com.suhininalex.clones.core.CloneIndexer;
 import com.suhininalex.clones.core.structures.Token;
 import com.suhininalex.clones.core.structures.TreeCloneClass;
 import com.suhininalex.suffixtree.SuffixTree;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.accula.api.code.FileEntity;
-import org.accula.api.detector.parser.Parser;
+import org.accula.api.db.model.DetectionJob.Phase;
+import org.accula.api.detector.DetectionRun.Degradation;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.accula.api.detector.index.DuplicateMethods;
+import org.accula.api.detector.index.TokenStore;
+import org.accula.api.detector.index.WinnowingFilter;
+import org.accula.api.detector.parser.MethodTokenizer;
+import org.accula.api.detector.parser.TokenizedMethod;
 import org.accula.api.util.RLambda;
+import org.accula.api.util.ReactorSchedulers;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static java.util.function.Predicate.not;
 import static org.accula.api.detector.util.SuffixTreeUtils.edgesFromTreeCloneClassForMethod;
 import static org.accula.api.detector.util.SuffixTreeUtils.extractBeginToken;
 import static org.accula.api.detector.util.SuffixTreeUtils.extractEndToken;
-import static org.accula.api.detector.util.SuffixTreeUtils.getCodeSnippetFromEdge;
+import static org.accula.api.detector.util.SuffixTreeUtils.getCodeSnippetsFromEdge;
+import static org.accula.api.detector.util.SuffixTreeUtils.getTokenRangeFromEdge;
 
 /**
+ * Clone detector built on a generalized suffix tree of the tokenized methods.
+ * <p>
+ * Parsing, prefiltering and insertion into the tree are sequential. Once built, the tree is only read,
+ * so the queries of source methods run in parallel on the CPU scheduler, each worker filling its own buffer.
+ * Target files are then queried in parallel on subscription, and clones of each target file are emitted together
+ * as soon as the file and all files before it are resolved, so the whole result is never held in memory by the detector.
+ * Clones come in the order of the target files, the same as of a sequential run.
+ * Queries dominate the detection time on large courses, so the speedup of the query phases grows with
+ * the number of cores (4, 8, 16) as long as there are enough methods per core,
+ * while the overall speedup is bounded by the sequential tree construction.
+ * <p>
+ * The deadline of the run is checked while files are parsed and every {@link #DEADLINE_CHECK_INTERVAL} methods
+ * inserted into the tree or queried. Once it has passed, the detector stops and emits no more clones.
+ * <p>
+ * Tree insertion and both query phases are timed, and the size of the last built tree is exposed as gauges,
+ * through the global Micrometer registry, which the application registry is a part of.
+ *
  * @author Vanya Krylov
  */
 @Slf4j
-@RequiredArgsConstructor
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
 public final class SuffixTreeCloneDetector implements CloneDetector {
     private final ConfigProvider configProvider;
+    private final MethodTokenizer tokenizer;
+    /// Number of ranges of source methods and of target files queried at once, a single one makes the run sequential
+    private final int parallelism;
     private static final long SRC_FIRST_METHOD_ID = 2;
+    private static final int RANGES_PER_WORKER = 4;
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+    /// Shorter lines are not matched by the line-based fallback. The length counts the indentation, so inside a class
+    /// this drops blank lines and lone braces, while a statement as short as {@code return x;} is still matched.
+    private static final int FALLBACK_MIN_LINE_LENGTH = 10;
+    /// The minimal clone length is in tokens, and a line of a method body has ~7 tokens:
+    /// 9429 tokens on 1360 lines of the method bodies of this package, braces and semicolons excluded like in the tree
+    private static final int FALLBACK_TOKENS_PER_LINE = 7;
+    private static final BitSet NO_LINES = new BitSet();
+    private static final String TREE_TIMER = "accula.detection.tree";
+    private static final Timer INSERTION_TIMER = Metrics.timer(TREE_TIMER, "operation", "insert");
+    private static final Timer SOURCE_QUERY_TIMER = Metrics.timer(TREE_TIMER, "operation", "query.sources");
+    private static final Timer TARGET_QUERY_TIMER = Metrics.timer(TREE_TIMER, "operation", "query.targets");
+    private static final AtomicLong LAST_TREE_METHODS = Metrics.gauge("accula.detection.tree.methods", new AtomicLong());
+    private static final AtomicLong LAST_TREE_TOKENS = Metrics.gauge("accula.detection.tree.tokens", new AtomicLong());
+    private static final AtomicLong LAST_TREE_NODES = Metrics.gauge("accula.detection.tree.nodes", new AtomicLong());
+
+    public SuffixTreeCloneDetector(final ConfigProvider configProvider) {
+        this(configProvider, MethodTokenizer.PARSER);
+    }
+
+    public SuffixTreeCloneDetector(final ConfigProvider configProvider, final MethodTokenizer tokenizer) {
+        this(configProvider, tokenizer, ReactorSchedulers.cpuParallelism());
+    }
+
+    SuffixTreeCloneDetector(final ConfigProvider configProvider, final int parallelism) {
+        this(configProvider, MethodTokenizer.PARSER, parallelism);
+    }
 
     @Override
     public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles, final Flux<FileEntity> sourceFiles) {
+        return findClones(targetFiles, sourceFiles, DetectionRun.unlimited());
+    }
+
+    @Override
+    public Flux<Tuple2<CodeSnippet, CodeSnippet>> findClones(final Flux<FileEntity> targetFiles,
+                                                             final Flux<FileEntity> sourceFiles,
+                                                             final DetectionRun run) {
         return RLambda
-                .zip(targetFiles.collectList(), sourceFiles.collectList(), configProvider.get(), this::clones)
-                .flatMapMany(Flux::fromIterable);
+                .zip(targetFiles.collectList(), sourceFiles.collectList(), configProvider.get(), ReactorSchedulers.cpu(),
+                        (targets, sources, config) -> index(targets, sources, run, config))
+                .flatMapMany(Function.identity());
     }
 
-    private List<Tuple2<CodeSnippet, CodeSnippet>> clones(final List<FileEntity> targetFiles,
-                                                          final List<FileEntity> sourceFiles,
-                                                          final Config config) {
+    /**
+     * Builds the tree and resolves source methods into clone classes,
+     * leaving target methods to be queried while clones are consumed
+     */
+    private Flux<Tuple2<CodeSnippet, CodeSnippet>> index(final List<FileEntity> targetFiles,
+                                                         final List<FileEntity> sourceFiles,
+                                                         final DetectionRun run,
+                                                         final Config config) {
+        final var baseMethods = run.getBaseMethods();
         final var cloneDetectorInstance = new CloneIndexer();
-        final var cloneClassCodeSnippetsMap = new HashMap<CloneClass, List<CodeSnippet>>();
-        final var resultList = new ArrayList<Tuple2<CodeSnippet, CodeSnippet>>();
         final var suffixTree = cloneDetectorInstance.getTree();
-        try {
-            //NB! Source files must be added into suffixTree BEFORE target files
-            final long srcLastMethodId = addFilesIntoTree(sourceFiles, suffixTree);
-            final long targetFirstMethodId = srcLastMethodId + 1;
-            final long targetLastMethodId = addFilesIntoTree(targetFiles, suffixTree);
-
-            LongStream.rangeClosed(SRC_FIRST_METHOD_ID, srcLastMethodId).forEach(methodId ->
-                    extractClonesIntoMapForSourceMethod(methodId, cloneDetectorInstance, cloneClassCodeSnippetsMap, config));
-            LongStream.rangeClosed(targetFirstMethodId, targetLastMethodId).forEach(targetMethodId ->
-                    addClonesToListForTargetMethod(targetMethodId, cloneDetectorInstance, resultList, cloneClassCodeSnippetsMap, config));
-        } catch (NoSuchElementException e) {
-            log.error("Invalid data from parser! Failed to get last index with: " + e.getMessage());
+        final var tokenStore = new TokenStore();
+        final var baseMethodLines = new IdentityHashMap<FileEntity, BitSet>();
+
+        run.enterPhase(Phase.PARSING);
+        addFilesIntoStore(sourceFiles, tokenStore, baseMethods, baseMethodLines, run);
+        final var sourceMethodCount = tokenStore.methodCount();
+        addFilesIntoStore(targetFiles, tokenStore, baseMethods, baseMethodLines, run);
+        if (run.isExpired()) {
+            return Flux.empty();
+        }
+        final var selection = WinnowingFilter
+                .forMinCloneLength(config.getMinCloneLength())
+                .select(tokenStore, 0, sourceMethodCount, sourceMethodCount, tokenStore.methodCount());
+        log.info("Winnowing prefilter pruned {} of {} methods ({}%)",
+                selection.getPrunedMethodCount(), selection.getTotalMethodCount(), Math.round(selection.getPrunedFraction() * 100));
+        if (selection.getSourceMethods().length == 0 || selection.getTargetMethods().length == 0) {
+            return Flux.empty();
+        }
+
+        // Identical methods are collapsed per side only: a source and a target method must stay separate sequences to match
+        final var sourceDuplicates = DuplicateMethods.group(tokenStore, selection.getSourceMethods());
+        final var targetDuplicates = DuplicateMethods.group(tokenStore, selection.getTargetMethods());
+        log.info("Collapsed {} source and {} target methods identical to already indexed ones",
+                sourceDuplicates.collapsedCount(), targetDuplicates.collapsedCount());
+
+        final var budget = run.getBudget();
+        final var methods = skipOversizedMethods(sourceDuplicates.representatives(), targetDuplicates.representatives(), tokenStore, run);
+        final var sourceMethods = methods[0];
+        final var targetMethods = methods[1];
+        final var treeNodes = estimatedTreeNodes(sourceMethods, tokenStore) + estimatedTreeNodes(targetMethods, tokenStore);
+        if (treeNodes > budget.getMaxTreeNodes()) {
+            run.degrade(Degradation.Reason.TREE_NODES, String.format(
+                    "Suffix tree of ~%d nodes exceeds budget of %d nodes, falling back to line-based detection",
+                    treeNodes, budget.getMaxTreeNodes()));
+            run.enterPhase(Phase.MATCHING);
+            // Clones span at least as many lines as the tokens the project requires take, and lines of base methods are never matched
+            return new PrimitiveCloneDetector(FALLBACK_MIN_LINE_LENGTH, fallbackMinLineCount(config))
+                    .findClones(Flux.fromIterable(targetFiles), Flux.fromIterable(sourceFiles),
+                            file -> baseMethodLines.getOrDefault(file, NO_LINES));
         }
+        if (sourceMethods.length == 0 || targetMethods.length == 0) {
+            return Flux.empty();
+        }
+
+        run.enterPhase(Phase.INDEXING);
+        final var methodCount = sourceMethods.length + targetMethods.length;
+        final var tokenCount = tokenCount(sourceMethods, tokenStore) + tokenCount(targetMethods, tokenStore);
+        run.recordIndex(methodCount, tokenCount, treeNodes);
+        LAST_TREE_METHODS.set(methodCount);
+        LAST_TREE_TOKENS.set(tokenCount);
+        LAST_TREE_NODES.set(treeNodes);
+        final var insertion = Timer.start();
+        //NB! Source methods must be added into suffixTree BEFORE target methods
+        final long srcLastMethodId = addMethodsIntoTree(sourceMethods, suffixTree, tokenStore, run);
+        final long targetFirstMethodId = srcLastMethodId + 1;
+        final long targetLastMethodId = addMethodsIntoTree(targetMethods, suffixTree, tokenStore, run);
+        insertion.stop(INSERTION_TIMER);
+        if (run.isExpired()) {
+            return Flux.empty();
+        }
+
+        // The tree is read-only from now on, so queries run in parallel
+        run.enterPhase(Phase.MATCHING);
+        final var sourceQuery = Timer.start();
+        final var sourceClones = queryInParallel(SRC_FIRST_METHOD_ID, srcLastMethodId, methodIds -> {
+            final var workerMap = new HashMap<CloneClass, List<CodeSnippet>>();
+            methodIds
+                    .takeWhile(methodId -> methodId % DEADLINE_CHECK_INTERVAL != 0 || !run.isExpired())
+                    .forEach(methodId ->
+                            extractClonesIntoMapForSourceMethod(methodId, cloneDetectorInstance, sourceDuplicates, workerMap, config));
+            return workerMap;
+        }).map(workerMaps -> {
+            final var cloneClassCodeSnippetsMap = new HashMap<CloneClass, List<CodeSnippet>>();
+            workerMaps.forEach(workerMap -> workerMap.forEach((cloneClass, codeSnippets) ->
+                    cloneClassCodeSnippetsMap.computeIfAbsent(cloneClass, __ -> new ArrayList<>()).addAll(codeSnippets)));
+            sourceQuery.stop(SOURCE_QUERY_TIMER);
+            return cloneClassCodeSnippetsMap;
+        });
 
-        return resultList;
+        // Each target file is resolved as a whole, and files are emitted in the order they were parsed,
+        // so the output is the same as of a sequential run and clones of a target file always come together
+        final var targetTreeIds = new HashMap<Integer, Long>();
+        for (int i = 0; i < targetMethods.length; ++i) {
+            targetTreeIds.put(targetMethods[i], targetFirstMethodId + i);
+        }
+        final var targetFileMethods = methodsByFile(selection.getTargetMethods(), tokenStore);
+        final var duplicateMatches = new ConcurrentHashMap<Integer, List<TargetMatch>>();
+        final var targetQuery = new AtomicReference<Timer.Sample>();
+        return sourceClones
+                .filter(cloneClassCodeSnippetsMap -> !run.isExpired())
+                .flatMapMany(cloneClassCodeSnippetsMap -> Flux
+                        .fromIterable(targetFileMethods)
+                        .flatMapSequential(fileMethods -> Mono
+                                .fromCallable(() -> {
+                                    if (run.isExpired()) {
+                                        return List.<Tuple2<CodeSnippet, CodeSnippet>>of();
+                                    }
+                                    final var clones = new ArrayList<Tuple2<CodeSnippet, CodeSnippet>>();
+                                    for (int i = 0; i < fileMethods.length; ++i) {
+                                        if (i > 0 && i % DEADLINE_CHECK_INTERVAL == 0 && run.isExpired()) {
+                                            break;
+                                        }
+                                        addClonesToListForTargetMethod(fileMethods[i], cloneDetectorInstance, tokenStore, targetDuplicates,
+                                                targetTreeIds, duplicateMatches, clones, cloneClassCodeSnippetsMap, config);
+                                    }
+                                    return clones;
+                                })
+                                .subscribeOn(ReactorSchedulers.cpu())
+                                .flatMapIterable(Function.identity()), parallelism)
+                        .doOnSubscribe(subscription -> targetQuery.set(Timer.start()))
+                        .doOnComplete(() -> targetQuery.get().stop(TARGET_QUERY_TIMER)));
+    }
+
+    /**
+     * Splits the methods into runs of consecutive methods of the same file, keeping their order
+     */
+    private static List<int[]> methodsByFile(final int[] methods, final TokenStore tokenStore) {
+        final var files = new ArrayList<int[]>();
+        int from = 0;
+        for (int i = 1; i <= methods.length; ++i) {
+            if (i == methods.length || tokenStore.methodFile(methods[i]) != tokenStore.methodFile(methods[from])) {
+                files.add(Arrays.copyOfRange(methods, from, i));
+                from = i;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Skips the longest methods of both sides until the rest fits into the token budget of the run
+     *
+     * @return source methods and target methods to be inserted into the tree
+     */
+    private static int[][] skipOversizedMethods(final int[] sourceMethods,
+                                                final int[] targetMethods,
+                                                final TokenStore tokenStore,
+                                                final DetectionRun run) {
+        final var maxTokens = run.getBudget().getMaxTokens();
+        long tokens = tokenCount(sourceMethods, tokenStore) + tokenCount(targetMethods, tokenStore);
+        if (tokens <= maxTokens) {
+            return new int[][]{sourceMethods, targetMethods};
+        }
+        final var totalTokens = tokens;
+        final var bySizeDescending = IntStream
+                .concat(IntStream.of(sourceMethods), IntStream.of(targetMethods))
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer method) -> methodSize(method, tokenStore)).reversed())
+                .iterator();
+        final var skipped = new BitSet(tokenStore.methodCount());
+        while (tokens > maxTokens && bySizeDescending.hasNext()) {
+            final int method = bySizeDescending.next();
+            skipped.set(method);
+            tokens -= methodSize(method, tokenStore);
+        }
+        run.degrade(Degradation.Reason.TOKENS, String.format(
+                "%d tokens exceed budget of %d tokens, skipped %d longest methods",
+                totalTokens, maxTokens, skipped.cardinality()));
+        return new int[][]{
+                IntStream.of(sourceMethods).filter(method -> !skipped.get(method)).toArray(),
+                IntStream.of(targetMethods).filter(method -> !skipped.get(method)).toArray(),
+        };
+    }
+
+    /**
+     * Lines the tokens of the minimal clone length take, at least one
+     */
+    private static int fallbackMinLineCount(final Config config) {
+        return Math.max(1, (config.getMinCloneLength() + FALLBACK_TOKENS_PER_LINE - 1) / FALLBACK_TOKENS_PER_LINE);
+    }
+
+    /**
+     * A suffix tree has at most two nodes per inserted token, counting the end token of each sequence
+     */
+    private static long estimatedTreeNodes(final int[] methods, final TokenStore tokenStore) {
+        return 2 * (tokenCount(methods, tokenStore) + methods.length);
+    }
+
+    private static long tokenCount(final int[] methods, final TokenStore tokenStore) {
+        return IntStream.of(methods).mapToLong(method -> methodSize(method, tokenStore)).sum();
+    }
+
+    private static int methodSize(final int method, final TokenStore tokenStore) {
+        return tokenStore.methodEnd(method) - tokenStore.methodStart(method);
+    }
+
+    /**
+     * Splits method ids {@code [firstMethodId, lastMethodId]} into contiguous ranges and queries them on the CPU scheduler.
+     * There are several ranges per core, so that a range of unusually long methods does not hold back the whole phase.
+     * Worker results are returned in the order of the ranges, which keeps the output order the same as of a sequential run.
+     */
+    private <T> Mono<List<T>> queryInParallel(final long firstMethodId,
+                                              final long lastMethodId,
+                                              final Function<LongStream, T> worker) {
+        final long methodCount = lastMethodId - firstMethodId + 1;
+        if (methodCount <= 0) {
+            return Mono.just(List.of());
+        }
+        final long rangeCount = Math.min(methodCount, (long) parallelism * RANGES_PER_WORKER);
+        final long rangeSize = (methodCount + rangeCount - 1) / rangeCount;
+        return Flux
+                .range(0, (int) rangeCount)
+                .flatMapSequential(range -> Mono
+                        .fromCallable(() -> {
+                            final var from = firstMethodId + range * rangeSize;
+                            return worker.apply(LongStream.rangeClosed(from, Math.min(lastMethodId, from + rangeSize - 1)));
+                        })
+                        .subscribeOn(ReactorSchedulers.cpu()), parallelism)
+                .collectList();
     }
 
     private void extractClonesIntoMapForSourceMethod(final Long methodId,
                                                      final CloneIndexer cloneDetectorInstance,
+                                                     final DuplicateMethods sourceDuplicates,
                                                      final Map<CloneClass, List<CodeSnippet>> cloneClassCodeSnippetsMap,
                                                      final Config config) {
         getTreeCloneClassForMethod(methodId, cloneDetectorInstance, config)
                 .ifPresent(treeCloneClass -> {
                     final var cloneClass = new CloneClass(extractBeginToken(treeCloneClass), extractEndToken(treeCloneClass));
                     edgesFromTreeCloneClassForMethod(treeCloneClass, methodId).forEach(edge -> {
-                        final var codeSnippet = getCodeSnippetFromEdge(edge, treeCloneClass.getLength());
-                        putCodeSnippetIntoCloneClassCodeSnippetsMap(codeSnippet, cloneClass, cloneClassCodeSnippetsMap);
+                        getCodeSnippetsFromEdge(edge, treeCloneClass.getLength(), sourceDuplicates).forEach(codeSnippet ->
+                                putCodeSnippetIntoCloneClassCodeSnippetsMap(codeSnippet, cloneClass, cloneClassCodeSnippetsMap));
                     });
                 });
     }
 
-    private void addClonesToListForTargetMethod(final Long methodId,
+    /**
+     * Adds clones of a single target method. The tree is queried for the representative of the method,
+     * and the matches found inside the representative are moved to the same offsets inside the method.
+     * Matches of a representative with duplicates are resolved once and shared by all its occurrences.
+     */
+    private void addClonesToListForTargetMethod(final int method,
                                                 final CloneIndexer cloneDetectorInstance,
+                                                final TokenStore tokenStore,
+                                                final DuplicateMethods targetDuplicates,
+                                                final Map<Integer, Long> targetTreeIds,
+                                                final Map<Integer, List<TargetMatch>> duplicateMatches,
                                                 final List<Tuple2<CodeSnippet, CodeSnippet>> clones,
                                                 final Map<CloneClass, List<CodeSnippet>> cloneClassCodeSnippetsMap,
                                                 final Config config) {
-       getTreeCloneClassForMethod(methodId, cloneDetectorInstance, config)
-               .ifPresent(treeCloneClass -> {
-                   final var cloneClass = new CloneClass(extractBeginToken(treeCloneClass), extractEndToken(treeCloneClass));
-                   edgesFromTreeCloneClassForMethod(treeCloneClass, methodId).forEach(edge -> {
-                       final var codeSnippetTarget = getCodeSnippetFromEdge(edge, treeCloneClass.getLength());
-                       insertCloneClassClonesIntoList(codeSnippetTarget, cloneClass, clones, cloneClassCodeSnippetsMap);
-                   });
-               });
+        final var representative = targetDuplicates.representative(method);
+        final var methodId = targetTreeIds.get(representative);
+        if (methodId == null) {
+            // The representative was skipped as oversized
+            return;
+        }
+        final var matches = targetDuplicates.occurrences(representative).length > 1
+                ? duplicateMatches.computeIfAbsent(representative, __ -> findTargetMatches(methodId, cloneDetectorInstance, config))
+                : findTargetMatches(methodId, cloneDetectorInstance, config);
+        final var offset = tokenStore.methodStart(method) - tokenStore.methodStart(representative);
+        matches.forEach(match -> insertCloneClassClonesIntoList(
+                tokenStore.codeSnippet(match.getFromToken() + offset, match.getToToken() + offset),
+                match.getCloneClass(), clones, cloneClassCodeSnippetsMap));
+    }
+
+    private List<TargetMatch> findTargetMatches(final Long methodId, final CloneIndexer cloneDetectorInstance, final Config config) {
+        return getTreeCloneClassForMethod(methodId, cloneDetectorInstance, config)
+                .map(treeCloneClass -> {
+                    final var cloneClass = new CloneClass(extractBeginToken(treeCloneClass), extractEndToken(treeCloneClass));
+                    return edgesFromTreeCloneClassForMethod(treeCloneClass, methodId)
+                            .map(edge -> {
+                                final var tokens = getTokenRangeFromEdge(edge, treeCloneClass.getLength());
+                                return new TargetMatch(tokens[0], tokens[1], cloneClass);
+                            })
+                            .collect(Collectors.toList());
+                })
+                .orElse(List.of());
     }
 
     private Optional<TreeCloneClass> getTreeCloneClassForMethod(final Long methodId,
@@ -122,33 +425,60 @@ public final class SuffixTreeCloneDetector implements CloneDetector {
     }
 
     /**
-     * Utility method to insert list of FileEntities into SuffixTree
+     * Utility method to parse FileEntities into tokenized methods and put them into the token store
      *
-     * @param files      - list of FileEntities
-     * @param suffixTree - tree object reference
-     * @return index of the last sequence (last tokenized method of the last FileEntity) inserted into the tree
+     * @param files       - list of FileEntities
+     * @param tokenStore  - packed storage of the parsed tokens
+     * @param baseMethods     - methods of the project base commit, that are not put into the store
+     * @param baseMethodLines - lines spanned by the base methods of every file, filled in by this method
+     * @param run             - run whose deadline stops the parsing
      */
-    private static long addFilesIntoTree(final List<FileEntity> files, final SuffixTree<Token> suffixTree) {
-        return files.stream()
-                .map(file -> addFileIntoTree(file, suffixTree))
-                .filter(OptionalLong::isPresent)
-                .mapToLong(OptionalLong::getAsLong)
-                .max()
-                .orElseThrow();
+    private void addFilesIntoStore(final List<FileEntity> files,
+                                          final TokenStore tokenStore,
+                                          final BaseMethodIndex baseMethods,
+                                          final Map<FileEntity, BitSet> baseMethodLines,
+                                          final DetectionRun run) {
+        for (final var file : files) {
+            if (run.isExpired()) {
+                return;
+            }
+            final var fileId = tokenStore.addFile(file);
+            tokenizer.tokenizedFunctions(file)
+                    .filter(not(TokenizedMethod::isEmpty))
+                    .forEach(method -> {
+                        if (baseMethods.contains(method)) {
+                            final var lines = method.getLines();
+                            baseMethodLines
+                                    .computeIfAbsent(file, __ -> new BitSet())
+                                    .set(lines[0], lines[lines.length - 1] + 1);
+                        } else {
+                            tokenStore.addMethod(fileId, method);
+                        }
+                    });
+        }
     }
 
     /**
-     * Utility method to insert parsed FileEntity's methods into SuffixTree
+     * Utility method to insert methods of the token store into SuffixTree
      *
-     * @param file       - FileEntity object to parse into tokenized methods and then insert into tree
+     * @param methods    - indexes of the methods inside the token store
      * @param suffixTree - tree object reference
-     * @return - Optional of the index of the last sequence (tokenized method) inserted into the tree
+     * @param tokenStore - packed storage the inserted tokens refer to
+     * @param run        - run whose deadline stops the insertion
+     * @return index of the last sequence (tokenized method) inserted into the tree
      */
-    private static OptionalLong addFileIntoTree(final FileEntity file, final SuffixTree<Token> suffixTree) {
-        return Parser.tokenizedFunctions(file)
-                .filter(not(List::isEmpty))
-                .mapToLong(suffixTree::addSequence)
-                .max();
+    private static long addMethodsIntoTree(final int[] methods,
+                                           final SuffixTree<Token> suffixTree,
+                                           final TokenStore tokenStore,
+                                           final DetectionRun run) {
+        long lastMethodId = -1L;
+        for (int i = 0; i < methods.length; ++i) {
+            if (i % DEADLINE_CHECK_INTERVAL == 0 && run.isExpired()) {
+                break;
+            }
+            lastMethodId = suffixTree.addSequence(tokenStore.treeSequence(methods[i]));
+        }
+        return lastMethodId;
     }
 
     @Value
@@ -156,4 +486,12 @@ public final class SuffixTreeCloneDetector implements CloneDetector {
         Token from;
         Token to;
     }
+
+    /// Clone inside a target representative, the tokens being global positions inside the token store (both inclusive)
+    @Value
+    private static class TargetMatch {
+        int fromToken;
+        int toToken;
+        CloneClass cloneClass;
+    }
 }
@@ -0,0 +1,54 @@
+package org.accula.api.detector.index;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.parser.Parser;
+import org.accula.api.detector.parser.TokenizedMethod;
+
+import java.util.Collection;
+
+/**
+ * Hashes of the anonymized token sequences of all methods of a project base commit.
+ * <p>
+ * Course projects start from a shared template, so methods that are left untouched in a pull
+ * are present in the base commit token for token. Such methods are excluded from clone detection:
+ * every pull shares them and matches between them come purely from the template.
+ */
+public final class BaseMethodIndex {
+    public static final BaseMethodIndex EMPTY = new BaseMethodIndex(new LongHashSet());
+    private final LongHashSet hashes;
+
+    private BaseMethodIndex(final LongHashSet hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * Parses the base commit files and indexes their methods
+     */
+    public static BaseMethodIndex of(final Collection<FileEntity> baseFiles) {
+        final var hashes = new LongHashSet();
+        baseFiles.forEach(file -> Parser
+                .tokenizedFunctions(file)
+                .forEach(method -> hashes.add(hash(method))));
+        return new BaseMethodIndex(hashes);
+    }
+
+    /**
+     * Whether the method is present in the base commit unchanged
+     */
+    public boolean contains(final TokenizedMethod method) {
+        return !hashes.isEmpty() && hashes.contains(hash(method));
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    private static long hash(final TokenizedMethod method) {
+        final var types = method.getTypes();
+        long hash = types.length;
+        for (final var type : types) {
+            hash = hash * Hashing.BASE + type;
+        }
+        return Hashing.mix(hash);
+    }
+}
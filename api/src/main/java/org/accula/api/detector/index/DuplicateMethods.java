@@ -0,0 +1,137 @@
+package org.accula.api.detector.index;
+
+import org.accula.api.detector.CodeSnippet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups methods of the token store with identical anonymized token sequences.
+ * <p>
+ * Only one representative of each group needs to be indexed: a clone found inside the representative
+ * is expanded into the same token range of every other occurrence by {@link #codeSnippets(int, int)}.
+ * Methods are grouped by a 64-bit content hash, and candidates with equal hashes are compared token by token,
+ * so hash collisions never merge different methods.
+ */
+public final class DuplicateMethods {
+    private final TokenStore store;
+    private final int[] representatives;
+    private final Map<Integer, int[]> occurrences;
+    private final Map<Integer, Integer> collapsedRepresentatives;
+
+    private DuplicateMethods(final TokenStore store,
+                             final int[] representatives,
+                             final Map<Integer, int[]> occurrences,
+                             final Map<Integer, Integer> collapsedRepresentatives) {
+        this.store = store;
+        this.representatives = representatives;
+        this.occurrences = occurrences;
+        this.collapsedRepresentatives = collapsedRepresentatives;
+    }
+
+    /**
+     * Groups the given methods of the store preserving the order of their first occurrences
+     */
+    public static DuplicateMethods group(final TokenStore store, final int[] methods) {
+        final var groupsByHash = new HashMap<Long, List<List<Integer>>>();
+        final var groups = new ArrayList<List<Integer>>();
+        for (final var method : methods) {
+            final var candidates = groupsByHash.computeIfAbsent(contentHash(store, method), __ -> new ArrayList<>());
+            final var group = candidates
+                    .stream()
+                    .filter(candidate -> sameTypes(store, candidate.get(0), method))
+                    .findFirst()
+                    .orElseGet(() -> {
+                        final var newGroup = new ArrayList<Integer>();
+                        candidates.add(newGroup);
+                        groups.add(newGroup);
+                        return newGroup;
+                    });
+            group.add(method);
+        }
+
+        final var representatives = new int[groups.size()];
+        final var occurrences = new HashMap<Integer, int[]>();
+        final var collapsedRepresentatives = new HashMap<Integer, Integer>();
+        for (int i = 0; i < groups.size(); ++i) {
+            final var group = groups.get(i);
+            representatives[i] = group.get(0);
+            if (group.size() > 1) {
+                occurrences.put(group.get(0), group.stream().mapToInt(Integer::intValue).toArray());
+                group.subList(1, group.size()).forEach(method -> collapsedRepresentatives.put(method, group.get(0)));
+            }
+        }
+        return new DuplicateMethods(store, representatives, occurrences, collapsedRepresentatives);
+    }
+
+    /**
+     * Methods to be indexed, one per group of identical methods
+     */
+    public int[] representatives() {
+        return representatives;
+    }
+
+    /**
+     * All methods identical to the representative, the representative itself coming first
+     */
+    public int[] occurrences(final int representative) {
+        final var methods = occurrences.get(representative);
+        return methods != null ? methods : new int[]{representative};
+    }
+
+    /**
+     * Representative of the group the method belongs to, the method itself if it is a representative
+     */
+    public int representative(final int method) {
+        return collapsedRepresentatives.getOrDefault(method, method);
+    }
+
+    /**
+     * Number of methods not indexed because of being identical to their representative
+     */
+    public int collapsedCount() {
+        return occurrences.values().stream().mapToInt(methods -> methods.length - 1).sum();
+    }
+
+    /**
+     * Expands the range of global token positions (both inclusive) inside a representative
+     * into code snippets of the same range inside every occurrence of the representative
+     */
+    public List<CodeSnippet> codeSnippets(final int fromToken, final int toToken) {
+        final var representative = store.methodOf(fromToken);
+        final var offset = fromToken - store.methodStart(representative);
+        final var length = toToken - fromToken;
+        final var methods = occurrences(representative);
+        final var snippets = new ArrayList<CodeSnippet>(methods.length);
+        for (final var method : methods) {
+            final var from = store.methodStart(method) + offset;
+            snippets.add(store.codeSnippet(from, from + length));
+        }
+        return snippets;
+    }
+
+    private static long contentHash(final TokenStore store, final int method) {
+        long hash = store.methodEnd(method) - store.methodStart(method);
+        for (int token = store.methodStart(method); token < store.methodEnd(method); ++token) {
+            hash = hash * Hashing.BASE + store.type(token);
+        }
+        return Hashing.mix(hash);
+    }
+
+    private static boolean sameTypes(final TokenStore store, final int first, final int second) {
+        final var firstStart = store.methodStart(first);
+        final var secondStart = store.methodStart(second);
+        final var length = store.methodEnd(first) - firstStart;
+        if (length != store.methodEnd(second) - secondStart) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (store.type(firstStart + i) != store.type(secondStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
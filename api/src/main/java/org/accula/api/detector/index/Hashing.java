@@ -0,0 +1,22 @@
+package org.accula.api.detector.index;
+
+/**
+ * 64-bit hashing primitives shared by the detector indexes
+ */
+public final class Hashing {
+    /** Odd multiplier of the polynomial rolling hash over token types */
+    public static final long BASE = 0x9E3779B97F4A7C15L;
+
+    private Hashing() {
+    }
+
+    /**
+     * SplitMix64 finalizer: spreads the bits of the value over the whole 64-bit word
+     */
+    public static long mix(final long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
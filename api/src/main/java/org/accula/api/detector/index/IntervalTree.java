@@ -0,0 +1,189 @@
+package org.accula.api.detector.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mutable set of closed int intervals with attached values supporting overlap queries.
+ * <p>
+ * Intervals are kept in a treap ordered by their start, each node storing the maximal end of its subtree,
+ * so subtrees ending before the queried interval are skipped and a query costs {@code O(log n + k)}
+ * for {@code k} reported intervals. Insertions and removals keep the tree balanced in expectation.
+ * <p>
+ * The tree is not thread-safe.
+ */
+public final class IntervalTree<T> {
+    private Node<T> root;
+    private int size;
+
+    public void insert(final int from, final int to, final T value) {
+        root = insert(root, new Node<>(from, to, value, ThreadLocalRandom.current().nextInt()));
+        ++size;
+    }
+
+    /**
+     * Removes the interval with the value, compared by identity
+     *
+     * @return whether the interval was present
+     */
+    public boolean remove(final int from, final int to, final T value) {
+        final var sizeBefore = size;
+        root = remove(root, from, to, value);
+        return size < sizeBefore;
+    }
+
+    /**
+     * Values of the intervals having at least one common point with {@code [from, to]}
+     */
+    public List<T> overlapping(final int from, final int to) {
+        final var result = new ArrayList<T>();
+        collectOverlapping(root, from, to, result);
+        return result;
+    }
+
+    /**
+     * Values of all intervals ordered by their start
+     */
+    public List<T> values() {
+        final var result = new ArrayList<T>(size);
+        collectAll(root, result);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static <T> Node<T> insert(final Node<T> node, final Node<T> inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (inserted.from < node.from) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) {
+                return rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) {
+                return rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private Node<T> remove(final Node<T> node, final int from, final int to, final T value) {
+        if (node == null) {
+            return null;
+        }
+        if (node.from == from && node.to == to && node.value == value) {
+            --size;
+            return merge(node.left, node.right);
+        }
+        if (from < node.from) {
+            node.left = remove(node.left, from, to, value);
+        } else {
+            // Intervals with equal starts may be on either side after rotations
+            final var sizeBefore = size;
+            node.right = remove(node.right, from, to, value);
+            if (size == sizeBefore && from == node.from) {
+                node.left = remove(node.left, from, to, value);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private static <T> Node<T> merge(final Node<T> left, final Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static <T> void collectOverlapping(final Node<T> node, final int from, final int to, final List<T> result) {
+        if (node == null || node.maxTo < from) {
+            return;
+        }
+        collectOverlapping(node.left, from, to, result);
+        if (node.from > to) {
+            // Intervals of the right subtree start even later
+            return;
+        }
+        if (node.to >= from) {
+            result.add(node.value);
+        }
+        collectOverlapping(node.right, from, to, result);
+    }
+
+    private static <T> void collectAll(final Node<T> node, final List<T> result) {
+        if (node == null) {
+            return;
+        }
+        collectAll(node.left, result);
+        result.add(node.value);
+        collectAll(node.right, result);
+    }
+
+    private static <T> Node<T> rotateRight(final Node<T> node) {
+        final var left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    private static <T> Node<T> rotateLeft(final Node<T> node) {
+        final var right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        right.update();
+        return right;
+    }
+
+    private static final class Node<T> {
+        final int from;
+        final int to;
+        final T value;
+        final int priority;
+        int maxTo;
+        Node<T> left;
+        Node<T> right;
+
+        Node(final int from, final int to, final T value, final int priority) {
+            this.from = from;
+            this.to = to;
+            this.value = value;
+            this.priority = priority;
+            this.maxTo = to;
+        }
+
+        void update() {
+            maxTo = to;
+            if (left != null && left.maxTo > maxTo) {
+                maxTo = left.maxTo;
+            }
+            if (right != null && right.maxTo > maxTo) {
+                maxTo = right.maxTo;
+            }
+        }
+    }
+}
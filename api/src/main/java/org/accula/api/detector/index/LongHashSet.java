@@ -0,0 +1,98 @@
+package org.accula.api.detector.index;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of primitive longs with linear probing
+ */
+public final class LongHashSet {
+    private static final long EMPTY = 0L;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean containsEmpty;
+
+    public LongHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashSet(final int expectedSize) {
+        final var capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR));
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return {@code true} if the set did not already contain the value
+     */
+    public boolean add(final long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            ++size;
+            return true;
+        }
+        int idx = index(value);
+        while (table[idx] != EMPTY) {
+            if (table[idx] == value) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        table[idx] = value;
+        if (++size > table.length * LOAD_FACTOR) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(final long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int idx = index(value);
+        while (table[idx] != EMPTY) {
+            if (table[idx] == value) {
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int index(final long value) {
+        return (int) Hashing.mix(value) & mask;
+    }
+
+    private void rehash(final int capacity) {
+        final var old = table;
+        table = new long[capacity];
+        mask = capacity - 1;
+        Arrays.stream(old)
+                .filter(value -> value != EMPTY)
+                .forEach(value -> {
+                    int idx = index(value);
+                    while (table[idx] != EMPTY) {
+                        idx = (idx + 1) & mask;
+                    }
+                    table[idx] = value;
+                });
+    }
+
+    private static int tableSizeFor(final int capacity) {
+        return Math.max(DEFAULT_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+    }
+}
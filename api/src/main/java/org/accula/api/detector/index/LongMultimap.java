@@ -0,0 +1,120 @@
+package org.accula.api.detector.index;
+
+import java.util.Arrays;
+
+/**
+ * Immutable multimap from primitive long keys to primitive long values.
+ * <p>
+ * Keys live in an open-addressing table with linear probing, and each occupied slot refers to
+ * a contiguous range of a single value array, so a lookup costs one probe sequence and
+ * the values of a key are read without any boxing. Values of a key keep their insertion order.
+ */
+public final class LongMultimap {
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private final long[] keys;
+    private final int[] starts;
+    private final int[] ends;
+    private final long[] values;
+    private final int mask;
+
+    private LongMultimap(final long[] keys, final int[] starts, final int[] ends, final long[] values) {
+        this.keys = keys;
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.mask = keys.length - 1;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Slot of the key to be passed into {@link #valuesFrom(int)} and {@link #valuesTo(int)}, or {@code -1} if the key is absent
+     */
+    public int slot(final long key) {
+        int idx = index(key, mask);
+        while (ends[idx] != starts[idx]) {
+            if (keys[idx] == key) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int valuesFrom(final int slot) {
+        return starts[slot];
+    }
+
+    public int valuesTo(final int slot) {
+        return ends[slot];
+    }
+
+    public long value(final int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    private static int index(final long key, final int mask) {
+        return (int) Hashing.mix(key) & mask;
+    }
+
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 1 << 10;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] values = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private Builder() {
+        }
+
+        public Builder put(final long key, final long value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                values = Arrays.copyOf(values, size << 1);
+            }
+            keys[size] = key;
+            values[size] = value;
+            ++size;
+            return this;
+        }
+
+        public LongMultimap build() {
+            final var capacity = Math.max(2, Integer.highestOneBit((int) Math.ceil(Math.max(size, 1) / LOAD_FACTOR) - 1) << 1);
+            final var mask = capacity - 1;
+            final var tableKeys = new long[capacity];
+            final var counts = new int[capacity];
+            final var slots = new int[size];
+            for (int i = 0; i < size; ++i) {
+                final var key = keys[i];
+                int idx = index(key, mask);
+                while (counts[idx] != 0 && tableKeys[idx] != key) {
+                    idx = (idx + 1) & mask;
+                }
+                tableKeys[idx] = key;
+                ++counts[idx];
+                slots[i] = idx;
+            }
+
+            final var starts = new int[capacity];
+            final var ends = new int[capacity];
+            int offset = 0;
+            for (int idx = 0; idx < capacity; ++idx) {
+                starts[idx] = offset;
+                ends[idx] = offset;
+                offset += counts[idx];
+            }
+            final var tableValues = new long[size];
+            for (int i = 0; i < size; ++i) {
+                tableValues[ends[slots[i]]++] = values[i];
+            }
+            return new LongMultimap(tableKeys, starts, ends, tableValues);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.accula.api.detector.index;
+
+import java.util.Arrays;
+
+/**
+ * MinHash signatures of the token shingle sets of methods
+ * (Broder, "On the resemblance and containment of documents").
+ * <p>
+ * A shingle is a hash of {@code shingleLength} consecutive token types, so inserting, deleting or reordering
+ * a few statements changes only the shingles around the edit. The signature keeps the minimal shingle hash
+ * under each of {@code signatureLength} independent hash functions, and the fraction of equal signature positions
+ * of two methods is an unbiased estimate of the Jaccard similarity of their shingle sets.
+ */
+public final class MinHash {
+    private static final long[] NO_SHINGLES = new long[0];
+    private final int shingleLength;
+    private final long[] seeds;
+
+    private MinHash(final int shingleLength, final int signatureLength) {
+        this.shingleLength = Math.max(1, shingleLength);
+        this.seeds = new long[signatureLength];
+        for (int i = 0; i < signatureLength; ++i) {
+            seeds[i] = Hashing.mix(Hashing.BASE * (i + 1));
+        }
+    }
+
+    public static MinHash of(final int shingleLength, final int signatureLength) {
+        return new MinHash(shingleLength, signatureLength);
+    }
+
+    public int signatureLength() {
+        return seeds.length;
+    }
+
+    /**
+     * Sorted distinct shingle hashes of the method tokens, empty for methods shorter than a shingle
+     */
+    public long[] shingles(final TokenStore store, final int method) {
+        final var from = store.methodStart(method);
+        final var to = store.methodEnd(method);
+        if (to - from < shingleLength) {
+            return NO_SHINGLES;
+        }
+        long highestPower = 1L;
+        for (int i = 1; i < shingleLength; ++i) {
+            highestPower *= Hashing.BASE;
+        }
+        final var shingles = new long[to - from - shingleLength + 1];
+        long hash = 0L;
+        for (int i = from; i < to; ++i) {
+            if (i - from >= shingleLength) {
+                hash -= store.type(i - shingleLength) * highestPower;
+            }
+            hash = hash * Hashing.BASE + store.type(i);
+            if (i - from >= shingleLength - 1) {
+                shingles[i - from - shingleLength + 1] = Hashing.mix(hash);
+            }
+        }
+        Arrays.sort(shingles);
+        int count = 0;
+        for (int i = 0; i < shingles.length; ++i) {
+            if (i == 0 || shingles[i] != shingles[i - 1]) {
+                shingles[count++] = shingles[i];
+            }
+        }
+        return Arrays.copyOf(shingles, count);
+    }
+
+    /**
+     * Signature of the non-empty shingle set
+     */
+    public long[] signature(final long[] shingles) {
+        final var signature = new long[seeds.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (final var shingle : shingles) {
+            for (int i = 0; i < seeds.length; ++i) {
+                final var hash = Hashing.mix(shingle ^ seeds[i]);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Exact Jaccard similarity of two sorted distinct shingle sets
+     */
+    public static double jaccard(final long[] first, final long[] second) {
+        if (first.length == 0 || second.length == 0) {
+            return 0.0;
+        }
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] == second[j]) {
+                ++common;
+                ++i;
+                ++j;
+            } else if (first[i] < second[j]) {
+                ++i;
+            } else {
+                ++j;
+            }
+        }
+        return (double) common / (first.length + second.length - common);
+    }
+}
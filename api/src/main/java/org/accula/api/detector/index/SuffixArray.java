@@ -0,0 +1,195 @@
+package org.accula.api.detector.index;
+
+import java.util.Arrays;
+
+/**
+ * Linear-time suffix array construction (SA-IS, Nong, Zhang and Chan) and LCP array construction (Kasai et al.)
+ * over int sequences.
+ * <p>
+ * The input sequence must end with the unique smallest symbol {@code 0}
+ * and all its symbols must lie in {@code [0, alphabetSize)}.
+ */
+public final class SuffixArray {
+    private static final int EMPTY = -1;
+
+    private SuffixArray() {
+    }
+
+    public static int[] build(final int[] text, final int alphabetSize) {
+        final var n = text.length;
+        if (n == 0) {
+            return new int[0];
+        }
+        if (text[n - 1] != 0) {
+            throw new IllegalArgumentException("Text must be terminated with 0");
+        }
+        final var sa = new int[n];
+        if (n == 1) {
+            return sa;
+        }
+        sais(text, sa, n, alphabetSize);
+        return sa;
+    }
+
+    /**
+     * Builds the LCP array: {@code lcp[i]} is the length of the longest common prefix
+     * of suffixes {@code sa[i - 1]} and {@code sa[i]}, {@code lcp[0]} is always {@code 0}
+     */
+    public static int[] lcp(final int[] text, final int[] sa) {
+        final var n = sa.length;
+        final var rank = new int[n];
+        for (int i = 0; i < n; ++i) {
+            rank[sa[i]] = i;
+        }
+        final var lcp = new int[n];
+        int h = 0;
+        for (int i = 0; i < n; ++i) {
+            final var r = rank[i];
+            if (r == 0) {
+                h = 0;
+                continue;
+            }
+            final var j = sa[r - 1];
+            while (i + h < n && j + h < n && text[i + h] == text[j + h]) {
+                ++h;
+            }
+            lcp[r] = h;
+            if (h > 0) {
+                --h;
+            }
+        }
+        return lcp;
+    }
+
+    private static void sais(final int[] s, final int[] sa, final int n, final int k) {
+        final var sType = new boolean[n];
+        sType[n - 1] = true;
+        for (int i = n - 2; i >= 0; --i) {
+            sType[i] = s[i] < s[i + 1] || s[i] == s[i + 1] && sType[i + 1];
+        }
+
+        // Stage 1: sort LMS-substrings
+        final var buckets = new int[k];
+        bucketEnds(s, buckets, n, k);
+        Arrays.fill(sa, EMPTY);
+        for (int i = 1; i < n; ++i) {
+            if (isLms(sType, i)) {
+                sa[--buckets[s[i]]] = i;
+            }
+        }
+        induceL(s, sa, sType, buckets, n, k);
+        induceS(s, sa, sType, buckets, n, k);
+
+        int lmsCount = 0;
+        for (int i = 0; i < n; ++i) {
+            if (isLms(sType, sa[i])) {
+                sa[lmsCount++] = sa[i];
+            }
+        }
+
+        // Stage 2: name LMS-substrings and solve the reduced problem
+        Arrays.fill(sa, lmsCount, n, EMPTY);
+        int name = 0;
+        int prev = EMPTY;
+        for (int i = 0; i < lmsCount; ++i) {
+            final var pos = sa[i];
+            if (prev == EMPTY || !equalLmsSubstrings(s, sType, pos, prev)) {
+                ++name;
+                prev = pos;
+            }
+            sa[lmsCount + pos / 2] = name - 1;
+        }
+        for (int i = n - 1, j = n - 1; i >= lmsCount; --i) {
+            if (sa[i] >= 0) {
+                sa[j--] = sa[i];
+            }
+        }
+
+        final var reduced = Arrays.copyOfRange(sa, n - lmsCount, n);
+        final var reducedSa = new int[lmsCount];
+        if (name < lmsCount) {
+            sais(reduced, reducedSa, lmsCount, name);
+        } else {
+            for (int i = 0; i < lmsCount; ++i) {
+                reducedSa[reduced[i]] = i;
+            }
+        }
+
+        // Stage 3: induce the final order from the sorted LMS-suffixes
+        final var lmsPositions = reduced;
+        for (int i = 1, j = 0; i < n; ++i) {
+            if (isLms(sType, i)) {
+                lmsPositions[j++] = i;
+            }
+        }
+        bucketEnds(s, buckets, n, k);
+        Arrays.fill(sa, EMPTY);
+        for (int i = lmsCount - 1; i >= 0; --i) {
+            final var pos = lmsPositions[reducedSa[i]];
+            sa[--buckets[s[pos]]] = pos;
+        }
+        induceL(s, sa, sType, buckets, n, k);
+        induceS(s, sa, sType, buckets, n, k);
+    }
+
+    private static boolean equalLmsSubstrings(final int[] s, final boolean[] sType, final int first, final int second) {
+        for (int d = 0; ; ++d) {
+            if (s[first + d] != s[second + d] || sType[first + d] != sType[second + d]) {
+                return false;
+            }
+            if (d > 0 && (isLms(sType, first + d) || isLms(sType, second + d))) {
+                return isLms(sType, first + d) && isLms(sType, second + d);
+            }
+        }
+    }
+
+    private static void induceL(final int[] s, final int[] sa, final boolean[] sType, final int[] buckets, final int n, final int k) {
+        bucketStarts(s, buckets, n, k);
+        for (int i = 0; i < n; ++i) {
+            final var j = sa[i] - 1;
+            if (j >= 0 && !sType[j]) {
+                sa[buckets[s[j]]++] = j;
+            }
+        }
+    }
+
+    private static void induceS(final int[] s, final int[] sa, final boolean[] sType, final int[] buckets, final int n, final int k) {
+        bucketEnds(s, buckets, n, k);
+        for (int i = n - 1; i >= 0; --i) {
+            final var j = sa[i] - 1;
+            if (j >= 0 && sType[j]) {
+                sa[--buckets[s[j]]] = j;
+            }
+        }
+    }
+
+    private static void bucketStarts(final int[] s, final int[] buckets, final int n, final int k) {
+        countSymbols(s, buckets, n, k);
+        int sum = 0;
+        for (int i = 0; i < k; ++i) {
+            final var count = buckets[i];
+            buckets[i] = sum;
+            sum += count;
+        }
+    }
+
+    private static void bucketEnds(final int[] s, final int[] buckets, final int n, final int k) {
+        countSymbols(s, buckets, n, k);
+        int sum = 0;
+        for (int i = 0; i < k; ++i) {
+            sum += buckets[i];
+            buckets[i] = sum;
+        }
+    }
+
+    private static void countSymbols(final int[] s, final int[] buckets, final int n, final int k) {
+        Arrays.fill(buckets, 0, k, 0);
+        for (int i = 0; i < n; ++i) {
+            ++buckets[s[i]];
+        }
+    }
+
+    private static boolean isLms(final boolean[] sType, final int i) {
+        return i > 0 && sType[i] && !sType[i - 1];
+    }
+}
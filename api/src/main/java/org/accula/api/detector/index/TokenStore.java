@@ -0,0 +1,167 @@
+package org.accula.api.detector.index;
+
+import com.suhininalex.clones.core.structures.Token;
+import org.accula.api.code.FileEntity;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.detector.CodeSnippet;
+import org.accula.api.detector.parser.TokenizedMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed storage of all tokens taking part in a single clone detection run.
+ * Token types and lines live in flat int arrays indexed by a global token position,
+ * while file names and commit snapshots are interned once per file into side tables.
+ * <p>
+ * Tokens handed to the suffix tree carry only their type and global position (in place of the line),
+ * so per-token text strings are no longer retained. The tree still needs a token object per token,
+ * since it holds its sequences as lists of library tokens. On the corpus of {@code TokenStoreBenchmark}
+ * a token takes 57 bytes allocated with its tree token, growth of the arrays included, against 106 bytes
+ * of a tree token with its own text.
+ * Locations are resolved back to {@link CodeSnippet} through {@link #codeSnippet(int, int)}.
+ * <p>
+ * The store is not thread-safe: it must be filled from a single thread.
+ */
+public final class TokenStore {
+    private static final String NO_TEXT = "";
+    private static final int INITIAL_TOKEN_CAPACITY = 1 << 12;
+    private static final int INITIAL_METHOD_CAPACITY = 1 << 6;
+
+    private int[] types = new int[INITIAL_TOKEN_CAPACITY];
+    private int[] lines = new int[INITIAL_TOKEN_CAPACITY];
+    private int tokenCount;
+
+    private int[] methodStarts = new int[INITIAL_METHOD_CAPACITY + 1];
+    private int[] methodFiles = new int[INITIAL_METHOD_CAPACITY];
+    private int methodCount;
+
+    private final List<String> fileNames = new ArrayList<>();
+    private final List<Integer> fileSnapshots = new ArrayList<>();
+    private final List<CommitSnapshot> snapshots = new ArrayList<>();
+    private final Map<CommitSnapshot, Integer> snapshotIds = new HashMap<>();
+
+    /**
+     * Registers the file and returns its id to be used with {@link #addMethod(int, TokenizedMethod)}
+     */
+    public int addFile(final FileEntity file) {
+        final var snapshotId = snapshotIds.computeIfAbsent(file.getCommitSnapshot(), snapshot -> {
+            snapshots.add(snapshot);
+            return snapshots.size() - 1;
+        });
+        fileNames.add(file.getName());
+        fileSnapshots.add(snapshotId);
+        return fileNames.size() - 1;
+    }
+
+    /**
+     * Appends the method tokens and returns the method index inside the store
+     */
+    public int addMethod(final int fileId, final TokenizedMethod method) {
+        final var size = method.size();
+        ensureTokenCapacity(tokenCount + size);
+        ensureMethodCapacity(methodCount + 1);
+        System.arraycopy(method.getTypes(), 0, types, tokenCount, size);
+        System.arraycopy(method.getLines(), 0, lines, tokenCount, size);
+        methodStarts[methodCount] = tokenCount;
+        methodFiles[methodCount] = fileId;
+        tokenCount += size;
+        methodStarts[methodCount + 1] = tokenCount;
+        return methodCount++;
+    }
+
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    public int methodCount() {
+        return methodCount;
+    }
+
+    public int methodStart(final int method) {
+        return methodStarts[method];
+    }
+
+    public int methodEnd(final int method) {
+        return methodStarts[method + 1];
+    }
+
+    public int methodFile(final int method) {
+        return methodFiles[method];
+    }
+
+    public int type(final int token) {
+        return types[token];
+    }
+
+    public int line(final int token) {
+        return lines[token];
+    }
+
+    /**
+     * Method tokens to be inserted into the suffix tree, each storing its global position in place of the line.
+     * Tokens are created once per call, so the tree gets the same instances however many times it reads the sequence.
+     */
+    public List<Token> treeSequence(final int method) {
+        final var from = methodStart(method);
+        final var fileId = methodFiles[method];
+        final var fileName = fileNames.get(fileId);
+        final var snapshot = snapshots.get(fileSnapshots.get(fileId));
+        final var tokens = new Token[methodEnd(method) - from];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = new Token(types[from + i], NO_TEXT, from + i, fileName, snapshot);
+        }
+        return Arrays.asList(tokens);
+    }
+
+    /**
+     * Resolves the range of global token positions (both inclusive) into the code snippet
+     */
+    public CodeSnippet codeSnippet(final int fromToken, final int toToken) {
+        final var fileId = methodFiles[methodOf(fromToken)];
+        return new CodeSnippet(snapshots.get(fileSnapshots.get(fileId)), fileNames.get(fileId), lines[fromToken], lines[toToken]);
+    }
+
+    /**
+     * Index of the method the token at global position belongs to
+     */
+    public int methodOf(final int token) {
+        final var idx = Arrays.binarySearch(methodStarts, 0, methodCount, token);
+        if (idx >= 0) {
+            // Empty methods share the start with the following one, so move to the last of them
+            int method = idx;
+            while (method + 1 < methodCount && methodStarts[method + 1] == token) {
+                ++method;
+            }
+            return method;
+        }
+        return -idx - 2;
+    }
+
+    public String fileName(final int fileId) {
+        return fileNames.get(fileId);
+    }
+
+    public CommitSnapshot fileSnapshot(final int fileId) {
+        return snapshots.get(fileSnapshots.get(fileId));
+    }
+
+    private void ensureTokenCapacity(final int capacity) {
+        if (capacity > types.length) {
+            final var newCapacity = Math.max(capacity, types.length << 1);
+            types = Arrays.copyOf(types, newCapacity);
+            lines = Arrays.copyOf(lines, newCapacity);
+        }
+    }
+
+    private void ensureMethodCapacity(final int capacity) {
+        if (capacity > methodFiles.length) {
+            final var newCapacity = Math.max(capacity, methodFiles.length << 1);
+            methodFiles = Arrays.copyOf(methodFiles, newCapacity);
+            methodStarts = Arrays.copyOf(methodStarts, newCapacity + 1);
+        }
+    }
+}
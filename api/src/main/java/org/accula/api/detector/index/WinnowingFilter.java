@@ -0,0 +1,145 @@
+package org.accula.api.detector.index;
+
+import lombok.Value;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprint prefilter based on winnowing of token k-gram hashes
+ * (Schleimer, Wilkerson and Aiken, "Winnowing: Local Algorithms for Document Fingerprinting").
+ * <p>
+ * For the guarantee threshold {@code t = minCloneLength} k-grams of {@code ceil(t / 2)} tokens are hashed
+ * and the minimal hash of every window of {@code t - k + 1} consecutive k-grams is selected.
+ * Any two methods sharing a run of at least {@code t} tokens then share at least one fingerprint,
+ * so methods without fingerprint hits on the other side can be skipped without losing clones.
+ */
+public final class WinnowingFilter {
+    private static final long[] NO_FINGERPRINTS = new long[0];
+    private final int minCloneLength;
+    private final int k;
+    private final int window;
+
+    private WinnowingFilter(final int minCloneLength) {
+        this.minCloneLength = Math.max(1, minCloneLength);
+        this.k = (this.minCloneLength + 1) / 2;
+        this.window = this.minCloneLength - k + 1;
+    }
+
+    public static WinnowingFilter forMinCloneLength(final int minCloneLength) {
+        return new WinnowingFilter(minCloneLength);
+    }
+
+    /**
+     * Selects source methods {@code [sourceFrom, sourceTo)} and target methods {@code [targetFrom, targetTo)} of the store
+     * that share at least one fingerprint with a method of the other side
+     */
+    public Selection select(final TokenStore store,
+                            final int sourceFrom,
+                            final int sourceTo,
+                            final int targetFrom,
+                            final int targetTo) {
+        final var sourceFingerprints = fingerprints(store, sourceFrom, sourceTo);
+        final var targetFingerprints = fingerprints(store, targetFrom, targetTo);
+        final var sourceSet = toSet(sourceFingerprints);
+        final var targetSet = toSet(targetFingerprints);
+        final var sourceMethods = matching(sourceFingerprints, sourceFrom, targetSet);
+        final var targetMethods = matching(targetFingerprints, targetFrom, sourceSet);
+        return new Selection(sourceMethods, targetMethods, (sourceTo - sourceFrom) + (targetTo - targetFrom));
+    }
+
+    /**
+     * Winnowed fingerprints of the method tokens
+     */
+    public long[] fingerprints(final TokenStore store, final int method) {
+        final var from = store.methodStart(method);
+        final var to = store.methodEnd(method);
+        if (to - from < minCloneLength) {
+            return NO_FINGERPRINTS;
+        }
+
+        final var grams = kGramHashes(store, from, to);
+        final var fingerprints = new long[grams.length - window + 1];
+        int count = 0;
+        int selected = -1;
+        for (int windowStart = 0; windowStart + window <= grams.length; ++windowStart) {
+            int min = windowStart;
+            for (int i = windowStart + 1; i < windowStart + window; ++i) {
+                // Rightmost minimum, so that the same k-gram stays selected while it is in the window
+                if (grams[i] <= grams[min]) {
+                    min = i;
+                }
+            }
+            if (min != selected) {
+                selected = min;
+                fingerprints[count++] = grams[min];
+            }
+        }
+        return Arrays.copyOf(fingerprints, count);
+    }
+
+    private long[] kGramHashes(final TokenStore store, final int from, final int to) {
+        long highestPower = 1L;
+        for (int i = 1; i < k; ++i) {
+            highestPower *= Hashing.BASE;
+        }
+        final var grams = new long[to - from - k + 1];
+        long hash = 0L;
+        for (int i = from; i < to; ++i) {
+            if (i - from >= k) {
+                hash -= store.type(i - k) * highestPower;
+            }
+            hash = hash * Hashing.BASE + store.type(i);
+            if (i - from >= k - 1) {
+                grams[i - from - k + 1] = Hashing.mix(hash);
+            }
+        }
+        return grams;
+    }
+
+    private long[][] fingerprints(final TokenStore store, final int from, final int to) {
+        final var fingerprints = new long[to - from][];
+        for (int method = from; method < to; ++method) {
+            fingerprints[method - from] = fingerprints(store, method);
+        }
+        return fingerprints;
+    }
+
+    private static LongHashSet toSet(final long[][] fingerprints) {
+        final var set = new LongHashSet(Arrays.stream(fingerprints).mapToInt(f -> f.length).sum());
+        for (final var methodFingerprints : fingerprints) {
+            for (final var fingerprint : methodFingerprints) {
+                set.add(fingerprint);
+            }
+        }
+        return set;
+    }
+
+    private static int[] matching(final long[][] fingerprints, final int firstMethod, final LongHashSet other) {
+        final var methods = new int[fingerprints.length];
+        int count = 0;
+        for (int i = 0; i < fingerprints.length; ++i) {
+            for (final var fingerprint : fingerprints[i]) {
+                if (other.contains(fingerprint)) {
+                    methods[count++] = firstMethod + i;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(methods, count);
+    }
+
+    @Value
+    public static class Selection {
+        int[] sourceMethods;
+        int[] targetMethods;
+        int totalMethodCount;
+
+        public int getPrunedMethodCount() {
+            return totalMethodCount - sourceMethods.length - targetMethods.length;
+        }
+
+        public double getPrunedFraction() {
+            return totalMethodCount == 0 ? 0.0 : (double) getPrunedMethodCount() / totalMethodCount;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@NonNullApi
+package org.accula.api.detector.index;
+
+import org.springframework.lang.NonNullApi;
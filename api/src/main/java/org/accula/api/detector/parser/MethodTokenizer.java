@@ -0,0 +1,24 @@
+package org.accula.api.detector.parser;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.detector.segment.MethodSegmentStore;
+
+import java.util.stream.Stream;
+
+/**
+ * Source of the tokenized methods of a file used by the detectors
+ */
+@FunctionalInterface
+public interface MethodTokenizer {
+    /// Parses every file anew
+    MethodTokenizer PARSER = Parser::tokenizedFunctions;
+
+    Stream<TokenizedMethod> tokenizedFunctions(FileEntity file);
+
+    /**
+     * Reads the methods of the blobs parsed before from the store, and stores the methods of every blob it parses
+     */
+    static MethodTokenizer storedIn(final MethodSegmentStore store) {
+        return file -> Parser.tokenizedFunctions(file, store);
+    }
+}
@@ -2,24 +2,71 @@ package org.accula.api.detector.parser;
 
 import generated.Java9Lexer;
 import generated.Java9Parser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
 import org.accula.api.code.FileEntity;
-import org.antlr.v4.runtime.CharStreams;
+import org.accula.api.detector.segment.MethodSegmentStore;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.suhininalex.clones.core.structures.Token;
-
+@Slf4j
 public final class Parser {
+    /// Lexing, parsing and walking of a single file, method tokens are packed lazily by the consumer of the stream
+    private static final Timer PARSE_TIMER = Metrics.timer("accula.detection.parse");
+    private static final Counter STORED_BLOBS_HIT = Metrics.counter("accula.detection.methodSegments", "result", "hit");
+    private static final Counter STORED_BLOBS_MISS = Metrics.counter("accula.detection.methodSegments", "result", "miss");
+    /// Version of the grammar, the token filter and the anonymization, methods stored by another version are never read.
+    /// Must be bumped whenever any of them changes the tokens of a method.
+    public static final int VERSION = 1;
+
     private Parser() {
     }
 
-    public static Stream<List<Token>> tokenizedFunctions(final FileEntity file) {
-        final var lexer = new Java9Lexer(CharStreams.fromString(file.getContent()));
+    public static Stream<TokenizedMethod> tokenizedFunctions(final FileEntity file) {
+        return parsedFunctions(file);
+    }
+
+    /**
+     * Reads the methods of the blob from the store if it has been parsed before,
+     * possibly by an earlier run of the application, otherwise parses the blob and stores its methods
+     */
+    public static Stream<TokenizedMethod> tokenizedFunctions(final FileEntity file, final MethodSegmentStore methodStore) {
+        final var blobId = Objects.requireNonNull(file.getUtf8Content()).blobId();
+        try {
+            final var stored = methodStore.get(blobId);
+            if (stored != null) {
+                STORED_BLOBS_HIT.increment();
+                return stored.stream();
+            }
+            STORED_BLOBS_MISS.increment();
+            final var methods = parsedFunctions(file).collect(Collectors.toList());
+            methodStore.put(blobId, methods);
+            return methods.stream();
+        } catch (UncheckedIOException e) {
+            log.warn("Method segment store failed for {}, parsing it", file, e);
+            return parsedFunctions(file);
+        }
+    }
+
+    private static Stream<TokenizedMethod> parsedFunctions(final FileEntity file) {
+        final var listener = PARSE_TIMER.record(() -> parse(file));
+        return listener
+                .functions()
+                .map(func -> pack(func, listener.getTypeArgs()));
+    }
+
+    private static JavaListener parse(final FileEntity file) {
+        final var lexer = new Java9Lexer(new Utf8CharStream(Objects.requireNonNull(file.getUtf8Content()), file.toString()));
         final var tokens = new CommonTokenStream(lexer);
         final var parser = new Java9Parser(tokens);
         final var parseTree = parser.compilationUnit();
@@ -27,32 +74,38 @@ public final class Parser {
         final var walker = new ParseTreeWalker();
         final var listener = new JavaListener(tokens);
         walker.walk(listener, parseTree);
+        return listener;
+    }
 
-        return listener
-                .functions()
-                .map(func -> func
-                        .stream()
-                        .filter(token -> isAllowedToken(token, listener.getTypeArgs()))
-                        .map(token -> anonymize(token, file))
-                        .collect(Collectors.toUnmodifiableList()));
+    private static TokenizedMethod pack(final List<Token> func, final Set<Token> typeArgs) {
+        final var types = new int[func.size()];
+        final var lines = new int[func.size()];
+        int size = 0;
+        for (final var token : func) {
+            if (!isAllowedToken(token, typeArgs)) {
+                continue;
+            }
+            types[size] = anonymize(token);
+            lines[size] = token.getLine();
+            ++size;
+        }
+        if (size == types.length) {
+            return new TokenizedMethod(types, lines);
+        }
+        final var packedTypes = new int[size];
+        final var packedLines = new int[size];
+        System.arraycopy(types, 0, packedTypes, 0, size);
+        System.arraycopy(lines, 0, packedLines, 0, size);
+        return new TokenizedMethod(packedTypes, packedLines);
     }
 
-    private static boolean isAllowedToken(final org.antlr.v4.runtime.Token token,
-                                          final Set<org.antlr.v4.runtime.Token> typeArgs) {
+    private static boolean isAllowedToken(final Token token, final Set<Token> typeArgs) {
         return !TokenFilter.EXCLUDE_TOKENS.contains(token.getType())
                 && !typeArgs.contains(token);
     }
 
-    private static Token anonymize(final org.antlr.v4.runtime.Token antlrToken, final FileEntity file) {
-        final var type = TokenFilter.PRIMITIVE_TYPES.contains(antlrToken.getType()) ?
+    private static int anonymize(final Token antlrToken) {
+        return TokenFilter.PRIMITIVE_TYPES.contains(antlrToken.getType()) ?
                 Java9Lexer.Identifier : antlrToken.getType();
-
-        return new Token(
-                type,
-                antlrToken.getText(),
-                antlrToken.getLine(),
-                file.getName(),
-                file.getCommitSnapshot()
-        );
     }
 }
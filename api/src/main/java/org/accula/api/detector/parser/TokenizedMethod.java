@@ -0,0 +1,21 @@
+package org.accula.api.detector.parser;
+
+import lombok.Value;
+
+/**
+ * Anonymized token sequence of a single method body packed into two parallel int arrays:
+ * token types and the source lines they start on.
+ */
+@Value
+public class TokenizedMethod {
+    int[] types;
+    int[] lines;
+
+    public int size() {
+        return types.length;
+    }
+
+    public boolean isEmpty() {
+        return types.length == 0;
+    }
+}
@@ -0,0 +1,172 @@
+package org.accula.api.detector.parser;
+
+import org.accula.api.code.FileContent;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Code points of a {@link FileContent} read in place, unlike {@link org.antlr.v4.runtime.CharStreams#fromString(String)}
+ * that copies the whole file into a code point buffer.
+ * <p>
+ * Indices are code point indices as in the other ANTLR streams. For ASCII content they are byte offsets,
+ * otherwise the byte offset of every {@value #CHECKPOINT_INTERVAL}th code point is remembered, so that a lexer
+ * stepping back to the start of a token decodes at most that many code points to find it.
+ */
+final class Utf8CharStream implements CharStream {
+    private static final int CHECKPOINT_SHIFT = 6;
+    private static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT;
+    private final FileContent content;
+    private final String sourceName;
+    private final int size;
+    /// Byte offsets of code points 0, 64, 128, ..., null for ASCII content
+    private final int[] checkpoints;
+    /// Code point index of the next code point to consume and its byte offset
+    private int index;
+    private int offset;
+
+    Utf8CharStream(final FileContent content, final String sourceName) {
+        this.content = content;
+        this.sourceName = sourceName;
+        if (content.isAscii()) {
+            this.size = content.size();
+            this.checkpoints = null;
+            return;
+        }
+        int codePoints = 0;
+        final var checkpoints = new int[content.size() / CHECKPOINT_INTERVAL + 1];
+        for (int i = 0; i < content.size(); i += width(content.byteAt(i))) {
+            if ((codePoints & (CHECKPOINT_INTERVAL - 1)) == 0) {
+                checkpoints[codePoints >>> CHECKPOINT_SHIFT] = i;
+            }
+            ++codePoints;
+        }
+        this.size = codePoints;
+        this.checkpoints = checkpoints;
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        offset += width(content.byteAt(offset));
+        ++index;
+    }
+
+    @Override
+    @SuppressWarnings("PMD.MethodNamingConventions")
+    public int LA(final int i) {
+        if (i == 0) {
+            return 0;
+        }
+        if (i == 1) {
+            return index < size ? codePointAt(offset) : IntStream.EOF;
+        }
+        final int target = i > 0 ? index + i - 1 : index + i;
+        if (target < 0 || target >= size) {
+            return IntStream.EOF;
+        }
+        return codePointAt(offsetOf(target));
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(final int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(final int index) {
+        final int target = Math.min(Math.max(index, 0), size);
+        offset = offsetOf(target);
+        this.index = target;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(final Interval interval) {
+        final int start = Math.max(interval.a, 0);
+        final int stop = Math.min(interval.b, size - 1);
+        if (start > stop) {
+            return "";
+        }
+        final int from = offsetOf(start);
+        final int to = offsetOf(stop) + width(content.byteAt(offsetOf(stop)));
+        return content.text(from, to);
+    }
+
+    @Override
+    public String toString() {
+        return content.text();
+    }
+
+    private int offsetOf(final int codePoint) {
+        if (checkpoints == null) {
+            return codePoint;
+        }
+        if (codePoint == size) {
+            return content.size();
+        }
+        int current;
+        int currentOffset;
+        if (codePoint >= index && codePoint - index < CHECKPOINT_INTERVAL) {
+            current = index;
+            currentOffset = offset;
+        } else {
+            current = codePoint & ~(CHECKPOINT_INTERVAL - 1);
+            currentOffset = checkpoints[codePoint >>> CHECKPOINT_SHIFT];
+        }
+        for (; current < codePoint; ++current) {
+            currentOffset += width(content.byteAt(currentOffset));
+        }
+        return currentOffset;
+    }
+
+    private int codePointAt(final int offset) {
+        final int lead = content.byteAt(offset) & 0xFF;
+        if (lead < 0x80) {
+            return lead;
+        }
+        final int width = width((byte) lead);
+        int codePoint = lead & (0xFF >>> (width + 1));
+        for (int i = 1; i < width; ++i) {
+            codePoint = (codePoint << 6) | (content.byteAt(offset + i) & 0x3F);
+        }
+        return codePoint;
+    }
+
+    /**
+     * Number of bytes of the code point starting with the byte.
+     * The content is encoded from a string, so it is well-formed UTF-8
+     */
+    private static int width(final byte lead) {
+        if (lead >= 0) {
+            return 1;
+        }
+        if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        }
+        if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,221 @@
+package org.accula.api.detector.segment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Methods and their anonymized token streams of every parsed blob, kept on disk across detections and restarts.
+ * <p>
+ * Blobs never change, so their records are only ever appended, to the newest of numbered segment files,
+ * and looked up through an in-memory index by blob id that is rebuilt by scanning the segments on open.
+ * Once the store outgrows its size limit, the oldest segments are compacted away: records read or written
+ * since the store was opened are appended anew and the rest of a segment is dropped with its file.
+ * <p>
+ * The store is thread-safe. Lookups do not block, appends and compaction are serialized.
+ */
+@Slf4j
+public final class MethodSegmentStore implements AutoCloseable {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.seg");
+    private final Path directory;
+    private final long maxSize;
+    private final long segmentSize;
+    /// Oldest first, the last one is appended to
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    private MethodSegmentStore(final Path directory, final long maxSize, final long segmentSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the store in the directory, creating it if needed, and indexes the records of its segments.
+     * Unreadable segment files are removed.
+     *
+     * @param maxSize     size of all segments above which the oldest one is compacted
+     * @param segmentSize size of a segment after which records are appended to a new one
+     */
+    public static MethodSegmentStore open(final Path directory, final long maxSize, final long segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        final var store = new MethodSegmentStore(directory, maxSize, segmentSize);
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files
+                    .filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted((a, b) -> Long.compare(number(a), number(b)))
+                    .collect(Collectors.toList());
+        }
+        for (final var path : paths) {
+            final var offsets = new ArrayList<Map.Entry<String, Integer>>();
+            final var segment = Segment.open(path, number(path), (blobId, offset) -> offsets.add(Map.entry(blobId, offset)));
+            if (segment == null) {
+                log.warn("Removing {} that is not a method segment of a supported version", path);
+                Files.delete(path);
+                continue;
+            }
+            // A blob is found in two segments if a compaction has been interrupted, the newer record wins
+            offsets.forEach(record -> store.index.put(record.getKey(), new Location(segment, record.getValue())));
+            store.segments.add(segment);
+        }
+        if (store.segments.isEmpty()) {
+            store.segments.add(Segment.create(store.segmentPath(1L), 1L));
+        }
+        log.info("Opened method segment store in {}: {} blobs in {} segments, {} bytes",
+                directory, store.index.size(), store.segments.size(), store.size());
+        return store;
+    }
+
+    /**
+     * Methods of the blob, or {@code null} if the blob has not been stored
+     */
+    @Nullable
+    public List<TokenizedMethod> get(final String blobId) {
+        final var location = index.get(blobId);
+        if (location == null) {
+            return null;
+        }
+        location.used = true;
+        return location.segment.read(location.offset);
+    }
+
+    /**
+     * Stores the methods of the blob unless they are already stored
+     */
+    public synchronized void put(final String blobId, final List<TokenizedMethod> methods) {
+        checkBlobId(blobId);
+        if (index.containsKey(blobId)) {
+            return;
+        }
+        try {
+            final var location = append(blobId, methods);
+            location.used = true;
+            index.put(blobId, location);
+            if (size() > maxSize) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the records of all segments oldest first, each segment sequentially from its mapping.
+     * Records appended during the scan may be missed.
+     */
+    public void scan(final BiConsumer<String, List<TokenizedMethod>> consumer) {
+        final var records = new ArrayList<Map.Entry<String, Location>>(index.entrySet());
+        records.sort((a, b) -> {
+            final var bySegment = Long.compare(a.getValue().segment.number(), b.getValue().segment.number());
+            return bySegment != 0 ? bySegment : Integer.compare(a.getValue().offset, b.getValue().offset);
+        });
+        records.forEach(record -> consumer.accept(record.getKey(), record.getValue().segment.read(record.getValue().offset)));
+    }
+
+    /**
+     * Compacts the oldest segments until the store fits its size limit or only the segment being appended to is left.
+     * Records in use are moved to the newest segment and have to be used again to survive the next compaction,
+     * so the store does not rewrite the same records over and over when the blobs in use alone outgrow the limit.
+     */
+    public synchronized void compact() throws IOException {
+        final var sealed = List.copyOf(segments.subList(0, segments.size() - 1));
+        for (final var oldest : sealed) {
+            if (size() <= maxSize) {
+                return;
+            }
+            int kept = 0;
+            int dropped = 0;
+            for (final var entry : index.entrySet()) {
+                final var location = entry.getValue();
+                if (location.segment != oldest) {
+                    continue;
+                }
+                if (location.used) {
+                    entry.setValue(append(entry.getKey(), oldest.read(location.offset)));
+                    ++kept;
+                } else {
+                    index.remove(entry.getKey(), location);
+                    ++dropped;
+                }
+            }
+            segments.remove(oldest);
+            oldest.delete();
+            log.info("Compacted method segment {}: kept {} blobs in use, dropped {}", oldest.path(), kept, dropped);
+        }
+    }
+
+    public int blobCount() {
+        return index.size();
+    }
+
+    public long size() {
+        long size = 0L;
+        for (final var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (final var segment : segments) {
+            segment.close();
+        }
+    }
+
+    private Location append(final String blobId, final List<TokenizedMethod> methods) throws IOException {
+        var active = segments.get(segments.size() - 1);
+        if (active.size() >= segmentSize) {
+            active.seal();
+            final var number = active.number() + 1;
+            active = Segment.create(segmentPath(number), number);
+            segments.add(active);
+        }
+        return new Location(active, active.append(blobId, methods));
+    }
+
+    private Path segmentPath(final long number) {
+        return directory.resolve(String.format("segment-%06d.seg", number));
+    }
+
+    private static long number(final Path segment) {
+        final var matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(segment.toString());
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static void checkBlobId(final String blobId) {
+        if (blobId.length() != Segment.BLOB_ID_LENGTH || !blobId.chars().allMatch(c -> c < 0x80)) {
+            throw new IllegalArgumentException("Blob id must be " + Segment.BLOB_ID_LENGTH + " ASCII characters long: " + blobId);
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        /// Whether the blob has been read or written since the store was opened or the record was moved by compaction
+        volatile boolean used;
+
+        Location(final Segment segment, final int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+}
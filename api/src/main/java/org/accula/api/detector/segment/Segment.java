@@ -0,0 +1,262 @@
+package org.accula.api.detector.segment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.detector.parser.Parser;
+import org.accula.api.detector.parser.TokenizedMethod;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Append-only file of method token records, read through a read-only mapping of the file.
+ * <p>
+ * File layout, all integers are little-endian:
+ * <pre>
+ * header:  magic:int version:int parserVersion:int
+ * record:  magic:int payloadLength:int crc32c(payload):int payload
+ * payload: blobId:byte[40] methodCount:int methodSizes:int[methodCount] types:int[tokens] lines:int[tokens]
+ * </pre>
+ * Every part is a multiple of 4 bytes long, so the token arrays are copied out of the mapping aligned.
+ * A segment written by another version of the {@link Parser} is not read, since its tokens may differ.
+ * A record torn by a crash fails its magic, length or checksum check and ends the readable part of the file.
+ */
+@Slf4j
+final class Segment implements AutoCloseable {
+    static final int BLOB_ID_LENGTH = 40;
+    private static final int FILE_MAGIC = 0x41434353;
+    private static final int RECORD_MAGIC = 0x4d455448;
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_LENGTH = 3 * Integer.BYTES;
+    private static final int RECORD_HEADER_LENGTH = 3 * Integer.BYTES;
+
+    private final Path path;
+    private final long number;
+    private final FileChannel channel;
+    /// Bytes of valid records and the header, records are appended at this position
+    private volatile long size;
+    private volatile MappedByteBuffer mapping;
+
+    private Segment(final Path path, final long number, final FileChannel channel, final long size) throws IOException {
+        this.path = path;
+        this.number = number;
+        this.channel = channel;
+        this.size = size;
+        this.mapping = map(channel, size);
+    }
+
+    static Segment create(final Path path, final long number) throws IOException {
+        final var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final var header = ByteBuffer.allocate(FILE_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FILE_MAGIC).putInt(VERSION).putInt(Parser.VERSION).flip();
+        writeFully(channel, header, 0L);
+        return new Segment(path, number, channel, FILE_HEADER_LENGTH);
+    }
+
+    /**
+     * Opens the segment and calls the consumer with the blob id and the offset of every valid record.
+     * The file is truncated after the last valid record, so that new records are appended right after it.
+     *
+     * @return {@code null} if the file is not a segment of a supported version
+     */
+    static Segment open(final Path path, final long number, final ObjIntConsumer<String> records) throws IOException {
+        final var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final var fileSize = channel.size();
+        final var mapping = map(channel, fileSize);
+        if (fileSize < FILE_HEADER_LENGTH
+            || mapping.getInt(0) != FILE_MAGIC
+            || mapping.getInt(Integer.BYTES) != VERSION
+            || mapping.getInt(2 * Integer.BYTES) != Parser.VERSION) {
+            channel.close();
+            return null;
+        }
+        final var crc = new CRC32C();
+        int offset = FILE_HEADER_LENGTH;
+        while (true) {
+            final var payloadLength = validPayloadLength(mapping, offset, crc);
+            if (payloadLength < 0) {
+                break;
+            }
+            records.accept(blobId(mapping, offset), offset);
+            offset += RECORD_HEADER_LENGTH + payloadLength;
+        }
+        if (offset < fileSize) {
+            log.warn("Truncating {} at {} of {} bytes after an incomplete or corrupted record", path, offset, fileSize);
+            channel.truncate(offset);
+        }
+        return new Segment(path, number, channel, offset);
+    }
+
+    /**
+     * Appends the record of the blob methods
+     *
+     * @return offset of the record
+     */
+    int append(final String blobId, final List<TokenizedMethod> methods) throws IOException {
+        final var record = encode(blobId, methods);
+        final var offset = size;
+        if (offset + record.remaining() > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + path + " is full");
+        }
+        writeFully(channel, record, offset);
+        size = offset + record.limit();
+        return (int) offset;
+    }
+
+    /**
+     * Methods of the record at the offset, the token arrays are copied out of the mapping in bulk
+     */
+    List<TokenizedMethod> read(final int offset) {
+        final var mapping = mappingCovering(offset + RECORD_HEADER_LENGTH);
+        final var payloadLength = mapping.getInt(offset + Integer.BYTES);
+        final var payload = mappingCovering(offset + RECORD_HEADER_LENGTH + payloadLength)
+                .duplicate()
+                .position(offset + RECORD_HEADER_LENGTH + BLOB_ID_LENGTH)
+                .limit(offset + RECORD_HEADER_LENGTH + payloadLength)
+                .slice()
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+        final var methodCount = payload.get();
+        final var sizes = new int[methodCount];
+        payload.get(sizes);
+        final var methods = new ArrayList<TokenizedMethod>(methodCount);
+        int typesPosition = payload.position();
+        int linesPosition = payload.limit() - (payload.limit() - typesPosition) / 2;
+        for (final var methodSize : sizes) {
+            final var types = new int[methodSize];
+            final var lines = new int[methodSize];
+            payload.get(typesPosition, types);
+            payload.get(linesPosition, lines);
+            typesPosition += methodSize;
+            linesPosition += methodSize;
+            methods.add(new TokenizedMethod(types, lines));
+        }
+        return methods;
+    }
+
+    /**
+     * Maps all the records, no more records are going to be appended. Reads of a sealed segment never remap it,
+     * so they keep working after the segment is compacted away
+     */
+    void seal() throws IOException {
+        mapping = map(channel, size);
+    }
+
+    long size() {
+        return size;
+    }
+
+    long number() {
+        return number;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the file. Reads of its records already in progress finish on the mapping,
+     * which outlives the file
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    private MappedByteBuffer mappingCovering(final long end) {
+        var current = mapping;
+        if (current.capacity() >= end) {
+            return current;
+        }
+        synchronized (this) {
+            current = mapping;
+            if (current.capacity() < end) {
+                try {
+                    current = map(channel, size);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                mapping = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return length of the payload of the record at the offset, or -1 if there is no valid record
+     */
+    private static int validPayloadLength(final ByteBuffer mapping, final int offset, final CRC32C crc) {
+        if (mapping.capacity() - offset < RECORD_HEADER_LENGTH + BLOB_ID_LENGTH + Integer.BYTES
+            || mapping.getInt(offset) != RECORD_MAGIC) {
+            return -1;
+        }
+        final var payloadLength = mapping.getInt(offset + Integer.BYTES);
+        if (payloadLength < BLOB_ID_LENGTH + Integer.BYTES
+            || payloadLength % Integer.BYTES != 0
+            || payloadLength > mapping.capacity() - offset - RECORD_HEADER_LENGTH) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(mapping.duplicate().position(offset + RECORD_HEADER_LENGTH).limit(offset + RECORD_HEADER_LENGTH + payloadLength));
+        return (int) crc.getValue() == mapping.getInt(offset + 2 * Integer.BYTES) ? payloadLength : -1;
+    }
+
+    private static String blobId(final ByteBuffer mapping, final int offset) {
+        final var blobId = new byte[BLOB_ID_LENGTH];
+        mapping.get(offset + RECORD_HEADER_LENGTH, blobId);
+        return new String(blobId, US_ASCII);
+    }
+
+    private static ByteBuffer encode(final String blobId, final List<TokenizedMethod> methods) {
+        int tokens = 0;
+        for (final var method : methods) {
+            tokens += method.size();
+        }
+        final var payloadLength = BLOB_ID_LENGTH + Integer.BYTES * (1 + methods.size() + 2 * tokens);
+        final var record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        record.position(RECORD_HEADER_LENGTH);
+        record.put(blobId.getBytes(US_ASCII));
+        final var ints = record.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        ints.put(methods.size());
+        methods.forEach(method -> ints.put(method.size()));
+        methods.forEach(method -> ints.put(method.getTypes()));
+        methods.forEach(method -> ints.put(method.getLines()));
+
+        final var crc = new CRC32C();
+        crc.update(record.duplicate().position(RECORD_HEADER_LENGTH).limit(record.capacity()));
+        record.putInt(0, RECORD_MAGIC)
+                .putInt(Integer.BYTES, payloadLength)
+                .putInt(2 * Integer.BYTES, (int) crc.getValue());
+        return record.clear();
+    }
+
+    private static MappedByteBuffer map(final FileChannel channel, final long size) throws IOException {
+        final var mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        return mapping;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+    }
+}
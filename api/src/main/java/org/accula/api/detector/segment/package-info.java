@@ -0,0 +1,4 @@
+@NonNullApi
+package org.accula.api.detector.segment;
+
+import org.springframework.lang.NonNullApi;
@@ -5,9 +5,10 @@ import com.suhininalex.clones.core.structures.TreeCloneClass;
 import com.suhininalex.suffixtree.Edge;
 import com.suhininalex.suffixtree.EndToken;
 import lombok.extern.slf4j.Slf4j;
-import org.accula.api.db.model.CommitSnapshot;
 import org.accula.api.detector.CodeSnippet;
+import org.accula.api.detector.index.DuplicateMethods;
 
+import java.util.List;
 import java.util.stream.Stream;
 
 /**
@@ -18,17 +19,25 @@ public final class SuffixTreeUtils {
     private SuffixTreeUtils() {
     }
 
-    public static CodeSnippet getCodeSnippetFromEdge(final Edge edge, final int cloneLength) {
+    /**
+     * Resolves the clone locations using the token store the tree tokens were produced by:
+     * tree tokens keep their global position inside the store in place of the line.
+     * The clone is reported for every method identical to the one the edge belongs to.
+     */
+    public static List<CodeSnippet> getCodeSnippetsFromEdge(final Edge edge, final int cloneLength, final DuplicateMethods duplicates) {
+        final var tokens = getTokenRangeFromEdge(edge, cloneLength);
+        return duplicates.codeSnippets(tokens[0], tokens[1]);
+    }
+
+    /**
+     * Global positions inside the token store of the first and the last token (both inclusive) of the clone the edge leads to
+     */
+    public static int[] getTokenRangeFromEdge(final Edge edge, final int cloneLength) {
         final int sequenceEndIndex = edge.getBegin();
         final Token begin = (Token) edge.getSequence().get(sequenceEndIndex - cloneLength);
         final Token end = (Token) edge.getSequence().get(sequenceEndIndex - 1);
 
-        //@formatter:off
-        return new CodeSnippet((CommitSnapshot) begin.getCommitSnapshot(),
-                                                begin.getFilename(),
-                                                begin.getLine(),
-                                                end.getLine());
-        //@formatter:on
+        return new int[]{begin.getLine(), end.getLine()};
     }
 
     public static Stream<Edge> edgesFromTreeCloneClassForMethod(final TreeCloneClass treeCloneClass, final Long methodId) {
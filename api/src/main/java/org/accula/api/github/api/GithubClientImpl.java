@@ -6,6 +6,7 @@ import org.accula.api.github.model.GithubApiHook;
 import org.accula.api.github.model.GithubApiPull;
 import org.accula.api.github.model.GithubApiRepo;
 import org.accula.api.github.model.GithubApiUserPermission;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
@@ -32,12 +33,15 @@ public final class GithubClientImpl implements GithubClient {
     private final LoginProvider loginProvider;
     private final WebClient githubApiWebClient;
 
-    public GithubClientImpl(final AccessTokenProvider accessTokenProvider, final LoginProvider loginProvider, final WebClient webClient) {
+    public GithubClientImpl(final AccessTokenProvider accessTokenProvider,
+                            final LoginProvider loginProvider,
+                            final WebClient webClient,
+                            @Value("${accula.github.apiUrl}") final String apiUrl) {
         this.accessTokenProvider = accessTokenProvider;
         this.loginProvider = loginProvider;
         this.githubApiWebClient = webClient
                 .mutate()
-                .baseUrl("https://api.github.com")
+                .baseUrl(apiUrl)
                 .exchangeStrategies(ExchangeStrategies
                         .builder()
                         .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(10_000_000))
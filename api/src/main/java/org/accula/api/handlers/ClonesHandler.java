@@ -2,34 +2,43 @@ package org.accula.api.handlers;
 
 import lombok.RequiredArgsConstructor;
 import org.accula.api.code.CodeLoader;
+import org.accula.api.code.FileContent;
 import org.accula.api.code.FileEntity;
 import org.accula.api.code.SnippetMarker;
+import org.accula.api.converter.ModelToDtoConverter;
 import org.accula.api.db.model.Clone;
 import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.DetectionJob;
+import org.accula.api.db.model.DetectionJob.Priority;
 import org.accula.api.db.model.Pull;
 import org.accula.api.db.model.User;
 import org.accula.api.db.repo.CloneRepo;
 import org.accula.api.db.repo.CurrentUserRepo;
+import org.accula.api.db.repo.DetectionJobRepo;
 import org.accula.api.db.repo.ProjectRepo;
 import org.accula.api.db.repo.PullRepo;
 import org.accula.api.handlers.dto.CloneDto;
 import org.accula.api.handlers.dto.CloneDto.FlatCodeSnippet.FlatCodeSnippetBuilder;
-import org.accula.api.service.CloneDetectionService;
+import org.accula.api.handlers.dto.DetectionJobDto;
+import org.accula.api.service.DetectionJobWorker;
 import org.accula.api.util.Lambda;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
 
 /**
  * @author Anton Lamtev
@@ -40,6 +49,10 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 public final class ClonesHandler {
     private static final String PROJECT_ID = "projectId";
     private static final String PULL_NUMBER = "pullNumber";
+    private static final String JOB_ID = "jobId";
+    private static final String PROGRESS_EVENT = "progress";
+    private static final String COMPLETION_EVENT = "completion";
+    private static final Duration PROGRESS_POLL_INTERVAL = Duration.ofSeconds(1L);
 
     private static final Base64.Encoder base64 = Base64.getEncoder(); // NOPMD
 
@@ -47,7 +60,8 @@ public final class ClonesHandler {
     private final CloneRepo cloneRepo;
     private final CurrentUserRepo currentUserRepo;
     private final ProjectRepo projectRepo;
-    private final CloneDetectionService cloneDetectionService;
+    private final DetectionJobRepo detectionJobRepo;
+    private final DetectionJobWorker detectionJobWorker;
     private final CodeLoader codeLoader;
 
     public Mono<ServerResponse> getLastCommitClones(final ServerRequest request) {
@@ -60,24 +74,68 @@ public final class ClonesHandler {
                 .onErrorResume(NumberFormatException.class, ClonesHandler::notFound);
     }
 
+    /**
+     * Queues the detection of the pull clones and responds with the queued job right away
+     */
     public Mono<ServerResponse> refreshClones(final ServerRequest request) {
         return Mono
                 .defer(() -> {
                     final var projectId = Long.parseLong(request.pathVariable(PROJECT_ID));
                     final var pullNumber = Integer.parseInt(request.pathVariable(PULL_NUMBER));
 
-                    final var clones = doIfCurrentUserHasAdminPermissionInProject(projectId, cloneRepo
-                            .deleteByPullNumber(projectId, pullNumber)
-                            .thenMany(pullRepo
-                                    .findByNumber(projectId, pullNumber)
-                                    .flatMapMany(cloneDetectionService::detectClones)))
-                            .cache();
-                    return toResponse(clones, projectId, pullNumber)
+                    final var job = pullRepo
+                            .findByNumber(projectId, pullNumber)
+                            .flatMap(pull -> detectionJobWorker.submit(projectId, pullNumber, Priority.INTERACTIVE))
+                            .flatMap(detectionJob -> ServerResponse
+                                    .accepted()
+                                    .contentType(APPLICATION_JSON)
+                                    .bodyValue(ModelToDtoConverter.convert(detectionJob)))
+                            .switchIfEmpty(ServerResponse.notFound().build());
+                    return doIfCurrentUserHasAdminPermissionInProject(projectId, job.flux())
+                            .next()
                             .switchIfEmpty(ServerResponse.status(HttpStatus.FORBIDDEN).build());
                 })
                 .onErrorResume(NumberFormatException.class, ClonesHandler::notFound);
     }
 
+    /**
+     * Streams the job as a server-sent event each time its state or phase changes, until the job is finished.
+     * Any node can serve the stream, since the job is read from the database.
+     */
+    public Mono<ServerResponse> refreshProgress(final ServerRequest request) {
+        return Mono
+                .defer(() -> {
+                    final var projectId = Long.parseLong(request.pathVariable(PROJECT_ID));
+                    final var pullNumber = Integer.parseInt(request.pathVariable(PULL_NUMBER));
+                    final var jobId = Long.parseLong(request.pathVariable(JOB_ID));
+
+                    final var progress = Flux
+                            .interval(Duration.ZERO, PROGRESS_POLL_INTERVAL)
+                            .onBackpressureDrop()
+                            .concatMap(tick -> detectionJobRepo.findById(jobId), 1)
+                            .map(ModelToDtoConverter::convert)
+                            .distinctUntilChanged()
+                            .takeUntil(ClonesHandler::isFinished)
+                            .map(job -> ServerSentEvent.builder(job)
+                                    .event(isFinished(job) ? COMPLETION_EVENT : PROGRESS_EVENT)
+                                    .build());
+
+                    return detectionJobRepo
+                            .findById(jobId)
+                            .filter(job -> job.getProjectId() == projectId && job.getPullNumber() == pullNumber)
+                            .flatMap(job -> ServerResponse
+                                    .ok()
+                                    .contentType(TEXT_EVENT_STREAM)
+                                    .body(BodyInserters.fromServerSentEvents(progress)))
+                            .switchIfEmpty(ServerResponse.notFound().build());
+                })
+                .onErrorResume(NumberFormatException.class, ClonesHandler::notFound);
+    }
+
+    private static boolean isFinished(final DetectionJobDto job) {
+        return job.getState() == DetectionJob.State.SUCCEEDED || job.getState() == DetectionJob.State.FAILED;
+    }
+
     private <T> Flux<T> doIfCurrentUserHasAdminPermissionInProject(final long projectId, final Flux<T> action) {
         return currentUserRepo
                 .get(User::getId)
@@ -142,7 +200,7 @@ public final class ClonesHandler {
                                        final Integer sourcePullNumber,
                                        final long projectId,
                                        final int targetPullNumber) {
-        final var target = codeSnippetWith(targetFile.getCommitSnapshot(), Objects.requireNonNull(targetFile.getContent()))
+        final var target = codeSnippetWith(targetFile.getCommitSnapshot(), Objects.requireNonNull(targetFile.getUtf8Content()))
                 .projectId(projectId)
                 .pullNumber(targetPullNumber)
                 .file(clone.getTargetFile())
@@ -150,7 +208,7 @@ public final class ClonesHandler {
                 .toLine(clone.getTargetToLine())
                 .build();
 
-        final var source = codeSnippetWith(sourceFile.getCommitSnapshot(), Objects.requireNonNull(sourceFile.getContent()))
+        final var source = codeSnippetWith(sourceFile.getCommitSnapshot(), Objects.requireNonNull(sourceFile.getUtf8Content()))
                 .projectId(projectId)
                 .pullNumber(sourcePullNumber)
                 .file(clone.getSourceFile())
@@ -161,12 +219,12 @@ public final class ClonesHandler {
         return new CloneDto(clone.getId(), target, source);
     }
 
-    private static FlatCodeSnippetBuilder codeSnippetWith(final CommitSnapshot commitSnapshot, final String content) {
+    private static FlatCodeSnippetBuilder codeSnippetWith(final CommitSnapshot commitSnapshot, final FileContent content) {
         return CloneDto.FlatCodeSnippet.builder()
                 .owner(commitSnapshot.getRepo().getOwner().getLogin())
                 .repo(commitSnapshot.getRepo().getName())
                 .sha(commitSnapshot.getSha())
-                .content(base64.encodeToString(content.getBytes(UTF_8)));
+                .content(content.encodeToString(base64));
     }
 
     private static <E extends Throwable> Mono<ServerResponse> notFound(final E error) {
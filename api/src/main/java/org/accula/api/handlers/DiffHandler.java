@@ -3,6 +3,7 @@ package org.accula.api.handlers;
 import lombok.RequiredArgsConstructor;
 import org.accula.api.code.CodeLoader;
 import org.accula.api.code.DiffEntry;
+import org.accula.api.code.FileContent;
 import org.accula.api.code.FileFilter;
 import org.accula.api.db.model.Pull;
 import org.accula.api.db.repo.PullRepo;
@@ -108,17 +109,17 @@ public final class DiffHandler {
         final var head = diff.getHead();
         return DiffDto.builder()
                 .baseFilename(base.getName())
-                .baseContent(encode(base.getContent()))
+                .baseContent(encode(base.getUtf8Content()))
                 .headFilename(head.getName())
-                .headContent(encode(head.getContent()))
+                .headContent(encode(head.getUtf8Content()))
                 .build();
     }
 
     @Nullable
-    public static String encode(@Nullable final String data) {
+    public static String encode(@Nullable final FileContent data) {
         if (data == null) {
             return null;
         }
-        return base64.encodeToString(data.getBytes());
+        return data.encodeToString(base64);
     }
 }
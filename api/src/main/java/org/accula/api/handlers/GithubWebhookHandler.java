@@ -2,11 +2,12 @@ package org.accula.api.handlers;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.accula.api.db.model.DetectionJob.Priority;
 import org.accula.api.db.model.Pull;
 import org.accula.api.db.repo.ProjectRepo;
 import org.accula.api.github.model.GithubApiHookPayload;
 import org.accula.api.handlers.util.ProjectUpdater;
-import org.accula.api.service.CloneDetectionService;
+import org.accula.api.service.DetectionJobWorker;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
@@ -25,7 +26,7 @@ public final class GithubWebhookHandler {
 
     private final ProjectRepo projectRepo;
     private final ProjectUpdater projectUpdater;
-    private final CloneDetectionService cloneDetectionService;
+    private final DetectionJobWorker detectionJobWorker;
 
     public Mono<ServerResponse> webhook(final ServerRequest request) {
         if (GITHUB_EVENT_PING.equals(request.headers().firstHeader(GITHUB_EVENT))) {
@@ -58,9 +59,12 @@ public final class GithubWebhookHandler {
                 .flatMap(projectId -> projectUpdater.update(projectId, githubApiPull));
     }
 
+    /**
+     * Detection is only queued, so that GitHub gets the response long before the detection finishes
+     */
     private Mono<Void> detectClones(final Mono<Pull> pull) {
         return pull
-                .flatMapMany(cloneDetectionService::detectClones)
+                .flatMap(updatedPull -> detectionJobWorker.submit(updatedPull.getProjectId(), updatedPull.getNumber(), Priority.WEBHOOK))
                 .then();
     }
 
@@ -0,0 +1,26 @@
+package org.accula.api.handlers.dto;
+
+import lombok.Builder;
+import lombok.Value;
+import org.accula.api.db.model.DetectionJob;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+
+@Builder
+@Value
+public class DetectionJobDto {
+    Long id;
+    Long projectId;
+    Integer pullNumber;
+    DetectionJob.State state;
+    @Nullable
+    DetectionJob.Phase phase;
+    Integer attempts;
+    @Nullable
+    String error;
+    @Nullable
+    Instant notBefore;
+    @Nullable
+    String degradations;
+}
@@ -28,7 +28,7 @@ import java.util.Set;
 @Slf4j
 @RequiredArgsConstructor
 public final class ProjectUpdater {
-    private final Scheduler processingScheduler = ReactorSchedulers.boundedElastic(this);
+    private final Scheduler processingScheduler = ReactorSchedulers.db();
     private final GithubApiToModelConverter converter;
     private final GithubUserRepo githubUserRepo;
     private final GithubRepoRepo githubRepoRepo;
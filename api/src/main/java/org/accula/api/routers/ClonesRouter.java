@@ -22,7 +22,8 @@ public final class ClonesRouter {
                 .route()
                 .path("/api/projects/{projectId}/pulls/{pullNumber}/clones", b -> b
                         .GET("", clonesHandler::getLastCommitClones)
-                        .POST("/refresh", clonesHandler::refreshClones))
+                        .POST("/refresh", clonesHandler::refreshClones)
+                        .GET("/refresh/{jobId}", clonesHandler::refreshProgress))
                 .build();
     }
 }
@@ -0,0 +1,36 @@
+package org.accula.api.routers;
+
+import lombok.RequiredArgsConstructor;
+import org.accula.api.db.repo.DetectionJobRepo;
+import org.springframework.context.annotation.Bean;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@Component
+@RequiredArgsConstructor
+public final class DetectionRouter {
+    private final DetectionJobRepo detectionJobRepo;
+
+    @Bean
+    public RouterFunction<ServerResponse> detectionRoute() {
+        return RouterFunctions
+                .route()
+                .GET("/api/detection/queue", request -> Mono
+                        .zip(detectionJobRepo.countQueued(), detectionJobRepo.countRunning())
+                        .flatMap(counts -> ServerResponse
+                                .ok()
+                                .contentType(APPLICATION_JSON)
+                                .bodyValue(Map.of(
+                                        "waiting", counts.getT1(),
+                                        "running", counts.getT2()
+                                ))))
+                .build();
+    }
+}
@@ -2,24 +2,48 @@ package org.accula.api.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.accula.api.code.CodeLoader;
+import org.accula.api.code.DiffEntry;
+import org.accula.api.code.FileEntity;
 import org.accula.api.code.FileFilter;
+import org.accula.api.config.DetectionProperties;
 import org.accula.api.db.model.Clone;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.DetectionJob;
+import org.accula.api.db.model.DetectionJob.Phase;
 import org.accula.api.db.model.Pull;
 import org.accula.api.db.repo.CloneRepo;
 import org.accula.api.db.repo.ProjectRepo;
 import org.accula.api.db.repo.PullRepo;
+import org.accula.api.detector.CloneConsolidator;
 import org.accula.api.detector.CloneDetector;
 import org.accula.api.detector.CodeSnippet;
+import org.accula.api.detector.DetectionRun;
 import org.accula.api.detector.SuffixTreeCloneDetector;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.accula.api.detector.parser.MethodTokenizer;
 import org.accula.api.util.ReactorSchedulers;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 import reactor.function.TupleUtils;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.partitioningBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * @author Anton Lamtev
@@ -27,42 +51,276 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 @Service
 public final class CloneDetectionService {
-    private final Scheduler processingScheduler = ReactorSchedulers.boundedElastic(this);
+    private static final int CLONE_INSERT_CHUNK_SIZE = 1000;
+    /// Chunks being inserted at once, each on its own pooled connection
+    private static final int CLONE_INSERT_CONCURRENCY = 4;
+    /// Base commits whose method indices are kept, open pulls of a project may have different bases
+    private static final int BASE_METHOD_INDEX_CACHE_SIZE = 16;
     private final Map<Long, CloneDetector.Config> cloneDetectorConfigs = new ConcurrentHashMap<>();
     private final Map<Long, CloneDetector> cloneDetectors = new ConcurrentHashMap<>();
+    /// Least recently used indices are evicted first, keyed by project id and base commit sha
+    private final Map<Tuple2<Long, String>, Mono<BaseMethodIndex>> baseMethodIndices = Collections.synchronizedMap(
+            new LinkedHashMap<>(BASE_METHOD_INDEX_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Tuple2<Long, String>, Mono<BaseMethodIndex>> eldest) {
+                    return size() > BASE_METHOD_INDEX_CACHE_SIZE;
+                }
+            });
     private final ProjectRepo projectRepo;
     private final PullRepo pullRepo;
     private final CloneRepo cloneRepo;
     private final CodeLoader loader;
+    private final GlobalCloneIndex globalCloneIndex;
+    private final DetectionMetrics detectionMetrics;
+    private final MethodTokenizer methodTokenizer;
+    private final DetectionRun.Budget budget;
 
     public CloneDetectionService(final ProjectRepo projectRepo,
                                  final PullRepo pullRepo,
                                  final CloneRepo cloneRepo,
-                                 final CodeLoader loader) {
+                                 final CodeLoader loader,
+                                 final GlobalCloneIndex globalCloneIndex,
+                                 final DetectionMetrics detectionMetrics,
+                                 final MethodTokenizer methodTokenizer,
+                                 final DetectionProperties detectionProperties) {
         this.projectRepo = projectRepo;
         this.projectRepo.addOnConfUpdate(this::evictConfigForProject);
         this.pullRepo = pullRepo;
         this.cloneRepo = cloneRepo;
         this.loader = loader;
+        this.globalCloneIndex = globalCloneIndex;
+        this.detectionMetrics = detectionMetrics;
+        this.methodTokenizer = methodTokenizer;
+        final var budget = detectionProperties.getBudget();
+        this.budget = DetectionRun.Budget.builder()
+                .maxTokens(budget.getMaxTokens())
+                .maxTreeNodes(budget.getMaxTreeNodes())
+                .maxDuration(budget.getMaxDuration())
+                .maxClones(budget.getMaxClones())
+                .build();
     }
 
+    /**
+     * Detects clones in files changed by the pull relative to its base commit.
+     * Sources are the files changed by the earlier updated pulls of the same project,
+     * and methods present unchanged in the base commit are excluded on both sides.
+     * If the global clone index is enabled, files of other projects sharing fingerprints with the changed files are sources too.
+     * The run keeps within the configured budgets, switching to cheaper modes when a budget is exceeded.
+     */
     public Flux<Clone> detectClones(final Pull pull) {
-        final var targetFiles = loader.loadFiles(pull.getHead(), FileFilter.SRC_JAVA);
+        return detectClones(pull, phase -> {
+        });
+    }
+
+    /**
+     * Same as {@link #detectClones(Pull)}, but reports the phases the detection enters and its degradations to the listener
+     */
+    public Flux<Clone> detectClones(final Pull pull, final DetectionRun.Listener listener) {
+        return Flux.defer(() -> {
+            final var recording = detectionMetrics.start(pull, listener);
+            return detectClones(pull, recording).transform(recording::record);
+        });
+    }
 
+    private Flux<Clone> detectClones(final Pull pull, final DetectionMetrics.Recording recording) {
         final var sourceFiles = pullRepo
                 .findUpdatedEarlierThan(pull.getProjectId(), pull.getNumber())
-                .map(Pull::getHead)
-                .flatMap(head -> loader.loadFiles(head, FileFilter.SRC_JAVA));
+                .flatMap(this::changedFiles);
+
+        return Mono
+                .zip(baseMethodIndex(pull), changedFiles(pull).collectList())
+                .doOnSubscribe(subscription -> recording.enterPhase(Phase.LOADING))
+                .flatMapMany(TupleUtils.function((baseMethods, targets) -> {
+                    final var run = recording.run(baseMethods, budget);
+                    final var crossProjectSourceFiles = globalCloneIndex.crossProjectSources(pull, targets, baseMethods);
+                    return detectClones(pull, Flux.fromIterable(targets), Flux.concat(sourceFiles, crossProjectSourceFiles), run);
+                }));
+    }
+
+    /**
+     * Same as {@link #detectClones(Pull, DetectionRun.Listener)}, but reuses the clones found by the previous detection of the same pull.
+     * Clones of target files untouched since the previous head are moved from it if their source pulls have not been updated since,
+     * and the rest of its clones are deleted, so only the current head of a pull has clones.
+     * Target files changed since the previous head are matched against all sources,
+     * and untouched ones only against the sources of the pulls updated since.
+     * Clones of other projects found with the global clone index are never moved, all targets are matched against them again.
+     * Falls back to the full detection, deleting the clones of the previous head, if the previous detection was degraded
+     * or used another detector or configuration, if the pull has got another base,
+     * or if the previous head can not be diffed with the current one.
+     * Emits the newly detected clones only, the moved ones are updated on the database side.
+     *
+     * @param previous the last successful detection job of the pull
+     */
+    public Flux<Clone> detectClonesIncrementally(final Pull pull, final DetectionJob previous, final DetectionRun.Listener listener) {
+        return Flux.defer(() -> {
+            final var recording = detectionMetrics.start(pull, listener);
+            return detectClonesIncrementally(pull, previous, recording).transform(recording::record);
+        });
+    }
+
+    private Flux<Clone> detectClonesIncrementally(final Pull pull, final DetectionJob previous, final DetectionMetrics.Recording recording) {
+        final var head = pull.getHead();
+        final var previousFinishedAt = previous.getFinishedAt();
+        if (previous.getHeadSha() == null || previousFinishedAt == null || head.getSha().equals(previous.getHeadSha())) {
+            return detectClones(pull, recording);
+        }
+        final var previousHead = CommitSnapshot.builder()
+                .sha(previous.getHeadSha())
+                .branch(head.getBranch())
+                .pullId(head.getPullId())
+                .repo(head.getRepo())
+                .build();
+
+        return detector(pull).flatMapMany(detector -> {
+            if (previous.getDegradations() != null || !detector.equals(previous.getDetector())
+                || !pull.getBase().getSha().equals(previous.getBaseSha())) {
+                log.info("Clones of {} are partial or have been detected with other inputs, detecting from scratch", previousHead);
+                return cloneRepo.deleteByTarget(previousHead).thenMany(detectClones(pull, recording));
+            }
+            return detectClonesIncrementally(pull, previousHead, previousFinishedAt, recording);
+        });
+    }
+
+    private Flux<Clone> detectClonesIncrementally(final Pull pull,
+                                                  final CommitSnapshot previousHead,
+                                                  final Instant previousFinishedAt,
+                                                  final DetectionMetrics.Recording recording) {
+        final var head = pull.getHead();
+        return loader
+                .loadDiff(previousHead, head, FileFilter.SRC_JAVA)
+                .flatMapIterable(diff -> Stream
+                        .of(diff.getBase().getName(), diff.getHead().getName())
+                        .filter(Objects::nonNull)
+                        .collect(toList()))
+                .collect(toSet())
+                .map(Optional::of)
+                .onErrorResume(e -> {
+                    log.warn("Failed to diff {} with previously detected {}, detecting from scratch", head, previousHead, e);
+                    return Mono.just(Optional.empty());
+                })
+                .doOnSubscribe(subscription -> recording.enterPhase(Phase.LOADING))
+                .flatMapMany(changedSincePrevious -> changedSincePrevious
+                        .map(changedFiles -> detectClonesIncrementally(pull, previousHead, previousFinishedAt, changedFiles, recording))
+                        .orElseGet(() -> cloneRepo.deleteByTarget(previousHead).thenMany(detectClones(pull, recording))));
+    }
+
+    private Flux<Clone> detectClonesIncrementally(final Pull pull,
+                                                  final CommitSnapshot previousHead,
+                                                  final Instant previousFinishedAt,
+                                                  final Set<String> changedSincePrevious,
+                                                  final DetectionMetrics.Recording recording) {
+        final var sourcePulls = pullRepo
+                .findUpdatedEarlierThan(pull.getProjectId(), pull.getNumber())
+                .collect(partitioningBy(source -> source.getUpdatedAt().isAfter(previousFinishedAt)));
+        final var targetFiles = changedFiles(pull)
+                .collect(partitioningBy(file -> changedSincePrevious.contains(file.getName())));
+
+        return Mono
+                .zip(baseMethodIndex(pull), sourcePulls, targetFiles)
+                .flatMapMany(TupleUtils.function((baseMethods, sources, targets) -> {
+                    final var run = recording.run(baseMethods, budget);
+                    final var updatedSources = sources.get(true);
+                    final var unchangedSources = sources.get(false);
+                    final var changedTargets = targets.get(true);
+                    final var untouchedTargets = targets.get(false);
+
+                    final var reused = cloneRepo
+                            .moveToTarget(previousHead, pull.getHead(), changedSincePrevious, unchangedSources
+                                    .stream()
+                                    .map(source -> source.getHead().getSha())
+                                    .collect(toList()))
+                            .doOnNext(count -> log.info("{} clones of pull {} have been moved from {}, {} of {} files have changed",
+                                    count, pull.getNumber(), previousHead, changedTargets.size(), changedTargets.size() + untouchedTargets.size()));
 
+                    // Files of the updated sources and of other projects are matched twice, so they are loaded once
+                    final var allTargets = Stream.concat(changedTargets.stream(), untouchedTargets.stream()).collect(toList());
+                    final var crossProjectSourceFiles = globalCloneIndex.crossProjectSources(pull, allTargets, baseMethods).cache();
+                    final var updatedSourceFiles = Flux.concat(
+                            Flux.fromIterable(updatedSources).flatMap(this::changedFiles),
+                            crossProjectSourceFiles).cache();
+                    final var allSourceFiles = Flux.concat(Flux.fromIterable(unchangedSources).flatMap(this::changedFiles), updatedSourceFiles);
+                    final var changedTargetClones = changedTargets.isEmpty()
+                            ? Flux.<Clone>empty()
+                            : detectClones(pull, Flux.fromIterable(changedTargets), allSourceFiles, run);
+                    final var untouchedTargetClones = untouchedTargets.isEmpty() || (updatedSources.isEmpty() && !globalCloneIndex.isEnabled())
+                            ? Flux.<Clone>empty()
+                            : detectClones(pull, Flux.fromIterable(untouchedTargets), updatedSourceFiles, run);
+
+                    return reused.thenMany(Flux.concat(changedTargetClones, untouchedTargetClones));
+                }));
+    }
+
+    /**
+     * Detector of the project of the pull with its current configuration, as recorded on the jobs detecting with it
+     */
+    public Mono<String> detector(final Pull pull) {
+        return cloneDetectorConfigProvider(pull.getProjectId())
+                .get()
+                .map(config -> DetectionFingerprint.detector(cloneDetector(pull.getProjectId()), config));
+    }
+
+    /**
+     * Fingerprint of the inputs the detection of the pull would have now. No code is loaded to compute it.
+     * Empty if the global clone index is enabled, since the sources of other projects are only known after loading the code.
+     */
+    public Mono<String> fingerprint(final Pull pull) {
+        if (globalCloneIndex.isEnabled()) {
+            return Mono.empty();
+        }
+        return Mono
+                .zip(pullRepo.findUpdatedEarlierThan(pull.getProjectId(), pull.getNumber()).collectList(), detector(pull))
+                .map(TupleUtils.function((sources, detector) -> DetectionFingerprint.of(pull, sources, detector)));
+    }
+
+    private Flux<Clone> detectClones(final Pull pull,
+                                     final Flux<FileEntity> targetFiles,
+                                     final Flux<FileEntity> sourceFiles,
+                                     final DetectionRun run) {
+        final var detected = new AtomicLong();
+        final var consolidated = new AtomicLong();
         final var clones = cloneDetector(pull.getProjectId())
-                .findClones(targetFiles, sourceFiles)
-                .subscribeOn(processingScheduler)
+                .findClones(targetFiles, sourceFiles, run)
+                .subscribeOn(ReactorSchedulers.cpu())
+                .transform(run::limit)
+                .doOnNext(clone -> detected.incrementAndGet())
+                .doOnComplete(() -> run.enterPhase(Phase.PERSISTING))
+                .transform(CloneConsolidator::consolidateByTarget)
+                .doOnNext(clone -> consolidated.incrementAndGet())
                 .map(TupleUtils.function(this::convert));
 
+        // The detector emits clones grouped by target file, so the clones of a file are consolidated as soon as
+        // the next file begins, and chunks are inserted while detection goes on. The persisting phase is left with
+        // the last chunks only. Chunks are inserted concurrently, the inserted clones being emitted in the order
+        // of the chunks, and at most the clones of the current target file and the chunks in flight are held in memory.
         return clones
+                .publishOn(ReactorSchedulers.db())
+                .buffer(CLONE_INSERT_CHUNK_SIZE)
+                .flatMapSequential(cloneRepo::insert, CLONE_INSERT_CONCURRENCY)
+                .doOnComplete(() -> log.info("{} clones have been detected for pull {} and consolidated into {}{}",
+                        detected.get(), pull.getNumber(), consolidated.get(),
+                        run.isDegraded() ? " with degradations " + run.getDegradations() : ""));
+    }
+
+    private Flux<FileEntity> changedFiles(final Pull pull) {
+        return loader
+                .loadDiff(pull.getBase(), pull.getHead(), FileFilter.SRC_JAVA)
+                .map(DiffEntry::getHead)
+                .filter(file -> file.getName() != null);
+    }
+
+    /**
+     * The index is built once per project and base commit, and is shared by all pulls having that base
+     */
+    private Mono<BaseMethodIndex> baseMethodIndex(final Pull pull) {
+        final var base = pull.getBase();
+        return baseMethodIndices.computeIfAbsent(Tuples.of(pull.getProjectId(), base.getSha()), key -> loader
+                .loadFiles(base, FileFilter.SRC_JAVA)
                 .collectList()
-                .doOnNext(cloneList -> log.info("{} clones have been detected", cloneList.size()))
-                .flatMapMany(cloneRepo::insert);
+                .publishOn(ReactorSchedulers.cpu())
+                .map(BaseMethodIndex::of)
+                .doOnNext(baseMethods -> log.info("{} methods of base commit {} have been indexed", baseMethods.size(), base))
+                // Failures are not cached, so that the index is loaded again on the next detection
+                .cache(baseMethods -> Duration.ofMillis(Long.MAX_VALUE), error -> Duration.ZERO, () -> Duration.ZERO));
     }
 
     private Clone convert(final CodeSnippet target, final CodeSnippet source) {
@@ -79,7 +337,7 @@ public final class CloneDetectionService {
     }
 
     private CloneDetector cloneDetector(final Long projectId) {
-        return cloneDetectors.computeIfAbsent(projectId, id -> new SuffixTreeCloneDetector(cloneDetectorConfigProvider(id)));
+        return cloneDetectors.computeIfAbsent(projectId, id -> new SuffixTreeCloneDetector(cloneDetectorConfigProvider(id), methodTokenizer));
     }
 
     private CloneDetector.ConfigProvider cloneDetectorConfigProvider(final Long projectId) {
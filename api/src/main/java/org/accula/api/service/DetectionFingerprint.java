@@ -0,0 +1,75 @@
+package org.accula.api.service;
+
+import org.accula.api.db.model.Pull;
+import org.accula.api.detector.CloneDetector;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Stable fingerprint of the inputs of a clone detection: the target pull commits,
+ * the commits of the source pulls regardless of their order, and the detector with its configuration.
+ * Complete detections with equal fingerprints produce the same clones, while a degraded one may miss some of them,
+ * so it must never be fingerprinted.
+ */
+public final class DetectionFingerprint {
+    /// Must be bumped whenever the detection algorithm changes its results
+    private static final int VERSION = 2;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private DetectionFingerprint() {
+    }
+
+    /**
+     * @param detector kind and configuration of the detector, see {@link #detector(CloneDetector, CloneDetector.Config)}
+     * @return hex-encoded SHA-256 of the inputs
+     */
+    public static String of(final Pull target, final Collection<Pull> sources, final String detector) {
+        final var digest = sha256();
+        update(digest, "v" + VERSION);
+        update(digest, "detector:" + detector);
+        update(digest, "target:" + commits(target));
+        sources
+                .stream()
+                .map(DetectionFingerprint::commits)
+                .sorted()
+                .distinct()
+                .forEach(source -> update(digest, "source:" + source));
+        return hex(digest.digest());
+    }
+
+    /**
+     * Kind and the whole configuration of the detector, so that a new configuration option is fingerprinted as soon as it is added
+     */
+    public static String detector(final CloneDetector detector, final CloneDetector.Config config) {
+        return detector.getClass().getSimpleName() + ":" + config;
+    }
+
+    private static String commits(final Pull pull) {
+        return pull.getHead().getSha() + ".." + pull.getBase().getSha();
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    private static String hex(final byte[] bytes) {
+        final var hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is supported by every JVM", e);
+        }
+    }
+}
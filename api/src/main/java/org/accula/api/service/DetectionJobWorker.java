@@ -0,0 +1,283 @@
+package org.accula.api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.config.DetectionProperties;
+import org.accula.api.db.model.Clone;
+import org.accula.api.db.model.DetectionJob;
+import org.accula.api.db.model.Pull;
+import org.accula.api.db.repo.CloneRepo;
+import org.accula.api.db.repo.DetectionJobRepo;
+import org.accula.api.db.repo.PullRepo;
+import org.accula.api.detector.DetectionRun;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.function.TupleUtils;
+import reactor.util.function.Tuples;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs durable detection jobs on this node.
+ * <p>
+ * Every API node polls the shared job queue and claims jobs while it has free detection slots,
+ * so the detection load is spread over all nodes. Claimed jobs are run right away,
+ * and their leases are renewed while they are running. Jobs of a crashed node are released
+ * once their leases expire and are retried by any node until they run out of attempts.
+ * <p>
+ * The job queue owns the ordering and the limits of detections: jobs of a pull are coalesced on enqueueing,
+ * claimed by priority, never run concurrently for the same pull, and at most {@code maxConcurrentDetections} of them
+ * run over all nodes, {@code maxConcurrentDetectionsPerProject} of them per project. A failed attempt is retried
+ * after {@code retryBackoff}, doubled by every next one. The worker only limits the jobs claimed by this node
+ * to {@code maxConcurrentDetectionsPerNode}, and exposes their number as a gauge.
+ */
+@Slf4j
+@Service
+public final class DetectionJobWorker {
+    private final String workerId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID();
+    private final DirectProcessor<Object> wakeUps = DirectProcessor.create();
+    private final FluxSink<Object> wakeUpSink = wakeUps.sink();
+    private final Disposable.Swap running = Disposables.swap();
+    private final AtomicInteger claimed = new AtomicInteger();
+    private final DetectionJobRepo detectionJobRepo;
+    private final PullRepo pullRepo;
+    private final CloneRepo cloneRepo;
+    private final CloneDetectionService cloneDetectionService;
+    private final DetectionProperties.Jobs jobs;
+    private final int maxClaimedJobs;
+    private final int maxRunningJobs;
+    private final int maxRunningJobsPerProject;
+
+    public DetectionJobWorker(final DetectionJobRepo detectionJobRepo,
+                              final PullRepo pullRepo,
+                              final CloneRepo cloneRepo,
+                              final CloneDetectionService cloneDetectionService,
+                              final DetectionProperties detectionProperties,
+                              final MeterRegistry meterRegistry) {
+        this.detectionJobRepo = detectionJobRepo;
+        this.pullRepo = pullRepo;
+        this.cloneRepo = cloneRepo;
+        this.cloneDetectionService = cloneDetectionService;
+        this.jobs = detectionProperties.getJobs();
+        this.maxClaimedJobs = detectionProperties.getScheduler().getMaxConcurrentDetectionsPerNode();
+        this.maxRunningJobs = detectionProperties.getScheduler().getMaxConcurrentDetections();
+        this.maxRunningJobsPerProject = detectionProperties.getScheduler().getMaxConcurrentDetectionsPerProject();
+        Gauge.builder("accula.detection.jobs.claimed", claimed, AtomicInteger::get).register(meterRegistry);
+    }
+
+    /**
+     * Queues a durable detection job for the pull and wakes up the polling of this node
+     */
+    public Mono<DetectionJob> submit(final Long projectId, final Integer pullNumber, final DetectionJob.Priority priority) {
+        return detectionJobRepo
+                .enqueue(projectId, pullNumber, priority)
+                .doOnNext(job -> wakeUpSink.next(job.getId()));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        log.info("Detection job worker {} started", workerId);
+        running.update(Flux
+                .merge(Flux.interval(Duration.ZERO, jobs.getPollInterval()), wakeUps)
+                .onBackpressureLatest()
+                .concatMap(tick -> poll()
+                        .onErrorResume(e -> {
+                            log.error("Failed to poll detection jobs", e);
+                            return Flux.empty();
+                        }), 1)
+                .flatMap(this::run, maxClaimedJobs)
+                .subscribe());
+    }
+
+    /**
+     * Jobs being run are abandoned and will be retried by other nodes after their leases expire
+     */
+    @PreDestroy
+    public void stop() {
+        running.dispose();
+    }
+
+    private Flux<DetectionJob> poll() {
+        return detectionJobRepo
+                .releaseExpired(jobs.getMaxAttempts(), jobs.getRetryBackoff())
+                .doOnNext(released -> {
+                    if (released > 0) {
+                        log.warn("Released {} detection jobs with expired leases", released);
+                    }
+                })
+                .thenMany(claimJobs());
+    }
+
+    /**
+     * Claims jobs one by one while this node has free detection slots and the queue has jobs for it
+     */
+    private Flux<DetectionJob> claimJobs() {
+        return Flux.defer(() -> {
+            if (claimed.get() >= maxClaimedJobs) {
+                return Flux.empty();
+            }
+            return detectionJobRepo
+                    .claim(workerId, jobs.getLeaseDuration(), maxRunningJobs, maxRunningJobsPerProject)
+                    .doOnNext(job -> claimed.incrementAndGet())
+                    .flatMapMany(job -> Flux.just(job).concatWith(claimJobs()));
+        });
+    }
+
+    /**
+     * Detects clones of the current head of the job pull, replacing the clones it already has,
+     * so that a retried attempt never duplicates clones persisted by a failed one.
+     * Phases of the detection are recorded on the job, and so are the budgets it has exceeded once it succeeds.
+     * The detection is cancelled if the lease is lost.
+     * <p>
+     * A webhook job whose inputs have the fingerprint of the last complete detection keeps its clones.
+     * Interactive jobs are refreshes requested by users, so they always detect again,
+     * and a degraded or interrupted detection is never fingerprinted.
+     */
+    private Mono<Void> run(final DetectionJob job) {
+        final var leaseWasLost = new AtomicBoolean();
+        final var leaseLost = Flux
+                .interval(jobs.getLeaseDuration().dividedBy(3L))
+                .concatMap(tick -> detectionJobRepo.renewLease(job.getId(), workerId, jobs.getLeaseDuration()))
+                .filter(renewed -> !renewed)
+                .next()
+                .doOnNext(lost -> {
+                    leaseWasLost.set(true);
+                    log.warn("Lease of detection job {} has been lost", job.getId());
+                });
+
+        final var phases = UnicastProcessor.<DetectionJob.Phase>create();
+        final var phaseSink = phases.sink();
+        final var degradations = new CopyOnWriteArrayList<DetectionRun.Degradation>();
+        final var listener = new DetectionRun.Listener() {
+            @Override
+            public void enterPhase(final DetectionJob.Phase phase) {
+                phaseSink.next(phase);
+            }
+
+            @Override
+            public void degrade(final DetectionRun.Degradation degradation) {
+                degradations.add(degradation);
+            }
+        };
+        final var phaseUpdates = phases
+                .concatMap(phase -> detectionJobRepo
+                        .updatePhase(job.getId(), workerId, phase)
+                        .onErrorResume(e -> {
+                            log.warn("Failed to record phase {} of detection job {}", phase, job.getId(), e);
+                            return Mono.empty();
+                        }))
+                .then();
+
+        final var detected = pullRepo
+                .findByNumber(job.getProjectId(), job.getPullNumber())
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("Pull #%d of project %d not found"
+                        .formatted(job.getPullNumber(), job.getProjectId()))))
+                .flatMap(pull -> Mono
+                        .zip(fingerprint(pull), baseline(job), cloneDetectionService.detector(pull))
+                        .flatMap(TupleUtils.function((fingerprint, baseline, detector) -> {
+                            if (job.getPriority() != DetectionJob.Priority.INTERACTIVE
+                                && fingerprint.isPresent() && baseline.map(DetectionJob::getFingerprint).equals(fingerprint)) {
+                                log.info("Inputs of pull {} have not changed since job {}, its clones are kept",
+                                        pull.getNumber(), baseline.get().getId());
+                                return Mono.just(Tuples.of(pull, fingerprint, detector));
+                            }
+                            return cloneRepo
+                                    .deleteByPullNumber(job.getProjectId(), job.getPullNumber())
+                                    .thenMany(detectClones(pull, job, baseline, listener))
+                                    .takeUntilOther(leaseLost)
+                                    .then(Mono.just(Tuples.of(pull, fingerprint, detector)));
+                        })))
+                .doFinally(signal -> phaseSink.complete());
+
+        return Mono
+                .zip(detected, phaseUpdates.thenReturn(Boolean.TRUE), (detection, phasesRecorded) -> detection)
+                .flatMap(TupleUtils.function((pull, fingerprint, detector) -> detectionJobRepo
+                        .succeed(job.getId(), workerId, pull.getHead().getSha(), pull.getBase().getSha(),
+                                // Partial clones must never be kept in place of a complete detection of the same inputs
+                                degradations.isEmpty() && !leaseWasLost.get() ? fingerprint.orElse(null) : null,
+                                describe(degradations), detector)))
+                .onErrorResume(e -> {
+                    log.error("Detection job {} failed on attempt {}", job.getId(), job.getAttempts(), e);
+                    return detectionJobRepo.fail(job.getId(), workerId, String.valueOf(e.getMessage()),
+                            jobs.getMaxAttempts(), jobs.getRetryBackoff());
+                })
+                .onErrorResume(e -> {
+                    log.error("Failed to record the result of detection job {}", job.getId(), e);
+                    return Mono.empty();
+                })
+                .doFinally(signal -> {
+                    claimed.decrementAndGet();
+                    wakeUpSink.next(job.getId());
+                })
+                .then();
+    }
+
+    private Mono<Optional<String>> fingerprint(final Pull pull) {
+        return cloneDetectionService
+                .fingerprint(pull)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    /**
+     * The last finished job of the pull if it has succeeded, its clones are still in place then.
+     * There is no baseline for a retried job, since its failed attempts may have deleted the clones.
+     */
+    private Mono<Optional<DetectionJob>> baseline(final DetectionJob job) {
+        if (job.getAttempts() > 1) {
+            return Mono.just(Optional.empty());
+        }
+        return detectionJobRepo
+                .findLastFinished(job.getProjectId(), job.getPullNumber())
+                .filter(lastFinished -> lastFinished.getState() == DetectionJob.State.SUCCEEDED)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    /**
+     * Webhook jobs detect incrementally relative to the baseline.
+     * Interactive jobs are refreshes requested by users, so they always detect from scratch.
+     */
+    private Flux<Clone> detectClones(final Pull pull,
+                                     final DetectionJob job,
+                                     final Optional<DetectionJob> baseline,
+                                     final DetectionRun.Listener listener) {
+        return baseline
+                .filter(previous -> job.getPriority() == DetectionJob.Priority.WEBHOOK)
+                .map(previous -> cloneDetectionService.detectClonesIncrementally(pull, previous, listener))
+                .orElseGet(() -> cloneDetectionService.detectClones(pull, listener));
+    }
+
+    /**
+     * Degradations of the detection one per line, {@code null} if its clones are complete
+     */
+    @Nullable
+    private static String describe(final List<DetectionRun.Degradation> degradations) {
+        if (degradations.isEmpty()) {
+            return null;
+        }
+        return degradations
+                .stream()
+                .map(degradation -> degradation.getReason() + ": " + degradation.getDetails())
+                .collect(Collectors.joining("\n"));
+    }
+}
@@ -0,0 +1,175 @@
+package org.accula.api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.RequiredArgsConstructor;
+import org.accula.api.db.model.DetectionJob.Phase;
+import org.accula.api.db.model.Pull;
+import org.accula.api.detector.DetectionRun;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timers of the phases of clone detections and JDK Flight Recorder events carrying the project, the pull and the counts,
+ * so that the time of a slow detection can be attributed to git loading, parsing, tree insertion, querying or persisting,
+ * and production profiles can be matched with the detections they were taken during.
+ * <p>
+ * Phases of a detection follow one another, so the time of every phase lasts until the next one is entered.
+ */
+@Component
+@RequiredArgsConstructor
+public final class DetectionMetrics {
+    private static final String PHASE_TIMER = "accula.detection.phase";
+    private static final String DETECTION_TIMER = "accula.detection";
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Starts recording a detection of the pull, forwarding the phases it enters and its degradations to the listener
+     */
+    public Recording start(final Pull pull, final DetectionRun.Listener listener) {
+        return new Recording(pull, listener);
+    }
+
+    public final class Recording {
+        private final Pull pull;
+        private final DetectionRun.Listener listener;
+        private final List<DetectionRun> runs = new CopyOnWriteArrayList<>();
+        private final AtomicLong clones = new AtomicLong();
+        private final Timer.Sample detection = Timer.start(meterRegistry);
+        private final DetectionEvent detectionEvent = new DetectionEvent();
+        private Phase phase;
+        private Timer.Sample phaseSample;
+        private PhaseEvent phaseEvent;
+
+        private Recording(final Pull pull, final DetectionRun.Listener listener) {
+            this.pull = pull;
+            this.listener = listener;
+            detectionEvent.begin();
+        }
+
+        /**
+         * Creates a run reporting its phases to the recording
+         */
+        public DetectionRun run(final BaseMethodIndex baseMethods, final DetectionRun.Budget budget) {
+            final var run = DetectionRun.of(baseMethods, budget, new DetectionRun.Listener() {
+                @Override
+                public void enterPhase(final Phase phase) {
+                    Recording.this.enterPhase(phase);
+                }
+
+                @Override
+                public void degrade(final DetectionRun.Degradation degradation) {
+                    listener.degrade(degradation);
+                }
+            });
+            runs.add(run);
+            return run;
+        }
+
+        public void enterPhase(final Phase next) {
+            synchronized (this) {
+                if (phase == next) {
+                    return;
+                }
+                endPhase();
+                phase = next;
+                phaseSample = Timer.start(meterRegistry);
+                phaseEvent = new PhaseEvent();
+                phaseEvent.begin();
+            }
+            listener.enterPhase(next);
+        }
+
+        /**
+         * Counts the clones of the detection and finishes the recording once it terminates
+         */
+        public <T> Flux<T> record(final Flux<T> detection) {
+            return detection
+                    .doOnNext(clone -> clones.incrementAndGet())
+                    .doFinally(this::finish);
+        }
+
+        private synchronized void finish(final SignalType signal) {
+            endPhase();
+            final var outcome = signal.name().toLowerCase(Locale.ROOT);
+            detection.stop(meterRegistry.timer(DETECTION_TIMER, "outcome", outcome));
+
+            detectionEvent.end();
+            if (detectionEvent.shouldCommit()) {
+                detectionEvent.projectId = pull.getProjectId();
+                detectionEvent.pullNumber = pull.getNumber();
+                detectionEvent.outcome = outcome;
+                detectionEvent.methods = runs.stream().mapToLong(DetectionRun::getIndexedMethods).sum();
+                detectionEvent.tokens = runs.stream().mapToLong(DetectionRun::getIndexedTokens).sum();
+                detectionEvent.treeNodes = runs.stream().mapToLong(DetectionRun::getTreeNodes).sum();
+                detectionEvent.clones = clones.get();
+                detectionEvent.degraded = runs.stream().anyMatch(DetectionRun::isDegraded);
+                detectionEvent.commit();
+            }
+        }
+
+        private void endPhase() {
+            if (phase == null) {
+                return;
+            }
+            final var phaseName = phase.name().toLowerCase(Locale.ROOT);
+            phaseSample.stop(meterRegistry.timer(PHASE_TIMER, "phase", phaseName));
+            phaseEvent.end();
+            if (phaseEvent.shouldCommit()) {
+                phaseEvent.projectId = pull.getProjectId();
+                phaseEvent.pullNumber = pull.getNumber();
+                phaseEvent.phase = phaseName;
+                phaseEvent.commit();
+            }
+            phase = null;
+        }
+    }
+
+    @Name("org.accula.CloneDetection")
+    @Label("Clone Detection")
+    @Category("Accula")
+    @Description("Clone detection of a pull head")
+    static final class DetectionEvent extends Event {
+        @Label("Project Id")
+        long projectId;
+        @Label("Pull Number")
+        int pullNumber;
+        @Label("Outcome")
+        String outcome;
+        @Label("Indexed Methods")
+        long methods;
+        @Label("Indexed Tokens")
+        long tokens;
+        @Label("Estimated Tree Nodes")
+        long treeNodes;
+        @Label("Clones")
+        long clones;
+        @Label("Degraded")
+        boolean degraded;
+    }
+
+    @Name("org.accula.CloneDetectionPhase")
+    @Label("Clone Detection Phase")
+    @Category("Accula")
+    @Description("Phase of a clone detection of a pull head")
+    static final class PhaseEvent extends Event {
+        @Label("Project Id")
+        long projectId;
+        @Label("Pull Number")
+        int pullNumber;
+        @Label("Phase")
+        String phase;
+    }
+}
@@ -0,0 +1,165 @@
+package org.accula.api.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.accula.api.code.CodeLoader;
+import org.accula.api.code.FileEntity;
+import org.accula.api.code.FileFilter;
+import org.accula.api.config.DetectionProperties;
+import org.accula.api.db.model.MethodFingerprint;
+import org.accula.api.db.model.Pull;
+import org.accula.api.db.repo.MethodFingerprintRepo;
+import org.accula.api.db.repo.PullRepo;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.accula.api.detector.index.LongHashSet;
+import org.accula.api.detector.index.TokenStore;
+import org.accula.api.detector.index.WinnowingFilter;
+import org.accula.api.detector.parser.MethodTokenizer;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.accula.api.util.ReactorSchedulers;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static java.util.function.Predicate.not;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Organization-wide index of the winnowed method fingerprints of the files changed by pulls,
+ * used to find files of other projects of the same owner that may share clones with a pull.
+ * <p>
+ * Fingerprints are stored in a table partitioned by equal ranges of the fingerprint values,
+ * so the index lives on disk rather than in the heap, and a lookup queries all shards in parallel.
+ * The lookup is only a prefilter: the found files are added to the sources of the detection,
+ * which finds the exact clones. Fingerprints are computed with a fixed minimal clone length,
+ * since projects may have different ones, and methods of the project base commit are never indexed,
+ * so that the template shared by the projects does not match everywhere.
+ */
+@Slf4j
+@Service
+public final class GlobalCloneIndex {
+    /// Must match the number of the partitions of method_fingerprint
+    static final int SHARD_COUNT = 16;
+    private static final int SHARD_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SHARD_COUNT);
+
+    private final MethodFingerprintRepo methodFingerprintRepo;
+    private final PullRepo pullRepo;
+    private final CodeLoader loader;
+    private final MethodTokenizer methodTokenizer;
+    private final boolean enabled;
+    private final WinnowingFilter winnowingFilter;
+
+    public GlobalCloneIndex(final MethodFingerprintRepo methodFingerprintRepo,
+                            final PullRepo pullRepo,
+                            final CodeLoader loader,
+                            final MethodTokenizer methodTokenizer,
+                            final DetectionProperties detectionProperties) {
+        this.methodFingerprintRepo = methodFingerprintRepo;
+        this.pullRepo = pullRepo;
+        this.loader = loader;
+        this.methodTokenizer = methodTokenizer;
+        final var globalIndex = detectionProperties.getGlobalIndex();
+        this.enabled = globalIndex.isEnabled();
+        this.winnowingFilter = WinnowingFilter.forMinCloneLength(globalIndex.getMinCloneLength());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Indexes the files changed by the pull, replacing its previous fingerprints,
+     * and loads the files of other projects sharing at least one fingerprint with them
+     */
+    public Flux<FileEntity> crossProjectSources(final Pull pull, final List<FileEntity> files, final BaseMethodIndex baseMethods) {
+        if (!enabled) {
+            return Flux.empty();
+        }
+        return Mono
+                .fromSupplier(() -> fingerprints(pull, files, baseMethods))
+                // Files are parsed while fingerprinting, so it must not run on the thread of the caller
+                .subscribeOn(ReactorSchedulers.cpu())
+                .flatMapMany(fingerprints -> methodFingerprintRepo
+                        .replace(pull, fingerprints)
+                        .thenMany(findInOtherProjects(pull, fingerprints)))
+                .collect(groupingBy(MethodFingerprint::getPullId, mapping(MethodFingerprint::getFile, toSet())))
+                .doOnNext(matches -> log.info("Files of {} pulls of other projects share fingerprints with pull {}",
+                        matches.size(), pull.getNumber()))
+                .flatMapMany(this::loadFiles);
+    }
+
+    private Flux<MethodFingerprint> findInOtherProjects(final Pull pull, final List<MethodFingerprint> fingerprints) {
+        final var distinct = new LongHashSet(fingerprints.size());
+        final var shards = new ArrayList<LongStream.Builder>(SHARD_COUNT);
+        IntStream.range(0, SHARD_COUNT).forEach(shard -> shards.add(LongStream.builder()));
+        fingerprints.forEach(fingerprint -> {
+            if (distinct.add(fingerprint.getFingerprint())) {
+                shards.get(shard(fingerprint.getFingerprint())).add(fingerprint.getFingerprint());
+            }
+        });
+        return Flux
+                .fromIterable(shards)
+                .map(LongStream.Builder::build)
+                .map(LongStream::toArray)
+                .filter(shard -> shard.length > 0)
+                .flatMap(shard -> methodFingerprintRepo.findInOtherProjects(pull, shard), SHARD_COUNT);
+    }
+
+    private Flux<FileEntity> loadFiles(final Map<Long, Set<String>> filesByPullId) {
+        return pullRepo
+                .findById(filesByPullId.keySet())
+                .flatMap(source -> {
+                    final var files = filesByPullId.get(source.getId());
+                    return loader.loadFiles(source.getHead(), FileFilter.SRC_JAVA.and(files::contains));
+                });
+    }
+
+    private List<MethodFingerprint> fingerprints(final Pull pull, final List<FileEntity> files, final BaseMethodIndex baseMethods) {
+        final var tokenStore = new TokenStore();
+        for (final var file : files) {
+            final var fileId = tokenStore.addFile(file);
+            methodTokenizer.tokenizedFunctions(file)
+                    .filter(not(TokenizedMethod::isEmpty))
+                    .filter(not(baseMethods::contains))
+                    .forEach(method -> tokenStore.addMethod(fileId, method));
+        }
+
+        final var fingerprints = new ArrayList<MethodFingerprint>();
+        final var fileFingerprints = new HashSet<FileFingerprint>();
+        for (int method = 0; method < tokenStore.methodCount(); ++method) {
+            final var file = tokenStore.fileName(tokenStore.methodFile(method));
+            for (final var fingerprint : winnowingFilter.fingerprints(tokenStore, method)) {
+                if (fileFingerprints.add(new FileFingerprint(fingerprint, file))) {
+                    fingerprints.add(MethodFingerprint.builder()
+                            .fingerprint(fingerprint)
+                            .pullId(pull.getId())
+                            .file(file)
+                            .build());
+                }
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Shard of the fingerprint range, the same as the partition of method_fingerprint it is stored in
+     */
+    static int shard(final long fingerprint) {
+        return (int) ((fingerprint ^ Long.MIN_VALUE) >>> SHARD_SHIFT);
+    }
+
+    @lombok.Value
+    private static class FileFingerprint {
+        long fingerprint;
+        String file;
+    }
+}
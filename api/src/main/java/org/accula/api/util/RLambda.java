@@ -1,6 +1,7 @@
 package org.accula.api.util;
 
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.function.Function3;
 import reactor.function.TupleUtils;
 
@@ -19,4 +20,19 @@ public final class RLambda {
                 .zip(m1, m2, m3)
                 .map(TupleUtils.function(combinator));
     }
+
+    /**
+     * Same as {@link #zip(Mono, Mono, Mono, Function3)}, but the combinator runs on the scheduler
+     * rather than on the thread of the source completing last
+     */
+    public static <T1, T2, T3, R> Mono<R> zip(final Mono<T1> m1,
+                                              final Mono<T2> m2,
+                                              final Mono<T3> m3,
+                                              final Scheduler scheduler,
+                                              final Function3<T1, T2, T3, R> combinator) {
+        return Mono
+                .zip(m1, m2, m3)
+                .publishOn(scheduler)
+                .map(TupleUtils.function(combinator));
+    }
 }
@@ -1,15 +1,46 @@
 package org.accula.api.util;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import static reactor.core.scheduler.Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE;
 import static reactor.core.scheduler.Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE;
 
 /**
+ * Schedulers of the application.
+ * <p>
+ * Blocking git processes, CPU-bound analysis and database work run on separate named pools.
+ * The CPU pool has as many threads as Reactor's parallel scheduler, the number of cores by default,
+ * so concurrent detections take turns on the cores instead of thrashing caches and the GC with dozens of threads,
+ * while git processes waiting for the disk do not hold any of them. Its queue is bounded, and a task beyond
+ * its capacity runs on the thread submitting it, so producers of analysis are slowed down to its pace
+ * instead of piling tasks up in memory or failing the detection. Blocking the submitting thread instead
+ * could deadlock, since the analysis running on the pool submits tasks to it too.
+ * The active and queued tasks of every pool are exported by {@link #metrics()}.
+ *
  * @author Anton Lamtev
  */
 public final class ReactorSchedulers {
+    private static final int CPU_QUEUE_CAPACITY_PER_THREAD = 256;
+    private static final int GIT_IO_QUEUE_CAPACITY_PER_CORE = 50;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final Pool GIT_IO = new Pool("git-io", CORES, CORES * 10, CORES * GIT_IO_QUEUE_CAPACITY_PER_CORE,
+            new ThreadPoolExecutor.AbortPolicy());
+    private static final Pool CPU = new Pool("cpu", Schedulers.DEFAULT_POOL_SIZE, Schedulers.DEFAULT_POOL_SIZE,
+            Schedulers.DEFAULT_POOL_SIZE * CPU_QUEUE_CAPACITY_PER_THREAD, new ThreadPoolExecutor.CallerRunsPolicy());
+    private static final Pool DB = new Pool("db", CORES, CORES, DEFAULT_BOUNDED_ELASTIC_QUEUESIZE,
+            new ThreadPoolExecutor.AbortPolicy());
+
     private ReactorSchedulers() {
     }
 
@@ -26,4 +57,73 @@ public final class ReactorSchedulers {
                 true
         );
     }
+
+    /**
+     * Scheduler of blocking git processes
+     */
+    public static Scheduler gitIo() {
+        return GIT_IO.scheduler;
+    }
+
+    /**
+     * Executor behind {@link #gitIo()}, for the code running git processes on futures
+     */
+    public static ExecutorService gitIoExecutor() {
+        return GIT_IO.executor;
+    }
+
+    /**
+     * Scheduler of CPU-bound analysis: parsing, indexing and matching of code
+     */
+    public static Scheduler cpu() {
+        return CPU.scheduler;
+    }
+
+    /**
+     * Number of threads of {@link #cpu()}
+     */
+    public static int cpuParallelism() {
+        return CPU.executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Scheduler preparing and issuing database requests
+     */
+    public static Scheduler db() {
+        return DB.scheduler;
+    }
+
+    /**
+     * Gauges of the active and queued tasks of each pool, tagged with the pool name
+     */
+    public static MeterBinder metrics() {
+        return registry -> List.of(GIT_IO, CPU, DB).forEach(pool -> {
+            Gauge.builder("accula.scheduler.active", pool.executor, ThreadPoolExecutor::getActiveCount)
+                    .tag("scheduler", pool.name)
+                    .register(registry);
+            Gauge.builder("accula.scheduler.queued", pool.executor, executor -> executor.getQueue().size())
+                    .tag("scheduler", pool.name)
+                    .register(registry);
+        });
+    }
+
+    private static final class Pool {
+        final String name;
+        final ThreadPoolExecutor executor;
+        final Scheduler scheduler;
+
+        Pool(final String name,
+             final int coreThreads,
+             final int maxThreads,
+             final int queueCapacity,
+             final RejectedExecutionHandler rejectionHandler) {
+            final var threadFactory = new CustomizableThreadFactory(name + "-");
+            threadFactory.setDaemon(true);
+            this.name = name;
+            this.executor = new ThreadPoolExecutor(coreThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity), threadFactory, rejectionHandler);
+            this.executor.allowCoreThreadTimeOut(true);
+            this.scheduler = Schedulers.fromExecutorService(executor, name);
+        }
+    }
 }
@@ -0,0 +1,28 @@
+CREATE TABLE IF NOT EXISTS detection_job
+(
+    id               BIGSERIAL PRIMARY KEY,
+    project_id       BIGINT                   NOT NULL,
+    pull_number      INT                      NOT NULL,
+    --  0 - interactive, 1 - webhook: lower values are claimed first
+    priority         SMALLINT                 NOT NULL,
+    --  QUEUED, RUNNING, SUCCEEDED, FAILED
+    state            VARCHAR(16)              NOT NULL DEFAULT 'QUEUED',
+    attempts         INT                      NOT NULL DEFAULT 0,
+    worker           VARCHAR(128),
+    lease_expires_at TIMESTAMP WITH TIME ZONE,
+    created_at       TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    started_at       TIMESTAMP WITH TIME ZONE,
+    finished_at      TIMESTAMP WITH TIME ZONE,
+    error            TEXT,
+
+    FOREIGN KEY (project_id) REFERENCES project (id)
+);
+
+--  At most one queued job per pull: a later request is merged into the queued one
+CREATE UNIQUE INDEX IF NOT EXISTS detection_job_queued_pull_idx
+    ON detection_job (project_id, pull_number)
+    WHERE state = 'QUEUED';
+
+CREATE INDEX IF NOT EXISTS detection_job_claim_idx
+    ON detection_job (priority, created_at)
+    WHERE state IN ('QUEUED', 'RUNNING');
@@ -0,0 +1,3 @@
+--  Phase of the last attempt of a job, NULL until the attempt enters its first phase
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS phase VARCHAR(16);
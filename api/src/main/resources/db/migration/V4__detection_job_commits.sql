@@ -0,0 +1,8 @@
+--  Head and base commits of the pull the last attempt of a job has detected clones for
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS head_sha CHAR(40),
+    ADD COLUMN IF NOT EXISTS base_sha CHAR(40);
+
+CREATE INDEX IF NOT EXISTS detection_job_succeeded_pull_idx
+    ON detection_job (project_id, pull_number, finished_at)
+    WHERE state = 'SUCCEEDED';
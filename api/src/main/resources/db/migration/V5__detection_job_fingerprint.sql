@@ -0,0 +1,11 @@
+--  Fingerprint of the detection inputs of the last attempt of a job
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS fingerprint CHAR(64);
+
+--  The last finished attempt of a pull is looked up regardless of its state,
+--  since a failed attempt may have deleted clones detected by an earlier successful one
+DROP INDEX IF EXISTS detection_job_succeeded_pull_idx;
+
+CREATE INDEX IF NOT EXISTS detection_job_finished_pull_idx
+    ON detection_job (project_id, pull_number, finished_at)
+    WHERE finished_at IS NOT NULL;
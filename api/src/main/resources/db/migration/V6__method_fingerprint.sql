@@ -0,0 +1,40 @@
+--  Organization-wide index of winnowed method fingerprints of the files changed by pulls.
+--  Fingerprints are uniform 64-bit hashes, so equal ranges of their values make equally sized shards.
+--  The number of shards must match GlobalCloneIndex.SHARD_COUNT.
+CREATE TABLE IF NOT EXISTS method_fingerprint
+(
+    fingerprint BIGINT       NOT NULL,
+    owner_id    BIGINT       NOT NULL,
+    project_id  BIGINT       NOT NULL,
+    pull_id     BIGINT       NOT NULL,
+    file        VARCHAR(256) NOT NULL,
+
+    FOREIGN KEY (owner_id) REFERENCES user_github (id),
+    FOREIGN KEY (project_id) REFERENCES project (id),
+    FOREIGN KEY (pull_id) REFERENCES pull (id)
+) PARTITION BY RANGE (fingerprint);
+
+DO
+$$
+    DECLARE
+        shard_count CONSTANT INT     := 16;
+        shard_size  CONSTANT NUMERIC := power(2::NUMERIC, 64) / shard_count;
+        lower_bound          NUMERIC;
+    BEGIN
+        FOR shard IN 0..shard_count - 1
+            LOOP
+                lower_bound := -power(2::NUMERIC, 63) + shard * shard_size;
+                EXECUTE format(
+                        'CREATE TABLE IF NOT EXISTS method_fingerprint_%s PARTITION OF method_fingerprint FOR VALUES FROM (%s) TO (%s)',
+                        shard,
+                        CASE WHEN shard = 0 THEN 'MINVALUE' ELSE lower_bound::BIGINT::TEXT END,
+                        CASE WHEN shard = shard_count - 1 THEN 'MAXVALUE' ELSE (lower_bound + shard_size)::BIGINT::TEXT END);
+            END LOOP;
+    END
+$$;
+
+CREATE INDEX IF NOT EXISTS method_fingerprint_lookup_idx
+    ON method_fingerprint (fingerprint, owner_id);
+
+CREATE INDEX IF NOT EXISTS method_fingerprint_pull_idx
+    ON method_fingerprint (pull_id);
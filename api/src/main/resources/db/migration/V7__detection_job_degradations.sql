@@ -0,0 +1,3 @@
+--  Budgets exceeded by the last successful attempt of a job, one per line, NULL if its clones are complete
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS degradations TEXT;
@@ -0,0 +1,3 @@
+--  Detector and its configuration the last successful attempt of a job has detected clones with
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS detector TEXT;
@@ -0,0 +1,3 @@
+--  Queued job is not claimed before this time: a failed attempt is retried after an exponential backoff
+ALTER TABLE detection_job
+    ADD COLUMN IF NOT EXISTS not_before TIMESTAMP WITH TIME ZONE;
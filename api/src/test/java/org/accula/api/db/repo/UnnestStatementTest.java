@@ -0,0 +1,59 @@
+package org.accula.api.db.repo;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.postgresql.type.PostgresqlObjectId;
+import io.r2dbc.spi.Connection;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+final class UnnestStatementTest {
+    @Test
+    void testColumnsAreBoundAsTypedArrays() {
+        final var connection = mock(Connection.class);
+        final var statement = mock(PostgresqlStatement.class);
+        when(connection.createStatement(anyString())).thenReturn(statement);
+
+        final var createdAt = Instant.parse("2020-09-01T00:00:00Z");
+        UnnestStatement.of(connection, "INSERT INTO t SELECT * FROM unnest($1::BIGINT[], $2::INT[], $3::VARCHAR[], $4::BOOLEAN[], $5::TIMESTAMPTZ[])")
+                .bind(List.of(1L, 2L), id -> new Object[]{id, id.intValue() * 10, id == 1L ? "it's" : null, id == 1L, createdAt});
+
+        verify(statement).bind("$1", new Long[]{1L, 2L});
+        verify(statement).bind("$2", new Integer[]{10, 20});
+        verify(statement).bind("$3", new String[]{"it's", null});
+        verify(statement).bind("$4", new Boolean[]{true, false});
+        verify(statement).bind("$5", new Instant[]{createdAt, createdAt});
+    }
+
+    @Test
+    void testBooleanAndInstantArraysAreEncodedAsText() {
+        final var booleans = new ArrayCodecRegistrar.ArrayEncoder<>(ByteBufAllocator.DEFAULT, Boolean[].class, PostgresqlObjectId.BOOL_ARRAY, value -> value ? "t" : "f");
+        final var instants = new ArrayCodecRegistrar.ArrayEncoder<>(ByteBufAllocator.DEFAULT, Instant[].class, PostgresqlObjectId.TIMESTAMPTZ_ARRAY, Instant::toString);
+
+        assertTrue(booleans.canEncode(new Boolean[]{true}));
+        assertFalse(booleans.canEncode(new String[]{"t"}));
+        assertEquals("{\"t\",NULL,\"f\"}", booleans.text(new Boolean[]{true, null, false}));
+        assertEquals("{\"2020-09-01T00:00:00Z\"}", instants.text(new Instant[]{Instant.parse("2020-09-01T00:00:00Z")}));
+        assertEquals("{}", instants.text(new Instant[0]));
+    }
+
+    @Test
+    void testMixedColumnIsRejected() {
+        final var connection = mock(Connection.class);
+        when(connection.createStatement(anyString())).thenReturn(mock(PostgresqlStatement.class));
+
+        final var statement = UnnestStatement.of(connection, "INSERT INTO t SELECT * FROM unnest($1::BIGINT[])");
+        assertThrows(IllegalStateException.class, () -> statement.bind(List.of(1L, 2L), id -> new Object[]{id == 1L ? (Object) id : (Object) id.intValue()}));
+    }
+}
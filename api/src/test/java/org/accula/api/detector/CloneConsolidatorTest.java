@@ -0,0 +1,75 @@
+package org.accula.api.detector;
+
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.GithubRepo;
+import org.accula.api.db.model.GithubUser;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class CloneConsolidatorTest {
+    static final CommitSnapshot TARGET = CommitSnapshot.builder().sha("sha").branch("branch")
+            .repo(new GithubRepo(1L, "repo", "descr", new GithubUser(1L, "owner", "owner", "ava", false))).build();
+    static final CommitSnapshot SOURCE = CommitSnapshot.builder().sha("sha1").branch("branch")
+            .repo(new GithubRepo(2L, "repo1", "descr", new GithubUser(2L, "owner1", "owner", "ava", false))).build();
+
+    @Test
+    void testOverlappingAndAdjacentPairsAreMerged() {
+        final var consolidator = new CloneConsolidator();
+        List.of(clone("A", 1, 5, "B", 11, 15),
+                clone("A", 4, 8, "B", 14, 18),
+                clone("A", 9, 10, "B", 19, 20),
+                // Overlaps on the target side only
+                clone("A", 2, 3, "B", 40, 41),
+                // Another source file
+                clone("A", 1, 5, "C", 1, 5),
+                // Bridges two pairs added before it
+                clone("A", 30, 31, "B", 50, 51),
+                clone("A", 34, 35, "B", 54, 55),
+                clone("A", 31, 34, "B", 51, 54))
+                .forEach(consolidator::add);
+
+        assertEquals(Set.of(
+                clone("A", 1, 10, "B", 11, 20),
+                clone("A", 2, 3, "B", 40, 41),
+                clone("A", 1, 5, "C", 1, 5),
+                clone("A", 30, 35, "B", 50, 55)),
+                Set.copyOf(consolidator.clones()));
+    }
+
+    @Test
+    void testClonesAreConsolidatedPerTargetFileRun() {
+        final var clones = Flux
+                .just(clone("A", 1, 5, "B", 11, 15),
+                        clone("A", 4, 8, "B", 14, 18),
+                        clone("C", 1, 5, "B", 11, 15),
+                        clone("A", 9, 10, "B", 19, 20))
+                .concatWith(Flux.never());
+
+        // Clones of a target file are emitted once the next file begins, without waiting for the detection to complete
+        StepVerifier.create(clones.transform(CloneConsolidator::consolidateByTarget))
+                .expectNext(clone("A", 1, 8, "B", 11, 18))
+                .expectNext(clone("C", 1, 5, "B", 11, 15))
+                .thenCancel()
+                .verify();
+
+        // Clones of the same target file in separate runs are not merged
+        StepVerifier.create(clones.take(4).transform(CloneConsolidator::consolidateByTarget))
+                .expectNext(clone("A", 1, 8, "B", 11, 18))
+                .expectNext(clone("C", 1, 5, "B", 11, 15))
+                .expectNext(clone("A", 9, 10, "B", 19, 20))
+                .verifyComplete();
+    }
+
+    static Tuple2<CodeSnippet, CodeSnippet> clone(final String target, final int targetFrom, final int targetTo,
+                                                  final String source, final int sourceFrom, final int sourceTo) {
+        return Tuples.of(new CodeSnippet(TARGET, target, targetFrom, targetTo), new CodeSnippet(SOURCE, source, sourceFrom, sourceTo));
+    }
+}
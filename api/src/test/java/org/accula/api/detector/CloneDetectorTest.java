@@ -10,6 +10,7 @@ import org.accula.api.code.git.Git;
 import org.accula.api.db.model.CommitSnapshot;
 import org.accula.api.db.model.GithubRepo;
 import org.accula.api.db.model.GithubUser;
+import org.accula.api.detector.index.BaseMethodIndex;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import reactor.core.publisher.Flux;
@@ -28,6 +29,7 @@ import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author Vadim Dyachkov
@@ -68,6 +70,8 @@ class CloneDetectorTest {
         assert clones != null;
         clones.forEach(t -> System.out.println(t.getT1() + " -> " + t.getT2()));
         assertEquals(4, clones.size());
+        // Clones are grouped by target file, however the matches of each source file are spread over the targets
+        assertEquals(List.of("01.txt", "01.txt", "01.txt", "02.txt"), clones.stream().map(clone -> clone.getT1().getFile()).collect(Collectors.toList()));
     }
 
     /**
@@ -149,6 +153,228 @@ class CloneDetectorTest {
         clones2.forEach(t -> System.out.println(t.getT1() + " -> " + t.getT2()));
     }
 
+    /**
+     * Identical target methods are inserted into the tree once, and tree tokens are resolved through the token store
+     * back into the lines of every copy
+     */
+    @Test
+    void testSuffixTreeDetectorExpandsIdenticalTargets() {
+        CloneDetector detector = new SuffixTreeCloneDetector(() -> Mono.just(CloneDetector.Config.builder().minCloneLength(3).build()));
+
+        var repoOwner = new GithubUser(1L, "owner", "owner", "ava", false);
+        var repoOwner1 = new GithubUser(2L, "owner1", "owner", "ava", false);
+        var commitSnapshot = CommitSnapshot.builder().sha("sha").branch("branch").repo(new GithubRepo(1L, "repo", "descr", repoOwner)).build();
+        var commitSnapshot1 = CommitSnapshot.builder().sha("sha1").branch("branch").repo(new GithubRepo(2L, "repo1", "descr", repoOwner1)).build();
+
+        var target = new FileEntity(commitSnapshot, "Main.txt", content("target/Main.txt"));
+        var copy = new FileEntity(commitSnapshot, "Copy.txt", content("target/Main.txt"));
+        var source = new FileEntity(commitSnapshot1, "Main.txt", content("source/Main.txt"));
+
+        List<Tuple2<CodeSnippet, CodeSnippet>> clones = detector.findClones(Flux.just(target, copy), Flux.just(source)).collectList().block();
+        assertNotNull(clones);
+        var sourceSnippet = new CodeSnippet(commitSnapshot1, "Main.txt", 5, 9);
+        assertEquals(Set.of(
+                Tuples.of(new CodeSnippet(commitSnapshot, "Main.txt", 4, 8), sourceSnippet),
+                Tuples.of(new CodeSnippet(commitSnapshot, "Copy.txt", 4, 8), sourceSnippet)), Set.copyOf(clones));
+    }
+
+    /**
+     * Target files are queried in parallel, but clones come in the same order as of a sequential run,
+     * those of a target file together
+     */
+    @Test
+    void testSuffixTreeDetectorParallelRunKeepsSequentialOrder() {
+        CloneDetector.ConfigProvider config = () -> Mono.just(CloneDetector.Config.builder().minCloneLength(3).build());
+
+        var repoOwner = new GithubUser(1L, "owner", "owner", "ava", false);
+        var repoOwner1 = new GithubUser(2L, "owner1", "owner", "ava", false);
+        var commitSnapshot = CommitSnapshot.builder().sha("sha").branch("branch").repo(new GithubRepo(1L, "repo", "descr", repoOwner)).build();
+        var commitSnapshot1 = CommitSnapshot.builder().sha("sha1").branch("branch").repo(new GithubRepo(2L, "repo1", "descr", repoOwner1)).build();
+
+        var targets = Stream.of("Main.txt", "Main2.txt", "Main.txt", "Main2.txt", "Main.txt", "Main2.txt")
+                .map(name -> new FileEntity(commitSnapshot, name, content("target/" + name)))
+                .collect(Collectors.toList());
+        var sources = Stream.of("Common.txt", "Main.txt", "Task.txt", "Code.txt")
+                .map(name -> new FileEntity(commitSnapshot1, name, content("source/" + name)))
+                .collect(Collectors.toList());
+
+        var sequential = new SuffixTreeCloneDetector(config, 1)
+                .findClones(Flux.fromIterable(targets), Flux.fromIterable(sources))
+                .collectList()
+                .block();
+        var parallel = new SuffixTreeCloneDetector(config, 8)
+                .findClones(Flux.fromIterable(targets), Flux.fromIterable(sources))
+                .collectList()
+                .block();
+        assertNotNull(sequential);
+        assertTrue(sequential.size() > 0);
+        assertEquals(sequential, parallel);
+    }
+
+    /**
+     * Once the tree is over budget, clones are found line by line, spanning at least the lines the minimal clone length takes,
+     * and the lines of base methods are never matched
+     */
+    @Test
+    void testSuffixTreeDetectorFallbackSkipsBaseMethods() {
+        // 15 tokens take 3 lines
+        CloneDetector detector = new SuffixTreeCloneDetector(() -> Mono.just(CloneDetector.Config.builder().minCloneLength(15).build()));
+
+        var repoOwner = new GithubUser(1L, "owner", "owner", "ava", false);
+        var commitSnapshot = CommitSnapshot.builder().sha("sha").branch("branch").repo(new GithubRepo(1L, "repo", "descr", repoOwner)).build();
+        var first = """
+                    void first() {
+                        int alpha = 1;
+                        int beta = alpha + 2;
+                        int gamma = beta + 3;
+                    }
+                """;
+        var second = """
+                    int second(int n) {
+                        int sum = n * 2;
+                        sum = sum + n / 3;
+                        return sum - 1;
+                    }
+                """;
+        var target = new FileEntity(commitSnapshot, "A.java", "class A {\n" + first + second + "}\n");
+        var source = new FileEntity(commitSnapshot, "B.java", "class B {\n" + first + second + "}\n");
+        var base = new FileEntity(commitSnapshot, "A.java", "class A {\n" + first + "}\n");
+        var budget = DetectionRun.Budget.builder().maxTreeNodes(0L).build();
+
+        var run = DetectionRun.of(BaseMethodIndex.of(List.of(base)), budget);
+        var clones = detector.findClones(Flux.just(target), Flux.just(source), run).collectList().block();
+        assertEquals(List.of(Tuples.of(new CodeSnippet(commitSnapshot, "A.java", 7, 10), new CodeSnippet(commitSnapshot, "B.java", 7, 10))),
+                clones);
+        assertEquals(DetectionRun.Degradation.Reason.TREE_NODES, run.getDegradations().get(0).getReason());
+
+        var clonesWithoutBase = detector
+                .findClones(Flux.just(target), Flux.just(source), DetectionRun.of(BaseMethodIndex.EMPTY, budget))
+                .collectList()
+                .block();
+        assertNotNull(clonesWithoutBase);
+        assertEquals(2, clonesWithoutBase.size());
+    }
+
+    /**
+     * Each pair is a maximal exact match between a target and a source method,
+     * so the suffix tree results are covered along with shorter matches at other offsets
+     */
+    @Test
+    void testSuffixArrayDetector() {
+        Supplier<Mono<CloneDetector.Config>> config = () -> Mono.just(CloneDetector.Config.builder().minCloneLength(3).build());
+        CloneDetector detector = new SuffixArrayCloneDetector(config::get);
+        CloneDetector chunkedDetector = new SuffixArrayCloneDetector(config::get, 10);
+
+        //@formatter:off
+        var repoOwner       = new GithubUser(1L, "owner", "owner", "ava", false);
+        var repoOwner1      = new GithubUser(2L, "owner1", "owner", "ava", false);
+        var repoOwner2      = new GithubUser(3L, "owner2", "owner", "ava", false);
+        var repo            = new GithubRepo(1L, "repo", "descr", repoOwner);
+        var repo1           = new GithubRepo(2L, "repo1", "descr", repoOwner1);
+        var repo2           = new GithubRepo(3L, "repo2", "descr", repoOwner2);
+        var commitSnapshot  = CommitSnapshot.builder().sha("sha").branch("branch").repo(repo).build();
+        var commitSnapshot1 = CommitSnapshot.builder().sha("sha1").branch("branch").repo(repo1).build();
+        var commitSnapshot2 = CommitSnapshot.builder().sha("sha2").branch("branch").repo(repo2).build();
+        //@formatter:on
+
+        var target1 = new FileEntity(commitSnapshot, "Main.txt", content("target/Main.txt"));
+        var target2 = new FileEntity(commitSnapshot, "Main2.txt", content("target/Main2.txt"));
+        var source1 = new FileEntity(commitSnapshot1, "Common.txt", content("source/Common.txt"));
+        var source2 = new FileEntity(commitSnapshot1, "Main.txt", content("source/Main.txt"));
+        var source3 = new FileEntity(commitSnapshot2, "Task.txt", content("source/Task.txt"));
+        var source4 = new FileEntity(commitSnapshot1, "Code.txt", content("source/Code.txt"));
+
+        var trg1 = new CodeSnippet(target1.getCommitSnapshot(), target1.getName(), 4, 8);
+        var trg2 = new CodeSnippet(target2.getCommitSnapshot(), target2.getName(), 7, 15);
+        var expected = Set.of(
+                Tuples.of(trg1, new CodeSnippet(source1.getCommitSnapshot(), source1.getName(), 6, 10)),
+                Tuples.of(trg1, new CodeSnippet(source1.getCommitSnapshot(), source1.getName(), 24, 31)),
+                Tuples.of(trg1, new CodeSnippet(source2.getCommitSnapshot(), source2.getName(), 5, 9)),
+                Tuples.of(trg1, new CodeSnippet(source3.getCommitSnapshot(), source3.getName(), 10, 14)),
+                Tuples.of(trg1, new CodeSnippet(source3.getCommitSnapshot(), source3.getName(), 15, 19)),
+                Tuples.of(trg1, new CodeSnippet(source4.getCommitSnapshot(), source4.getName(), 10, 14)),
+                Tuples.of(new CodeSnippet(target1.getCommitSnapshot(), target1.getName(), 7, 8),
+                        new CodeSnippet(source1.getCommitSnapshot(), source1.getName(), 14, 15)),
+                Tuples.of(trg2, new CodeSnippet(source3.getCommitSnapshot(), source3.getName(), 24, 27)));
+
+        Supplier<Flux<FileEntity>> target = () -> Flux.just(target1, target2);
+        Supplier<Flux<FileEntity>> source = () -> Flux.just(source1, source2, source3, source4);
+
+        List<Tuple2<CodeSnippet, CodeSnippet>> clones = detector.findClones(target.get(), source.get()).collectList().block();
+        assertNotNull(clones);
+        assertTrue(clones.containsAll(expected));
+        assertEquals(clones.size(), Set.copyOf(clones).size());
+
+        List<Tuple2<CodeSnippet, CodeSnippet>> chunkedClones = chunkedDetector.findClones(target.get(), source.get()).collectList().block();
+        assertNotNull(chunkedClones);
+        assertEquals(Set.copyOf(clones), Set.copyOf(chunkedClones));
+    }
+
+    /**
+     * A copied method with an inserted statement is matched as a whole,
+     * while an unrelated method of the same size is not
+     */
+    @Test
+    void testMinHashDetector() {
+        CloneDetector detector = new MinHashCloneDetector(() -> Mono.just(CloneDetector.Config.builder().minCloneLength(10).build()));
+
+        var repoOwner = new GithubUser(1L, "owner", "owner", "ava", false);
+        var repoOwner1 = new GithubUser(2L, "owner1", "owner", "ava", false);
+        var commitSnapshot = CommitSnapshot.builder().sha("sha").branch("branch").repo(new GithubRepo(1L, "repo", "descr", repoOwner)).build();
+        var commitSnapshot1 = CommitSnapshot.builder().sha("sha1").branch("branch").repo(new GithubRepo(2L, "repo1", "descr", repoOwner1)).build();
+
+        var source = new FileEntity(commitSnapshot1, "Source.java", """
+                class Source {
+                    int sum(int[] values) {
+                        int result = 0;
+                        for (int i = 0; i < values.length; ++i) {
+                            if (values[i] > 0) {
+                                result += values[i];
+                            }
+                        }
+                        for (int i = values.length - 1; i >= 0; --i) {
+                            if (values[i] < 0) {
+                                result -= values[i] * 2;
+                            }
+                        }
+                        return result;
+                    }
+
+                    String join(String first, String second) {
+                        StringBuilder builder = new StringBuilder();
+                        builder.append(first).append(':').append(second);
+                        return builder.toString().trim();
+                    }
+                }
+                """);
+        var target = new FileEntity(commitSnapshot, "Target.java", """
+                class Target {
+                    int total(int[] xs) {
+                        int acc = 0;
+                        for (int j = 0; j < xs.length; ++j) {
+                            if (xs[j] > 0) {
+                                acc += xs[j];
+                            }
+                            System.out.println(acc);
+                        }
+                        for (int j = xs.length - 1; j >= 0; --j) {
+                            if (xs[j] < 0) {
+                                acc -= xs[j] * 2;
+                            }
+                        }
+                        return acc;
+                    }
+                }
+                """);
+
+        List<Tuple2<CodeSnippet, CodeSnippet>> clones = detector.findClones(Flux.just(target), Flux.just(source)).collectList().block();
+        assertNotNull(clones);
+        assertEquals(1, clones.size());
+        assertEquals("Target.java", clones.get(0).getT1().getFile());
+        assertEquals("Source.java", clones.get(0).getT2().getFile());
+        assertEquals(3, clones.get(0).getT2().getFromLine());
+    }
+
     @Test
     void testReal(@TempDir final Path tempDir) {
         CodeLoader codeLoader = new GitCodeLoader(new Git(tempDir, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())));
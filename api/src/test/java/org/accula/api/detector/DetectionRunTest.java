@@ -0,0 +1,41 @@
+package org.accula.api.detector;
+
+import org.accula.api.detector.DetectionRun.Degradation;
+import org.accula.api.detector.index.BaseMethodIndex;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class DetectionRunTest {
+    @Test
+    void testBudgetsAreSharedByDetectionsOfRun() {
+        final var run = DetectionRun.of(BaseMethodIndex.EMPTY, DetectionRun.Budget.builder().maxClones(5L).build());
+
+        assertEquals(List.of(1, 2, 3), run.limit(Flux.just(1, 2, 3)).collectList().block());
+        assertEquals(List.of(4, 5), run.limit(Flux.just(4, 5, 6)).collectList().block());
+        assertEquals(List.of(), run.limit(Flux.just(7)).collectList().block());
+        assertEquals(List.of(Degradation.Reason.CLONES), reasons(run));
+    }
+
+    @Test
+    void testDeadlineStartsWithRun() {
+        final var run = DetectionRun.of(BaseMethodIndex.EMPTY, DetectionRun.Budget.builder().maxDuration(Duration.ZERO).build());
+
+        assertTrue(run.isExpired());
+        assertTrue(run.isExpired());
+        assertEquals(List.of(), run.limit(Flux.never()).collectList().block(Duration.ofSeconds(5L)));
+        assertEquals(List.of(Degradation.Reason.DURATION), reasons(run));
+        assertFalse(DetectionRun.unlimited().isExpired());
+    }
+
+    private static List<Degradation.Reason> reasons(final DetectionRun run) {
+        return run.getDegradations().stream().map(Degradation::getReason).collect(Collectors.toList());
+    }
+}
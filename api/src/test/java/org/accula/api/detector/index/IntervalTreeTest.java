@@ -0,0 +1,41 @@
+package org.accula.api.detector.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class IntervalTreeTest {
+    static final int ITERATIONS = 10_000;
+
+    @Test
+    void testMatchesBruteForce() {
+        final var random = new Random(42L);
+        final var tree = new IntervalTree<int[]>();
+        final var intervals = new ArrayList<int[]>();
+        for (int it = 0; it < ITERATIONS; ++it) {
+            final var from = random.nextInt(1000);
+            final var to = from + random.nextInt(50);
+            if (!intervals.isEmpty() && random.nextInt(3) == 0) {
+                final var removed = intervals.remove(random.nextInt(intervals.size()));
+                assertTrue(tree.remove(removed[0], removed[1], removed));
+            } else {
+                final var interval = new int[]{from, to};
+                intervals.add(interval);
+                tree.insert(from, to, interval);
+            }
+
+            final Set<int[]> expected = intervals
+                    .stream()
+                    .filter(interval -> interval[0] <= to && from <= interval[1])
+                    .collect(Collectors.toSet());
+            assertEquals(expected, Set.copyOf(tree.overlapping(from, to)));
+            assertEquals(intervals.size(), tree.size());
+        }
+    }
+}
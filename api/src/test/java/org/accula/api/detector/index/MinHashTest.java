@@ -0,0 +1,49 @@
+package org.accula.api.detector.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.accula.api.detector.index.WinnowingFilterTest.FILE;
+import static org.accula.api.detector.index.WinnowingFilterTest.method;
+import static org.accula.api.detector.index.WinnowingFilterTest.randomTypes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class MinHashTest {
+    static final int ITERATIONS = 100;
+
+    @Test
+    void testSignatureEstimatesJaccardSimilarity() {
+        final var random = new Random(42L);
+        final var minHash = MinHash.of(5, 256);
+        for (int it = 0; it < ITERATIONS; ++it) {
+            final var shared = randomTypes(random, 50 + random.nextInt(100));
+            final var store = new TokenStore();
+            final var fileId = store.addFile(FILE);
+            store.addMethod(fileId, method(random, shared));
+            store.addMethod(fileId, method(random, shared));
+
+            final var first = minHash.shingles(store, 0);
+            final var second = minHash.shingles(store, 1);
+            final var firstSignature = minHash.signature(first);
+            final var secondSignature = minHash.signature(second);
+            int equal = 0;
+            for (int i = 0; i < minHash.signatureLength(); ++i) {
+                if (firstSignature[i] == secondSignature[i]) {
+                    ++equal;
+                }
+            }
+            final var estimate = (double) equal / minHash.signatureLength();
+            assertEquals(MinHash.jaccard(first, second), estimate, 0.15);
+        }
+    }
+
+    @Test
+    void testJaccard() {
+        assertEquals(1.0, MinHash.jaccard(new long[]{1, 2, 3}, new long[]{1, 2, 3}));
+        assertEquals(0.5, MinHash.jaccard(new long[]{1, 2, 3}, new long[]{2, 3, 4}));
+        assertEquals(0.0, MinHash.jaccard(new long[]{1, 2}, new long[0]));
+        assertTrue(MinHash.jaccard(new long[]{1}, new long[]{2}) < 0.5);
+    }
+}
@@ -0,0 +1,69 @@
+package org.accula.api.detector.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class SuffixArrayTest {
+    static final int ITERATIONS = 5_000;
+    static final int MAX_LENGTH = 64;
+
+    @Test
+    void testMatchesNaiveSort() {
+        final var random = new Random(42L);
+        for (int it = 0; it < ITERATIONS; ++it) {
+            final var alphabetSize = 2 + random.nextInt(it % 2 == 0 ? 3 : 40);
+            final var text = randomText(random, 1 + random.nextInt(MAX_LENGTH), alphabetSize);
+
+            final var sa = SuffixArray.build(text, alphabetSize);
+            assertArrayEquals(naiveSuffixArray(text), sa);
+            assertArrayEquals(naiveLcp(text, sa), SuffixArray.lcp(text, sa));
+        }
+    }
+
+    @Test
+    void testRequiresTerminator() {
+        assertThrows(IllegalArgumentException.class, () -> SuffixArray.build(new int[]{1, 2}, 3));
+    }
+
+    static int[] randomText(final Random random, final int length, final int alphabetSize) {
+        final var text = new int[length];
+        for (int i = 0; i < length - 1; ++i) {
+            text[i] = 1 + random.nextInt(alphabetSize - 1);
+        }
+        return text;
+    }
+
+    static int[] naiveSuffixArray(final int[] text) {
+        final Comparator<Integer> suffixOrder = (first, second) -> {
+            int i = first;
+            int j = second;
+            while (i < text.length && j < text.length) {
+                if (text[i] != text[j]) {
+                    return Integer.compare(text[i], text[j]);
+                }
+                ++i;
+                ++j;
+            }
+            return Integer.compare(text.length - i, text.length - j);
+        };
+        return IntStream.range(0, text.length).boxed().sorted(suffixOrder).mapToInt(Integer::intValue).toArray();
+    }
+
+    static int[] naiveLcp(final int[] text, final int[] sa) {
+        final var lcp = new int[sa.length];
+        for (int i = 1; i < sa.length; ++i) {
+            int h = 0;
+            while (sa[i] + h < text.length && sa[i - 1] + h < text.length && text[sa[i] + h] == text[sa[i - 1] + h]) {
+                ++h;
+            }
+            lcp[i] = h;
+        }
+        return lcp;
+    }
+}
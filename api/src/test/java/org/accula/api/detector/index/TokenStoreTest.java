@@ -0,0 +1,34 @@
+package org.accula.api.detector.index;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.GithubRepo;
+import org.accula.api.db.model.GithubUser;
+import org.accula.api.detector.CodeSnippet;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+final class TokenStoreTest {
+    static final GithubRepo REPO = new GithubRepo(1L, "repo", "descr", new GithubUser(1L, "owner", "owner", "ava", false));
+    static final CommitSnapshot SNAPSHOT = CommitSnapshot.builder().sha("sha").branch("branch").repo(REPO).build();
+
+    @Test
+    void testTreeSequenceKeepsTokenInstances() {
+        final var store = new TokenStore();
+        final var fileId = store.addFile(new FileEntity(SNAPSHOT, "A.java", ""));
+        store.addMethod(fileId, new TokenizedMethod(new int[]{1, 2}, new int[]{1, 2}));
+        final var method = store.addMethod(fileId, new TokenizedMethod(new int[]{3, 4, 5}, new int[]{4, 5, 7}));
+
+        final var sequence = store.treeSequence(method);
+        assertEquals(3, sequence.size());
+        for (int i = 0; i < sequence.size(); ++i) {
+            assertSame(sequence.get(i), sequence.get(i));
+            assertEquals(store.type(store.methodStart(method) + i), sequence.get(i).getType());
+            assertEquals(store.methodStart(method) + i, sequence.get(i).getLine());
+        }
+        assertEquals(new CodeSnippet(SNAPSHOT, "A.java", 4, 7), store.codeSnippet(sequence.get(0).getLine(), sequence.get(2).getLine()));
+    }
+}
@@ -0,0 +1,64 @@
+package org.accula.api.detector.index;
+
+import org.accula.api.code.FileEntity;
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.GithubRepo;
+import org.accula.api.db.model.GithubUser;
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class WinnowingFilterTest {
+    static final int ITERATIONS = 1_000;
+    static final int ALPHABET_SIZE = 100;
+    static final GithubRepo REPO = new GithubRepo(1L, "repo", "descr", new GithubUser(1L, "owner", "owner", "ava", false));
+    static final FileEntity FILE = new FileEntity(CommitSnapshot.builder().sha("sha").branch("branch").repo(REPO).build(), "A.java", "");
+
+    @Test
+    void testSharedRunIsNeverPruned() {
+        final var random = new Random(42L);
+        for (int it = 0; it < ITERATIONS; ++it) {
+            final var minCloneLength = 1 + random.nextInt(20);
+            final var shared = randomTypes(random, minCloneLength + random.nextInt(5));
+
+            final var store = new TokenStore();
+            final var fileId = store.addFile(FILE);
+            store.addMethod(fileId, method(random, shared));
+            store.addMethod(fileId, method(random, shared));
+
+            final var selection = WinnowingFilter.forMinCloneLength(minCloneLength).select(store, 0, 1, 1, 2);
+            assertArrayEquals(new int[]{0}, selection.getSourceMethods());
+            assertArrayEquals(new int[]{1}, selection.getTargetMethods());
+        }
+    }
+
+    @Test
+    void testShortMethodsArePruned() {
+        final var store = new TokenStore();
+        final var fileId = store.addFile(FILE);
+        store.addMethod(fileId, new TokenizedMethod(new int[]{1, 2, 3}, new int[]{1, 1, 1}));
+        store.addMethod(fileId, new TokenizedMethod(new int[]{1, 2, 3}, new int[]{2, 2, 2}));
+
+        final var selection = WinnowingFilter.forMinCloneLength(4).select(store, 0, 1, 1, 2);
+        assertEquals(2, selection.getPrunedMethodCount());
+        assertEquals(1.0, selection.getPrunedFraction());
+    }
+
+    static TokenizedMethod method(final Random random, final int[] shared) {
+        final var prefix = randomTypes(random, random.nextInt(30));
+        final var suffix = randomTypes(random, random.nextInt(30));
+        final var types = new int[prefix.length + shared.length + suffix.length];
+        System.arraycopy(prefix, 0, types, 0, prefix.length);
+        System.arraycopy(shared, 0, types, prefix.length, shared.length);
+        System.arraycopy(suffix, 0, types, prefix.length + shared.length, suffix.length);
+        return new TokenizedMethod(types, new int[types.length]);
+    }
+
+    static int[] randomTypes(final Random random, final int length) {
+        return random.ints(length, 1, ALPHABET_SIZE).toArray();
+    }
+}
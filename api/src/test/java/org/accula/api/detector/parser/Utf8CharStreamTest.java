@@ -0,0 +1,71 @@
+package org.accula.api.detector.parser;
+
+import generated.Java9Lexer;
+import org.accula.api.code.FileContent;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class Utf8CharStreamTest {
+    static final String CODE = """
+            package ru.course;
+
+            /**
+             * Решение задачи 🚀
+             */
+            public class Задача {
+                private final String имя = "значение 𝔸";
+
+                public int count(final int[] values) {
+                    int sum = 0; // сумма
+                    for (int v : values) {
+                        sum += v;
+                    }
+                    return sum;
+                }
+            }
+            """;
+
+    @Test
+    void testLexesLikeCodePointStream() {
+        for (final var code : List.of(CODE, CODE.replaceAll("[^\\p{ASCII}]", "a"))) {
+            final var expected = tokens(CharStreams.fromString(code));
+            final var actual = tokens(new Utf8CharStream(FileContent.of(code), "Test.java"));
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void testRandomAccess() {
+        final var expected = CharStreams.fromString(CODE);
+        final var actual = new Utf8CharStream(FileContent.of(CODE), "Test.java");
+        assertEquals(expected.size(), actual.size());
+
+        final var random = new Random(42L);
+        for (int it = 0; it < 1_000; ++it) {
+            final var index = random.nextInt(expected.size() + 1);
+            expected.seek(index);
+            actual.seek(index);
+            for (final var la : new int[]{-2, -1, 1, 2, 70}) {
+                assertEquals(expected.LA(la), actual.LA(la));
+            }
+            final var stop = index + random.nextInt(200);
+            assertEquals(expected.getText(Interval.of(index, stop)), actual.getText(Interval.of(index, stop)));
+        }
+    }
+
+    static List<String> tokens(final CharStream stream) {
+        return new Java9Lexer(stream)
+                .getAllTokens()
+                .stream()
+                .map(token -> token.getType() + ":" + token.getText() + "@" + token.getLine() + ":" + token.getCharPositionInLine())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,128 @@
+package org.accula.api.detector.segment;
+
+import org.accula.api.detector.parser.TokenizedMethod;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class MethodSegmentStoreTest {
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecordsSurviveReopening() throws IOException {
+        final var random = new Random(42L);
+        final var methods = new ArrayList<List<TokenizedMethod>>();
+        try (var store = MethodSegmentStore.open(directory, UNLIMITED, 1 << 12)) {
+            for (int blob = 0; blob < 100; ++blob) {
+                methods.add(randomMethods(random));
+                store.put(blobId(blob), methods.get(blob));
+            }
+            assertMethodsEqual(methods.get(7), store.get(blobId(7)));
+        }
+
+        try (var store = MethodSegmentStore.open(directory, UNLIMITED, 1 << 12)) {
+            assertEquals(100, store.blobCount());
+            for (int blob = 0; blob < 100; ++blob) {
+                assertMethodsEqual(methods.get(blob), store.get(blobId(blob)));
+            }
+            assertNull(store.get(blobId(100)));
+
+            final var scanned = new ArrayList<String>();
+            store.scan((blobId, blobMethods) -> scanned.add(blobId));
+            assertEquals(100, scanned.size());
+            assertEquals(blobId(0), scanned.get(0));
+            assertEquals(blobId(99), scanned.get(99));
+        }
+    }
+
+    @Test
+    void testTornRecordIsTruncated() throws IOException {
+        final var random = new Random(42L);
+        final var first = randomMethods(random);
+        try (var store = MethodSegmentStore.open(directory, UNLIMITED, UNLIMITED)) {
+            store.put(blobId(0), first);
+            store.put(blobId(1), randomMethods(random));
+        }
+        final var segment = directory.resolve("segment-000001.seg");
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (var store = MethodSegmentStore.open(directory, UNLIMITED, UNLIMITED)) {
+            assertEquals(1, store.blobCount());
+            assertMethodsEqual(first, store.get(blobId(0)));
+            assertNull(store.get(blobId(1)));
+
+            final var appended = randomMethods(random);
+            store.put(blobId(2), appended);
+            assertMethodsEqual(appended, store.get(blobId(2)));
+        }
+    }
+
+    @Test
+    void testCompactionKeepsBlobsInUse() throws IOException {
+        final var random = new Random(42L);
+        final var methods = new ArrayList<List<TokenizedMethod>>();
+        for (int blob = 0; blob < 40; ++blob) {
+            methods.add(randomMethods(random));
+        }
+        try (var store = MethodSegmentStore.open(directory, UNLIMITED, 1 << 12)) {
+            for (int blob = 0; blob < 20; ++blob) {
+                store.put(blobId(blob), methods.get(blob));
+            }
+        }
+
+        try (var store = MethodSegmentStore.open(directory, 1 << 14, 1 << 12)) {
+            for (int blob = 20; blob < 40; ++blob) {
+                // Blob 0 is read by every detection, blob 1 is not read anymore
+                assertNotNull(store.get(blobId(0)));
+                store.put(blobId(blob), methods.get(blob));
+            }
+            assertMethodsEqual(methods.get(0), store.get(blobId(0)));
+            assertNull(store.get(blobId(1)));
+            assertMethodsEqual(methods.get(39), store.get(blobId(39)));
+            assertTrue(store.size() <= (1 << 14) + (1 << 12));
+        }
+    }
+
+    static String blobId(final int blob) {
+        return String.format("%040x", blob);
+    }
+
+    static List<TokenizedMethod> randomMethods(final Random random) {
+        final var methods = new ArrayList<TokenizedMethod>();
+        final var count = random.nextInt(5);
+        for (int method = 0; method < count; ++method) {
+            final var size = random.nextInt(100);
+            final var types = random.ints(size, 0, 120).toArray();
+            final var lines = random.ints(size, 1, 500).toArray();
+            methods.add(new TokenizedMethod(types, lines));
+        }
+        return methods;
+    }
+
+    static void assertMethodsEqual(final List<TokenizedMethod> expected, final List<TokenizedMethod> actual) {
+        assertNotNull(actual);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals(expected.get(i).getTypes(), actual.get(i).getTypes());
+            assertArrayEquals(expected.get(i).getLines(), actual.get(i).getLines());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.accula.api.service;
+
+import org.accula.api.db.model.CommitSnapshot;
+import org.accula.api.db.model.Pull;
+import org.accula.api.detector.CloneDetector;
+import org.accula.api.detector.SuffixArrayCloneDetector;
+import org.accula.api.detector.SuffixTreeCloneDetector;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+final class DetectionFingerprintTest {
+    static final Pull TARGET = pull(1, "head1", "base");
+    static final Pull SOURCE_2 = pull(2, "head2", "base");
+    static final Pull SOURCE_3 = pull(3, "head3", "base");
+    static final String DETECTOR = detector(new SuffixTreeCloneDetector(Mono::empty), 5);
+
+    @Test
+    void testSourceOrderDoesNotMatter() {
+        assertEquals(
+                DetectionFingerprint.of(TARGET, List.of(SOURCE_2, SOURCE_3), DETECTOR),
+                DetectionFingerprint.of(TARGET, List.of(SOURCE_3, SOURCE_2), DETECTOR));
+    }
+
+    @Test
+    void testEveryInputMatters() {
+        final var fingerprint = DetectionFingerprint.of(TARGET, List.of(SOURCE_2, SOURCE_3), DETECTOR);
+        assertEquals(64, fingerprint.length());
+        assertNotEquals(fingerprint, DetectionFingerprint.of(TARGET, List.of(SOURCE_2, SOURCE_3), detector(new SuffixTreeCloneDetector(Mono::empty), 6)));
+        assertNotEquals(fingerprint, DetectionFingerprint.of(TARGET, List.of(SOURCE_2, SOURCE_3), detector(new SuffixArrayCloneDetector(Mono::empty), 5)));
+        assertNotEquals(fingerprint, DetectionFingerprint.of(TARGET, List.of(SOURCE_2), DETECTOR));
+        assertNotEquals(fingerprint, DetectionFingerprint.of(pull(1, "head1'", "base"), List.of(SOURCE_2, SOURCE_3), DETECTOR));
+        assertNotEquals(fingerprint, DetectionFingerprint.of(TARGET, List.of(SOURCE_2, pull(3, "head3", "base'")), DETECTOR));
+    }
+
+    static String detector(final CloneDetector detector, final int minCloneLength) {
+        return DetectionFingerprint.detector(detector, CloneDetector.Config.builder().minCloneLength(minCloneLength).build());
+    }
+
+    static Pull pull(final int number, final String headSha, final String baseSha) {
+        return Pull.builder()
+                .number(number)
+                .head(CommitSnapshot.builder().sha(headSha).build())
+                .base(CommitSnapshot.builder().sha(baseSha).build())
+                .build();
+    }
+}
@@ -0,0 +1,19 @@
+package org.accula.api.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GlobalCloneIndexTest {
+    private static final long SHARD_SIZE = 1L << 60;
+
+    @Test
+    void testShardsMatchPartitionRanges() {
+        assertEquals(0, GlobalCloneIndex.shard(Long.MIN_VALUE));
+        assertEquals(0, GlobalCloneIndex.shard(Long.MIN_VALUE + SHARD_SIZE - 1));
+        assertEquals(1, GlobalCloneIndex.shard(Long.MIN_VALUE + SHARD_SIZE));
+        assertEquals(GlobalCloneIndex.SHARD_COUNT / 2 - 1, GlobalCloneIndex.shard(-1L));
+        assertEquals(GlobalCloneIndex.SHARD_COUNT / 2, GlobalCloneIndex.shard(0L));
+        assertEquals(GlobalCloneIndex.SHARD_COUNT - 1, GlobalCloneIndex.shard(Long.MAX_VALUE));
+    }
+}
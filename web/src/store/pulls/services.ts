@@ -99,6 +99,31 @@ export const getClones = async (
     .then(resp => resp.data as IClone[])
 }
 
+const awaitDetection = (
+  projectId: number, //
+  pullId: number,
+  jobId: number
+): Promise<void> =>
+  new Promise((resolve, reject) => {
+    const progress = new EventSource(
+      `${API_URL}/api/projects/${projectId}/pulls/${pullId}/clones/refresh/${jobId}`,
+      { withCredentials: true }
+    )
+    progress.addEventListener('completion', event => {
+      progress.close()
+      const job = JSON.parse((event as MessageEvent).data)
+      if (job.state === 'SUCCEEDED') {
+        resolve()
+      } else {
+        reject(new Error(job.error))
+      }
+    })
+    progress.onerror = () => {
+      progress.close()
+      reject(new Error('Clone detection progress is unavailable'))
+    }
+  })
+
 export const refreshClones = async (
   token: IToken,
   projectId: number,
@@ -107,7 +132,7 @@ export const refreshClones = async (
   if (DEBUG) {
     return Promise.resolve([])
   }
-  return axios //
+  const job = await axios //
     .post(`${API_URL}/api/projects/${projectId}/pulls/${pullId}/clones/refresh`, null, {
       headers: {
         Accept: 'application/json',
@@ -115,5 +140,7 @@ export const refreshClones = async (
       },
       withCredentials: true
     })
-    .then(resp => resp.data as IClone[])
+    .then(resp => resp.data as { id: number })
+  await awaitDetection(projectId, pullId, job.id)
+  return getClones(token, projectId, pullId)
 }